@@ -0,0 +1,193 @@
+package org.info.berkut;
+
+import org.info.berkut.service.ExportProgress;
+import org.info.berkut.service.ExportResult;
+import org.info.berkut.service.Parser;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless batch export for cron jobs, e.g. {@code --from 2025-01 --to 2025-06 --out backfill}.
+ * <p>
+ * Runs the {@code cli} profile: no JavaFX, no web server, lazily created beans. The time from JVM start until the
+ * export starts (its login is the first request) is printed and checked against
+ * {@code berkut.cli.startup-budget-ms}. {@code mvn -Pcli package} builds a jar with this main class and the
+ * Spring AOT initializers of the profile; for the fastest start, extract it and train a CDS archive once, and
+ * keep the JIT at C1, which is all a short batch run profits from:
+ * <pre>
+ * java -Djarmode=tools -jar target/berkut-0.0.1-SNAPSHOT.jar extract --destination cli
+ * java -XX:TieredStopAtLevel=1 -XX:ArchiveClassesAtExit=cli/berkut.jsa -Dspring.aot.enabled=true -jar cli/berkut-0.0.1-SNAPSHOT.jar --from 2025-01 --to 2025-01 --out /tmp --dry-run
+ * java -XX:TieredStopAtLevel=1 -XX:SharedArchiveFile=cli/berkut.jsa -Dspring.aot.enabled=true -jar cli/berkut-0.0.1-SNAPSHOT.jar --from 2025-01 --to 2025-06 --out backfill
+ * </pre>
+ * {@code --dry-run} starts up, reports the startup time and exits without sending anything.
+ * Exit codes: 0 complete, 2 partial (pages went to the dead letters), 1 failed, 64 bad arguments.
+ */
+public final class BerkutCli {
+
+    static final int OK = 0;
+    static final int FAILED = 1;
+    static final int PARTIAL = 2;
+    static final int USAGE = 64;
+
+    private static final String USAGE_TEXT = """
+            Usage: berkut --from <when> --to <when> --out <dir> [--filter <criterion>]... [--start-page <n>] [--offset <+05:00>] [--dry-run]
+              <when> is a month (2025-01), a day (2025-01-15) or a full timestamp (2025-01-15T08:00:00+05:00);
+              --from takes its start and --to its end. Criteria as in the UI, e.g. --filter checkpoint=Хоргос""";
+
+    /**
+     * Parsed command line.
+     */
+    record Options(String dateFrom, String dateTo, Path out, List<String> filters, int startPage, boolean dryRun) {
+
+        static Options parse(String[] args) {
+            String from = null;
+            String to = null;
+            String out = null;
+            String offset = "+05:00";
+            int startPage = 1;
+            boolean dryRun = false;
+            List<String> filters = new ArrayList<>();
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (name.equals("--dry-run")) {
+                    dryRun = true;
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException(name + " needs a value");
+                }
+                String value = args[++i];
+                switch (name) {
+                    case "--from" -> from = value;
+                    case "--to" -> to = value;
+                    case "--out" -> out = value;
+                    case "--filter" -> filters.add(value);
+                    case "--offset" -> offset = value;
+                    case "--start-page" -> {
+                        try {
+                            startPage = Math.max(1, Integer.parseInt(value));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("--start-page is not a number: " + value);
+                        }
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option " + name);
+                }
+            }
+            if (from == null || to == null || out == null) {
+                throw new IllegalArgumentException("--from, --to and --out are required");
+            }
+            ZoneOffset zone;
+            try {
+                zone = ZoneOffset.of(offset);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("--offset is not a UTC offset: " + offset);
+            }
+            return new Options(bound(from, zone, true), bound(to, zone, false), Paths.get(out), List.copyOf(filters),
+                    startPage, dryRun);
+        }
+
+        /**
+         * First or last second of a month or day, as the search expects it; timestamps pass through.
+         */
+        private static String bound(String value, ZoneOffset zone, boolean start) {
+            try {
+                if (value.length() == 7) {
+                    YearMonth month = YearMonth.parse(value);
+                    return (start ? month.atDay(1) : month.atEndOfMonth()) + (start ? "T00:00:00" : "T23:59:59") + zone;
+                }
+                if (value.length() == 10) {
+                    return LocalDate.parse(value) + (start ? "T00:00:00" : "T23:59:59") + zone;
+                }
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Not a month or a day: " + value);
+            }
+            return value;
+        }
+
+        Path target() {
+            return out.resolve("crossing_facts_" + dateFrom.substring(0, 10) + "_" + dateTo.substring(0, 10) + ".csv");
+        }
+    }
+
+    private BerkutCli() {
+    }
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE_TEXT);
+            System.exit(USAGE);
+            return;
+        }
+        System.exit(run(options));
+    }
+
+    static int run(Options options) {
+        long contextStart = System.nanoTime();
+        // AOT looks its initializers up by the main class, and they are generated for BerkutApplication
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(BerkutApplication.class)
+                .main(BerkutApplication.class)
+                .profiles("cli")
+                .run();
+        try {
+            Parser parser = context.getBean(Parser.class);
+            long contextMs = (System.nanoTime() - contextStart) / 1_000_000;
+            long budgetMs = context.getEnvironment().getProperty("berkut.cli.startup-budget-ms", Long.class, 1000L);
+            reportStartup(contextMs, budgetMs);
+            if (options.dryRun()) {
+                return exit(context, OK);
+            }
+
+            Path target = options.target().toAbsolutePath();
+            ExportResult result = parser.exportCsv(options.dateFrom(), options.dateTo(), options.startPage(), target,
+                    new ExportProgress(), options.filters()).block();
+            if (result == null || result.isEmpty()) {
+                print("No data for " + options.dateFrom() + " .. " + options.dateTo());
+                return exit(context, OK);
+            }
+            print((result.complete() ? "Exported " : "Exported (partial, rerun the dead letters) ") + result.rows()
+                    + " rows, " + result.bytes() / 1024 + " KB to " + result.path());
+            return exit(context, result.complete() ? OK : PARTIAL);
+        } catch (RuntimeException e) {
+            System.err.println("[BERKUT] Export failed: " + e.getMessage());
+            return exit(context, FAILED);
+        }
+    }
+
+    /**
+     * Time since the JVM started, which is what a cron job waits for before the login goes out.
+     */
+    private static void reportStartup(long contextMs, long budgetMs) {
+        long sinceJvmMs = ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, Instant.now()).toMillis())
+                .orElse(contextMs);
+        print("Started in " + sinceJvmMs + " ms (Spring context " + contextMs + " ms)");
+        if (sinceJvmMs > budgetMs) {
+            print("⚠ Startup took longer than " + budgetMs + " ms; run the extracted jar with a CDS archive,"
+                    + " -Dspring.aot.enabled=true and -XX:TieredStopAtLevel=1 (see BerkutCli)");
+        }
+    }
+
+    private static int exit(ConfigurableApplicationContext context, int code) {
+        return SpringApplication.exit(context, () -> code);
+    }
+
+    private static void print(String message) {
+        System.out.println("[BERKUT] " + message);
+    }
+}
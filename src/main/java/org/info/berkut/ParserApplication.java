@@ -9,14 +9,20 @@ import javafx.scene.control.*;
 import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import org.info.berkut.service.ExportProgress;
+import org.info.berkut.service.ExportResult;
 import org.info.berkut.service.Parser;
 import org.springframework.boot.SpringApplication;
 import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.Disposable;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.List;
 
 public class ParserApplication extends Application {
 
@@ -27,9 +33,12 @@ public class ParserApplication extends Application {
     private ComboBox<Integer> yearComboBox;
     private Button exportButton;
     private Label statusLabel;
-    private ProgressIndicator progressIndicator;
+    private ProgressBar progressBar;
+    private Label progressLabel;
+    private Disposable progressUpdates;
 
     private TextField startPageField;
+    private TextField filterField;
 
     @Override
     public void init() {
@@ -72,6 +81,12 @@ public class ParserApplication extends Application {
         startPageField.setPrefWidth(200);
         startPageField.setPromptText("1");
 
+        // FILTER
+        Label filterLabel = new Label("Filter (optional):");
+        filterField = new TextField();
+        filterField.setPrefWidth(200);
+        filterField.setPromptText("checkpoint=Хоргос; direction!=Въезд");
+
         // BUTTON
         exportButton = new Button("Export CSV");
         exportButton.setPrefWidth(200);
@@ -79,9 +94,14 @@ public class ParserApplication extends Application {
         exportButton.setOnAction(e -> handleExport());
 
         // PROGRESS
-        progressIndicator = new ProgressIndicator();
-        progressIndicator.setVisible(false);
-        progressIndicator.setPrefSize(40, 40);
+        progressBar = new ProgressBar(0);
+        progressBar.setVisible(false);
+        progressBar.setPrefWidth(280);
+
+        progressLabel = new Label("");
+        progressLabel.setStyle("-fx-font-size: 11px; -fx-text-fill: #555555;");
+        progressLabel.setAlignment(Pos.CENTER);
+        progressLabel.setPrefWidth(300);
 
         // STATUS
         statusLabel = new Label("");
@@ -98,12 +118,14 @@ public class ParserApplication extends Application {
                 monthLabel, monthComboBox,
                 yearLabel, yearComboBox,
                 startPageLabel, startPageField,
+                filterLabel, filterField,
                 exportButton,
-                progressIndicator,
+                progressBar,
+                progressLabel,
                 statusLabel
         );
 
-        Scene scene = new Scene(layout, 350, 450);
+        Scene scene = new Scene(layout, 350, 580);
         primaryStage.setScene(scene);
         primaryStage.setResizable(false);
         primaryStage.setOnCloseRequest(e -> {
@@ -128,20 +150,41 @@ public class ParserApplication extends Application {
             return;
         }
 
+        // criteria are separated by ';', see ExportFilter
+        List<String> filters = Arrays.stream(filterField.getText().split(";")).map(String::strip)
+                .filter(criterion -> !criterion.isEmpty()).toList();
+        try {
+            parser.filter(filters);
+        } catch (IllegalArgumentException ex) {
+            showStatus(ex.getMessage(), "red");
+            return;
+        }
+
         YearMonth yearMonth = YearMonth.of(selectedYear, selectedMonth);
         String dateFrom = yearMonth.atDay(1) + "T00:00:00+05:00";
         String dateTo = yearMonth.atEndOfMonth() + "T23:59:59+05:00";
 
         // UI lock
         exportButton.setDisable(true);
-        progressIndicator.setVisible(true);
+        progressBar.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+        progressBar.setVisible(true);
+        progressLabel.setText("");
         showStatus("Exporting data...", "blue");
 
-        parser.exportCsv(dateFrom, dateTo, startPage)
+        // indeterminate until the first page tells how many records there are
+        ExportProgress progress = new ExportProgress();
+        progressUpdates = progress.events()
+                .subscribe(event -> Platform.runLater(() -> {
+                    double fraction = event.fraction();
+                    progressBar.setProgress(fraction < 0 ? ProgressIndicator.INDETERMINATE_PROGRESS : fraction);
+                    progressLabel.setText(event.summary());
+                }));
+
+        parser.exportCsv(dateFrom, dateTo, startPage, Parser.defaultTarget(), progress, filters)
                 .subscribe(
-                        csvData -> Platform.runLater(() -> {
-                            if (csvData != null && !csvData.isEmpty()) {
-                                saveFile(csvData, selectedMonth, selectedYear);
+                        result -> Platform.runLater(() -> {
+                            if (result != null && !result.isEmpty()) {
+                                saveFile(result, selectedMonth, selectedYear);
                             } else {
                                 showStatus("No data found for selected period", "orange");
                             }
@@ -157,7 +200,7 @@ public class ParserApplication extends Application {
                 );
     }
 
-    private void saveFile(String csvData, int month, int year) {
+    private void saveFile(ExportResult result, int month, int year) {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save CSV File");
         fileChooser.setInitialFileName(String.format("crossing_facts_%d-%02d.csv", year, month));
@@ -168,8 +211,8 @@ public class ParserApplication extends Application {
         File file = fileChooser.showSaveDialog(exportButton.getScene().getWindow());
 
         if (file != null) {
-            try (FileWriter writer = new FileWriter(file)) {
-                writer.write(csvData);
+            try {
+                Files.copy(result.path(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
                 showStatus("File saved successfully!", "green");
                 showAlert("Success",
                         "CSV file has been saved to:\n" + file.getAbsolutePath(),
@@ -192,7 +235,10 @@ public class ParserApplication extends Application {
 
     private void resetUI() {
         exportButton.setDisable(false);
-        progressIndicator.setVisible(false);
+        progressBar.setVisible(false);
+        if (progressUpdates != null) {
+            progressUpdates.dispose();
+        }
     }
 
     private void showAlert(String title, String content, Alert.AlertType type) {
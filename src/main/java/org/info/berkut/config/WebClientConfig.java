@@ -2,36 +2,114 @@ package org.info.berkut.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.channel.ChannelOption;
-import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.Http11SslContextSpec;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.tcp.SslProvider;
 
-import javax.net.ssl.SSLException;
 import java.time.Duration;
 
+/**
+ * HTTP transport of the exporter: one keep-alive connection pool shared by the auth and search calls,
+ * gzip/deflate responses, optional HTTP/2 and a timeout per phase (pool acquire, connect, TLS handshake, response).
+ * Pool and client metrics go to the Micrometer global registry under {@code reactor.netty.*}.
+ */
 @Configuration
 public class WebClientConfig {
+
+    // ~2x berkut.fetch.max-concurrency leaves room for the auth calls and parallel exports
+    @Value("${berkut.http.pool.max-connections:16}")
+    private int maxConnections;
+
+    @Value("${berkut.http.pool.pending-acquire-timeout-ms:60000}")
+    private long pendingAcquireTimeoutMs;
+
+    // below the server's keep-alive timeout, so we never reuse a connection the server is closing
+    @Value("${berkut.http.pool.max-idle-time-ms:30000}")
+    private long maxIdleTimeMs;
+
+    @Value("${berkut.http.pool.max-life-time-ms:600000}")
+    private long maxLifeTimeMs;
+
+    @Value("${berkut.http.pool.evict-in-background-ms:30000}")
+    private long evictInBackgroundMs;
+
+    @Value("${berkut.http.metrics:true}")
+    private boolean metrics;
+
+    @Value("${berkut.http.compress:true}")
+    private boolean compress;
+
+    // http1 = HTTP/1.1 only, h2 = HTTP/2 when the server offers it over TLS (ALPN), HTTP/1.1 otherwise
+    @Value("${berkut.http.protocol:http1}")
+    private String protocol;
+
+    @Value("${berkut.http.connect-timeout-ms:10000}")
+    private int connectTimeoutMs;
+
+    @Value("${berkut.http.handshake-timeout-ms:10000}")
+    private long handshakeTimeoutMs;
+
+    // longest silence allowed while waiting for or reading a response; large search pages can take a while
+    @Value("${berkut.http.response-timeout-ms:180000}")
+    private long responseTimeoutMs;
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider connectionProvider() {
+        return ConnectionProvider.builder("berkut")
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMs))
+                .evictInBackground(Duration.ofMillis(evictInBackgroundMs))
+                // reuse the most recently released connection, so idle ones age out and get evicted
+                .lifo()
+                .metrics(metrics)
+                .build();
+    }
+
     @Bean
-    public WebClient webClient() {
-        HttpClient httpClient = HttpClient.create()
-                .secure(spec -> {
-                    try {
-                        spec.sslContext(
-                                SslContextBuilder.forClient()
-                                        .trustManager(InsecureTrustManagerFactory.INSTANCE).build()
-                        );
-                    } catch (SSLException e) {
-                        throw new RuntimeException(e);
-                    }
-                })
-                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 300_000)
-                .responseTimeout(Duration.ofSeconds(1000))
+    public WebClient webClient(ConnectionProvider connectionProvider) {
+        boolean http2 = "h2".equalsIgnoreCase(protocol.trim());
+        if (!http2 && !"http1".equalsIgnoreCase(protocol.trim())) {
+            throw new IllegalArgumentException("berkut.http.protocol must be http1 or h2, got: " + protocol);
+        }
+
+        // typed as the generic spec: a ternary of the two would pick the deprecated sslContext overload
+        SslProvider.GenericSslContextSpec<?> sslContext;
+        if (http2) {
+            sslContext = Http2SslContextSpec.forClient().configure(ssl -> ssl.trustManager(InsecureTrustManagerFactory.INSTANCE));
+        } else {
+            sslContext = Http11SslContextSpec.forClient().configure(ssl -> ssl.trustManager(InsecureTrustManagerFactory.INSTANCE));
+        }
+
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .protocol(http2 ? new HttpProtocol[]{HttpProtocol.H2, HttpProtocol.HTTP11} : new HttpProtocol[]{HttpProtocol.HTTP11})
+                .secure(spec -> spec
+                        .sslContext(sslContext)
+                        .handshakeTimeout(Duration.ofMillis(handshakeTimeoutMs)))
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .responseTimeout(Duration.ofMillis(responseTimeoutMs))
+                // sends Accept-Encoding: gzip, deflate and inflates the body before it reaches the decoder
+                .compress(compress)
                 .followRedirect(false);
+        if (metrics) {
+            // only the path as tag: page numbers and sizes in the query would explode the cardinality
+            httpClient = httpClient.metrics(true, uri -> {
+                int query = uri.indexOf('?');
+                return query < 0 ? uri : uri.substring(0, query);
+            });
+        }
 
         ExchangeStrategies strategies = ExchangeStrategies.builder()
                 .codecs(configurer -> configurer
@@ -52,4 +130,4 @@ public class WebClientConfig {
     public ObjectMapper objectMapper() {
         return new ObjectMapper().findAndRegisterModules();
     }
-}
\ No newline at end of file
+}
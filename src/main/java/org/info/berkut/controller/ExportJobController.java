@@ -0,0 +1,104 @@
+package org.info.berkut.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.info.berkut.service.ExportJob;
+import org.info.berkut.service.ExportJobService;
+import org.info.berkut.service.ProgressEvent;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/api/parser/jobs")
+public class ExportJobController {
+
+    private final ExportJobService jobs;
+
+    @PostMapping
+    public ResponseEntity<ExportJob> submit(
+            @RequestParam String dateFrom,
+            @RequestParam String dateTo,
+            @RequestParam(required = false, defaultValue = "0") int startPage,
+            @RequestParam(required = false) List<String> filter) {
+        try {
+            ExportJob job = jobs.submit(dateFrom, dateTo, startPage, filter);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @GetMapping
+    public List<ExportJob> list() {
+        return jobs.list();
+    }
+
+    @GetMapping("/{id}")
+    public ExportJob status(@PathVariable String id) {
+        return find(id);
+    }
+
+    /**
+     * Server-Sent Events with the job's progress: the latest report right away, then one per second.
+     * The stream ends with a {@code done} event when the job is over.
+     */
+    @GetMapping(value = "/{id}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ProgressEvent>> progress(@PathVariable String id) {
+        return find(id).progressEvents()
+                .map(event -> ServerSentEvent.builder(event)
+                        .event(event.done() ? "done" : "progress")
+                        .build());
+    }
+
+    /**
+     * The CSV of a finished job (also of a partial one).
+     */
+    @GetMapping(value = "/{id}/result", produces = "text/csv")
+    public ResponseEntity<Resource> result(@PathVariable String id) {
+        ExportJob job = find(id);
+        if (!job.isFinished() || !Files.exists(job.getOutput())) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Job " + id + " has no result yet (" + job.getStatus() + ")");
+        }
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"crossing_facts_" + job.getDateFrom().substring(0, 10) + ".csv\"")
+                .contentType(MediaType.parseMediaType("text/csv; charset=UTF-8"))
+                .body(new FileSystemResource(job.getOutput()));
+    }
+
+    /**
+     * Cancels a queued or running job, or deletes a finished one with its output.
+     */
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> cancel(@PathVariable String id) {
+        return jobs.cancel(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    private ExportJob find(String id) {
+        ExportJob job = jobs.get(id);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No job " + id);
+        }
+        return job;
+    }
+}
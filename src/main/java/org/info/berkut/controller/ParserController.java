@@ -1,36 +1,86 @@
 package org.info.berkut.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.info.berkut.service.DeadLetters;
+import org.info.berkut.service.ExportResult;
 import org.info.berkut.service.Parser;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
 @RestController
 @RequiredArgsConstructor
 @RequestMapping("/api/parser")
 public class ParserController {
 
     private final Parser parser;
+    private final DeadLetters deadLetters;
 
     @GetMapping(value = "/export", produces = "text/csv")
-    public Mono<ResponseEntity<String>> exportCsv(
+    public ResponseEntity<Flux<DataBuffer>> exportCsv(
             @RequestParam String dateFrom,
             @RequestParam String dateTo,
-            @RequestParam(required = false, defaultValue = "0") int startPage) {
-
-        return parser.exportCsv(dateFrom, dateTo, startPage)
-                .map(csv -> ResponseEntity.ok()
-                        .header(HttpHeaders.CONTENT_DISPOSITION,
-                                "attachment; filename=\"crossing_facts_" + dateFrom.substring(0,10) + ".csv\"")
-                        .contentType(MediaType.parseMediaType("text/csv; charset=UTF-8"))
-                        .body(csv)
-                );
+            @RequestParam(required = false, defaultValue = "0") int startPage,
+            @RequestParam(required = false) List<String> filter) {
+
+        // one buffer per page; Netty stops requesting while the connection is not writable,
+        // so a slow client throttles page fetching instead of piling pages up in memory
+        Flux<DataBuffer> body = parser.streamCsv(dateFrom, dateTo, startPage, filter)
+                .onErrorMap(IllegalArgumentException.class, e -> new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()))
+                .map(chunk -> DefaultDataBufferFactory.sharedInstance.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"crossing_facts_" + dateFrom.substring(0,10) + ".csv\"")
+                .contentType(MediaType.parseMediaType("text/csv; charset=UTF-8"))
+                .body(body);
+    }
+
+    /**
+     * Appends everything newer than the previous run of {@code name} to export/delta/{name}.csv.
+     * {@code dateFrom} only matters for the first run, {@code dateTo} defaults to now.
+     */
+    @PostMapping("/delta/{name}")
+    public Mono<ExportResult> exportDelta(
+            @PathVariable String name,
+            @RequestParam String dateFrom,
+            @RequestParam(required = false) String dateTo) {
+        return parser.exportDelta(name, dateFrom, dateTo);
+    }
+
+    /**
+     * Pages that failed for good and were skipped by the exports.
+     */
+    @GetMapping("/dead-letters")
+    public List<DeadLetters.Entry> deadLetters() {
+        return deadLetters.list();
+    }
+
+    /**
+     * Fetches the dead-lettered pages again into export/dead-letters-{timestamp}.csv.
+     */
+    @PostMapping("/dead-letters/rerun")
+    public Mono<ExportResult> rerunDeadLetters() {
+        String stamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        return parser.rerunDeadLetters(Paths.get("export", "dead-letters-" + stamp + ".csv").toAbsolutePath());
     }
 
 }
@@ -0,0 +1,177 @@
+package org.info.berkut.service;
+
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * AIMD limiter for page requests.
+ * The limit grows by roughly one slot per round-trip while responses come back
+ * under the latency target, and is cut multiplicatively on 429/5xx, timeouts or slow responses.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetMs;
+    private final double backoffRatio;
+
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      long latencyTargetMs, double backoffRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyTargetMs = latencyTargetMs;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    public int maxLimit() {
+        return maxLimit;
+    }
+
+    public synchronized int currentLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Runs the call once a slot is free and feeds its outcome back into the limit.
+     * Every resubscription (e.g. from an outer retry) takes a new slot.
+     */
+    public <T> Mono<T> run(Mono<T> call) {
+        return Mono.usingWhen(
+                acquire().thenReturn(Boolean.TRUE),
+                permit -> {
+                    long start = System.nanoTime();
+                    return call
+                            .doOnSuccess(v -> onSuccess((System.nanoTime() - start) / 1_000_000))
+                            .doOnError(this::onError);
+                },
+                permit -> Mono.fromRunnable(this::release),
+                (permit, err) -> Mono.fromRunnable(this::release),
+                permit -> Mono.fromRunnable(this::release));
+    }
+
+    // -----------------------------
+    // PERMITS
+    // -----------------------------
+    /**
+     * A caller waiting for a slot. {@code granted} is set, under the limiter's lock, when a slot is taken for it;
+     * the sink is only completed after the lock is released, so a cancel in between has to give the slot back.
+     */
+    private static final class Waiter {
+
+        private final MonoSink<Void> sink;
+        private boolean granted;
+
+        private Waiter(MonoSink<Void> sink) {
+            this.sink = sink;
+        }
+    }
+
+    private Mono<Void> acquire() {
+        return Mono.create(sink -> {
+            Waiter waiter = new Waiter(sink);
+            // a completed sink is not cancelled any more, from then on the slot belongs to run()
+            sink.onCancel(() -> cancel(waiter));
+            boolean granted;
+            synchronized (this) {
+                granted = inFlight < (int) limit;
+                if (granted) {
+                    inFlight++;
+                    waiter.granted = true;
+                } else {
+                    waiters.add(waiter);
+                }
+            }
+            if (granted) {
+                sink.success();
+            }
+        });
+    }
+
+    private void cancel(Waiter waiter) {
+        List<Waiter> ready;
+        synchronized (this) {
+            if (!waiter.granted) {
+                waiters.remove(waiter);
+                return;
+            }
+            inFlight--;
+            ready = drainWaiters();
+        }
+        ready.forEach(next -> next.sink.success());
+    }
+
+    private void release() {
+        List<Waiter> ready;
+        synchronized (this) {
+            inFlight--;
+            ready = drainWaiters();
+        }
+        ready.forEach(next -> next.sink.success());
+    }
+
+    private List<Waiter> drainWaiters() {
+        List<Waiter> ready = new ArrayList<>();
+        while (!waiters.isEmpty() && inFlight < (int) limit) {
+            inFlight++;
+            Waiter waiter = waiters.poll();
+            waiter.granted = true;
+            ready.add(waiter);
+        }
+        return ready;
+    }
+
+    // -----------------------------
+    // AIMD
+    // -----------------------------
+    private void onSuccess(long latencyMs) {
+        List<Waiter> ready;
+        synchronized (this) {
+            if (latencyMs <= latencyTargetMs) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            } else {
+                limit = Math.max(minLimit, limit * 0.9);
+            }
+            ready = drainWaiters();
+        }
+        ready.forEach(next -> next.sink.success());
+    }
+
+    private void onError(Throwable ex) {
+        if (!isOverload(ex)) {
+            return;
+        }
+        synchronized (this) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        }
+    }
+
+    static boolean isOverload(Throwable ex) {
+        if (ex instanceof WebClientResponseException wcre) {
+            int status = wcre.getStatusCode().value();
+            return status == 429 || status >= 500;
+        }
+        return isTimeoutOrIo(ex) || isTimeoutOrIo(ex.getCause());
+    }
+
+    private static boolean isTimeoutOrIo(Throwable ex) {
+        // Netty's read/response timeouts are not java.util.concurrent.TimeoutExceptions
+        return ex instanceof TimeoutException || ex instanceof io.netty.handler.timeout.TimeoutException
+                || ex instanceof IOException;
+    }
+}
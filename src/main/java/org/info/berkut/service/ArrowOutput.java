@@ -0,0 +1,281 @@
+package org.info.berkut.service;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.compression.CommonsCompressionFactory;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.compression.CompressionUtil;
+import org.apache.arrow.vector.compression.NoCompressionCodec;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.message.IpcOption;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a pipe-delimited export as an Arrow IPC file ({@code .arrow}) with typed columns: ids as 64-bit
+ * integers, timestamps as UTC instants, dates as days, and the reference-book columns ({@code valueRu} lookups
+ * and a few small enumerations) dictionary-encoded. Empty fields become nulls. Column buffers are compressed with
+ * ZSTD or LZ4, which every Arrow reader understands.
+ * <p>
+ * The CSV is read twice: once for the dictionaries, which an Arrow file has to carry before its first record
+ * batch, then once more to write one record batch per {@code batchRows} rows. Heap use is one batch. Rows are
+ * read with {@link CsvFormat}; a row whose number of fields does not match the header cannot be put into the
+ * columns and is left out, with a count in the log.
+ */
+public final class ArrowOutput {
+
+    private static final Set<String> IDS = Set.of("id", "system_number");
+    private static final Set<String> TIMESTAMPS = Set.of("date", "create_date", "flight_date_fact");
+    private static final Set<String> DATES = Set.of("taxpayer_birthday", "death_date", "document_issue_date",
+            "document_validity_period", "duty_officer_decision_date", "visa_start_date", "visa_expiration_date");
+    private static final Set<String> DICTIONARY = Set.of("sex", "citizenship", "photography_refusing_reason",
+            "intersection_status", "death_country", "document_type", "document_issue_country", "duty_officer_decision",
+            "decision_making_body", "checkpoint", "entry_exit_place", "trip_purpose", "border_crossing_method",
+            "direction", "exit_country", "entry_country", "source", "status", "belonging", "flight_class",
+            "flight_type", "mark_type", "colour", "owner", "visa_frequency", "visa_category", "visa_type");
+
+    private enum Kind { ID, TIMESTAMP, DATE, DICTIONARY, TEXT }
+
+    private ArrowOutput() {
+    }
+
+    /**
+     * {@code zstd}, {@code lz4} or {@code none}.
+     */
+    public static CompressionUtil.CodecType codec(String name) {
+        return switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "zstd" -> CompressionUtil.CodecType.ZSTD;
+            case "lz4" -> CompressionUtil.CodecType.LZ4_FRAME;
+            case "none", "" -> CompressionUtil.CodecType.NO_COMPRESSION;
+            default -> throw new IllegalArgumentException("Unknown Arrow compression: " + name + " (zstd, lz4 or none)");
+        };
+    }
+
+    /**
+     * Writes the rows of {@code csv} to {@code target}, replacing it atomically once complete.
+     */
+    public static ExportResult write(Path csv, Path target, int batchRows, CompressionUtil.CodecType codec) {
+        long start = System.nanoTime();
+        String[] columns;
+        Kind[] kinds;
+        List<Map<String, Integer>> dictionaries = new ArrayList<>();
+        try (CsvFormat.RecordReader reader = new CsvFormat.RecordReader(csv)) {
+            String header = reader.next();
+            if (header == null) {
+                throw new IllegalArgumentException(csv + " has no header");
+            }
+            columns = CsvFormat.fields(header);
+            kinds = new Kind[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                kinds[c] = kind(columns[c]);
+                dictionaries.add(kinds[c] == Kind.DICTIONARY ? new LinkedHashMap<>() : null);
+            }
+            String line;
+            while ((line = reader.next()) != null) {
+                String[] fields = CsvFormat.fields(line);
+                if (fields.length != columns.length) {
+                    continue;
+                }
+                for (int c = 0; c < columns.length; c++) {
+                    if (kinds[c] == Kind.DICTIONARY && !fields[c].isEmpty()) {
+                        Map<String, Integer> values = dictionaries.get(c);
+                        values.putIfAbsent(fields[c], values.size());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + csv, e);
+        }
+
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        long rows = 0;
+        long malformed = 0;
+        // resources close in reverse order, so the dictionaries are released before their allocator
+        try (BufferAllocator allocator = new RootAllocator();
+             DictionaryProvider.MapDictionaryProvider provider = new DictionaryProvider.MapDictionaryProvider()) {
+            List<FieldVector> vectors = new ArrayList<>(columns.length);
+            for (int c = 0; c < columns.length; c++) {
+                if (kinds[c] == Kind.DICTIONARY) {
+                    ArrowType.Int codes = new ArrowType.Int(32, true);
+                    DictionaryEncoding encoding = new DictionaryEncoding(c, false, codes);
+                    // the column holds the int codes; the file schema gets the string type from the dictionary
+                    Field field = new Field(columns[c], new FieldType(true, codes, encoding), null);
+                    vectors.add(new IntVector(field, allocator));
+                    provider.put(dictionary(columns[c], dictionaries.get(c), encoding, allocator));
+                } else {
+                    vectors.add(Field.nullable(columns[c], type(kinds[c])).createVector(allocator));
+                }
+            }
+
+            try (VectorSchemaRoot root = new VectorSchemaRoot(vectors);
+                 FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING);
+                 ArrowFileWriter writer = new ArrowFileWriter(root, provider, channel, Map.of(), IpcOption.DEFAULT,
+                         // the commons factory only knows the real codecs
+                         codec == CompressionUtil.CodecType.NO_COMPRESSION ? NoCompressionCodec.Factory.INSTANCE
+                                 : CommonsCompressionFactory.INSTANCE, codec);
+                 CsvFormat.RecordReader reader = new CsvFormat.RecordReader(csv)) {
+                writer.start();
+                reader.next();
+                allocate(root, batchRows);
+                int batch = 0;
+                String line;
+                while ((line = reader.next()) != null) {
+                    String[] values = CsvFormat.fields(line);
+                    if (values.length != columns.length) {
+                        // shifted fields would land in the wrong columns
+                        malformed++;
+                        continue;
+                    }
+                    for (int c = 0; c < columns.length; c++) {
+                        set(root.getVector(c), kinds[c], batch, values[c], dictionaries.get(c));
+                    }
+                    rows++;
+                    if (++batch == batchRows) {
+                        root.setRowCount(batch);
+                        writer.writeBatch();
+                        allocate(root, batchRows);
+                        batch = 0;
+                    }
+                }
+                if (batch > 0 || rows == 0) {
+                    root.setRowCount(batch);
+                    writer.writeBatch();
+                }
+                writer.end();
+                channel.force(false);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write " + target, e);
+        }
+
+        try {
+            long bytes = Files.size(target);
+            Parser.log("Arrow file " + target + ": " + rows + " rows, " + bytes / 1024 + " KB in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms"
+                    + (malformed > 0 ? ", " + malformed + " rows with a wrong number of fields left out" : ""));
+            return new ExportResult(target, rows, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the size of " + target, e);
+        }
+    }
+
+    // -----------------------------
+    // COLUMNS
+    // -----------------------------
+    private static Kind kind(String column) {
+        if (IDS.contains(column)) return Kind.ID;
+        if (TIMESTAMPS.contains(column)) return Kind.TIMESTAMP;
+        if (DATES.contains(column)) return Kind.DATE;
+        if (DICTIONARY.contains(column)) return Kind.DICTIONARY;
+        return Kind.TEXT;
+    }
+
+    private static ArrowType type(Kind kind) {
+        return switch (kind) {
+            case ID -> new ArrowType.Int(64, true);
+            case TIMESTAMP -> new ArrowType.Timestamp(TimeUnit.MILLISECOND, "UTC");
+            case DATE -> new ArrowType.Date(DateUnit.DAY);
+            default -> ArrowType.Utf8.INSTANCE;
+        };
+    }
+
+    private static Dictionary dictionary(String column, Map<String, Integer> values, DictionaryEncoding encoding,
+                                         BufferAllocator allocator) {
+        VarCharVector vector = new VarCharVector(column, allocator);
+        vector.allocateNew(values.size());
+        values.forEach((value, index) -> vector.setSafe(index, value.getBytes(StandardCharsets.UTF_8)));
+        vector.setValueCount(values.size());
+        return new Dictionary(vector, encoding);
+    }
+
+    private static void allocate(VectorSchemaRoot root, int rows) {
+        for (FieldVector vector : root.getFieldVectors()) {
+            vector.setInitialCapacity(rows);
+            vector.allocateNew();
+        }
+    }
+
+    /**
+     * Sets one cell; values that do not parse as their column type are stored as nulls.
+     */
+    private static void set(FieldVector vector, Kind kind, int row, String value, Map<String, Integer> dictionary) {
+        if (value.isEmpty()) {
+            vector.setNull(row);
+            return;
+        }
+        switch (kind) {
+            case ID -> {
+                try {
+                    ((BigIntVector) vector).set(row, Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    vector.setNull(row);
+                }
+            }
+            case TIMESTAMP -> {
+                OffsetDateTime time = TimeWindow.parse(value, ZoneOffset.UTC);
+                if (time == null) {
+                    vector.setNull(row);
+                } else {
+                    ((TimeStampMilliTZVector) vector).set(row, time.toInstant().toEpochMilli());
+                }
+            }
+            case DATE -> {
+                LocalDate date = date(value);
+                if (date == null) {
+                    vector.setNull(row);
+                } else {
+                    ((DateDayVector) vector).set(row, (int) date.toEpochDay());
+                }
+            }
+            case DICTIONARY -> ((IntVector) vector).set(row, dictionary.get(value));
+            default -> ((VarCharVector) vector).setSafe(row, value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * {@code 1990-05-17}, also when a time follows it.
+     */
+    private static LocalDate date(String value) {
+        if (value.length() < 10) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(value.substring(0, 10));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.info.berkut.service;
+
+/**
+ * Circuit breaker in front of the search API, shared by all fetchers.
+ * <p>
+ * After {@code failureThreshold} overload failures in a row the circuit opens and every request waits in
+ * {@link #admit} instead of going out. When the open period is over a single probe is let through: if it succeeds
+ * the circuit closes, if it fails the circuit opens again for twice as long, up to {@code maxOpenMs}.
+ * Any answer that is not an overload (a 401, a 404) shows the upstream is up and counts as a success here.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // how often requests held behind a probe look again
+    private static final long PROBE_WAIT_MS = 500;
+
+    private final int failureThreshold;
+    private final long openMs;
+    private final long maxOpenMs;
+
+    private State state = State.CLOSED;
+    private int failuresInARow;
+    private long openFor;
+    private long openUntil;
+
+    public CircuitBreaker(int failureThreshold, long openMs, long maxOpenMs) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = openMs;
+        this.maxOpenMs = Math.max(openMs, maxOpenMs);
+        this.openFor = openMs;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    /**
+     * How long the caller has to wait before it may send its request; 0 lets it go now.
+     */
+    public synchronized long admit() {
+        switch (state) {
+            case CLOSED:
+                return 0;
+            case OPEN:
+                long now = System.currentTimeMillis();
+                if (now < openUntil) {
+                    return openUntil - now;
+                }
+                state = State.HALF_OPEN;
+                Parser.log("Circuit half-open, probing the upstream");
+                return 0;
+            default:
+                return PROBE_WAIT_MS;
+        }
+    }
+
+    public synchronized void succeeded() {
+        failuresInARow = 0;
+        if (state != State.CLOSED) {
+            Parser.log("✔ Circuit closed, upstream is answering again");
+            state = State.CLOSED;
+            openFor = openMs;
+        }
+    }
+
+    /**
+     * Records an overload failure; {@code holdMs} (e.g. from {@code Retry-After}) is the least the circuit stays
+     * open if this failure opens it.
+     */
+    public synchronized void failed(long holdMs) {
+        failuresInARow++;
+        if (state == State.HALF_OPEN) {
+            openFor = Math.min(maxOpenMs, openFor * 2);
+            open(holdMs);
+        } else if (state == State.CLOSED && failuresInARow >= failureThreshold) {
+            open(holdMs);
+        }
+    }
+
+    /**
+     * A request that was let through went away without an answer; if it was the probe, the next caller probes.
+     */
+    public synchronized void released() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis();
+        }
+    }
+
+    private void open(long holdMs) {
+        long duration = Math.max(openFor, holdMs);
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + duration;
+        Parser.log("⛔ Circuit open for " + duration / 1000 + " s after " + failuresInARow + " failures in a row");
+    }
+}
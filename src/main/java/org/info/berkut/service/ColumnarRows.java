@@ -0,0 +1,228 @@
+package org.info.berkut.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only, dictionary-encoded store of CSV rows.
+ * <p>
+ * The first {@link #SAMPLE} rows decide which columns repeat (checkpoint, citizenship, document type, direction,
+ * the country columns and the many empty ones): those are kept as int codes into one string table shared by all
+ * columns, so every distinct value is held once. The other columns of a row are packed together as UTF-8 into
+ * a byte arena. A row only becomes a {@code String} again when it is rendered for output.
+ * <p>
+ * Not thread-safe: the external sorter, its only user, appends and renders on one thread.
+ */
+public class ColumnarRows {
+
+    static final int SAMPLE = 256;
+    // a column is encoded when its sample has at most this many distinct values
+    private static final int MAX_SAMPLE_DISTINCT = SAMPLE / 4;
+    private static final int CHUNK_ROWS = 4096;
+    private static final int TABLE_CHUNK = 4096;
+    private static final int ARENA_CHUNK = 1 << 20;
+
+    private final int columns;
+    private final List<String> sample = new ArrayList<>();
+
+    // decided after the sample: for each column its slot among the encoded columns, or -1 if it is packed raw
+    private int[] slots;
+    private int encodedColumns;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private int tableSize;
+    private long tableBytes;
+    private long arenaBytes;
+    private int arenaPosition;
+
+    private String[][] table = new String[1][];
+    private int[][] rowCodes = new int[1][];
+    // per row: arena chunk, offset and length of its packed columns; a negative chunk means the whole line is packed
+    private int[][] rowRefs = new int[1][];
+    private byte[][] arena = new byte[0][];
+    private int size;
+
+    public ColumnarRows(String header) {
+        this.columns = header.split("\\|", -1).length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Approximate heap held by the rows, including the string table.
+     */
+    public long heapBytes() {
+        return size * (4L * encodedColumns + 12) + arenaBytes + tableBytes;
+    }
+
+    public void add(String line) {
+        int row = size;
+        if (slots == null) {
+            sample.add(line);
+            addPacked(row, line, true);
+            if (sample.size() == SAMPLE) {
+                chooseEncodedColumns();
+            }
+        } else {
+            String[] fields = line.split("\\|", -1);
+            if (fields.length != columns) {
+                // a quoted field with a '|' in it, or a short row: keep the line as it is
+                addPacked(row, line, true);
+            } else {
+                int[] codesOfRow = codeChunk(row);
+                int base = (row % CHUNK_ROWS) * encodedColumns;
+                StringBuilder packed = new StringBuilder();
+                boolean first = true;
+                for (int c = 0; c < columns; c++) {
+                    if (slots[c] >= 0) {
+                        codesOfRow[base + slots[c]] = code(fields[c]);
+                    } else {
+                        if (!first) {
+                            packed.append('|');
+                        }
+                        packed.append(fields[c]);
+                        first = false;
+                    }
+                }
+                addPacked(row, packed.toString(), false);
+            }
+        }
+        size = row + 1;
+    }
+
+    /**
+     * Row {@code index} rendered back to its CSV line.
+     */
+    public String row(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int[] refs = rowRefs[index / CHUNK_ROWS];
+        int at = (index % CHUNK_ROWS) * 3;
+        int chunk = refs[at];
+        String packed = new String(arena[chunk < 0 ? -chunk - 1 : chunk], refs[at + 1], refs[at + 2],
+                StandardCharsets.UTF_8);
+        if (chunk < 0) {
+            return packed;
+        }
+
+        int[] codes = rowCodes[index / CHUNK_ROWS];
+        int base = (index % CHUNK_ROWS) * encodedColumns;
+        StringBuilder line = new StringBuilder(packed.length() + columns * 8);
+        int from = 0;
+        for (int c = 0; c < columns; c++) {
+            if (c > 0) {
+                line.append('|');
+            }
+            if (slots[c] >= 0) {
+                int code = codes[base + slots[c]];
+                line.append(table[code / TABLE_CHUNK][code % TABLE_CHUNK]);
+            } else {
+                int end = packed.indexOf('|', from);
+                if (end < 0) {
+                    end = packed.length();
+                }
+                line.append(packed, from, end);
+                from = end + 1;
+            }
+        }
+        return line.toString();
+    }
+
+    // -----------------------------
+    // ENCODING
+    // -----------------------------
+    private void chooseEncodedColumns() {
+        List<Set<String>> distinct = new ArrayList<>(columns);
+        for (int c = 0; c < columns; c++) {
+            distinct.add(new HashSet<>());
+        }
+        for (String line : sample) {
+            String[] fields = line.split("\\|", -1);
+            for (int c = 0; c < Math.min(columns, fields.length); c++) {
+                distinct.get(c).add(fields[c]);
+            }
+        }
+        int[] chosen = new int[columns];
+        int next = 0;
+        for (int c = 0; c < columns; c++) {
+            chosen[c] = distinct.get(c).size() <= MAX_SAMPLE_DISTINCT ? next++ : -1;
+        }
+        encodedColumns = next;
+        slots = chosen;
+        sample.clear();
+    }
+
+    private int code(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        int index = tableSize;
+        int chunk = index / TABLE_CHUNK;
+        String[][] chunks = table;
+        if (chunk >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            table = chunks;
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new String[TABLE_CHUNK];
+        }
+        chunks[chunk][index % TABLE_CHUNK] = value;
+        tableSize++;
+        // the String with its bytes, the map entry and the boxed code
+        tableBytes += value.length() + 96;
+        codes.put(value, index);
+        return index;
+    }
+
+    private int[] codeChunk(int row) {
+        int chunk = row / CHUNK_ROWS;
+        int[][] chunks = rowCodes;
+        if (chunk >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            rowCodes = chunks;
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new int[CHUNK_ROWS * encodedColumns];
+        }
+        return chunks[chunk];
+    }
+
+    private void addPacked(int row, String text, boolean wholeLine) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[][] chunks = arena;
+        if (chunks.length == 0 || arenaPosition + bytes.length > chunks[chunks.length - 1].length) {
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = new byte[Math.max(ARENA_CHUNK, bytes.length)];
+            arenaPosition = 0;
+            arena = chunks;
+        }
+        int chunk = chunks.length - 1;
+        System.arraycopy(bytes, 0, chunks[chunk], arenaPosition, bytes.length);
+
+        int refChunk = row / CHUNK_ROWS;
+        int[][] refs = rowRefs;
+        if (refChunk >= refs.length) {
+            refs = Arrays.copyOf(refs, refs.length * 2);
+            rowRefs = refs;
+        }
+        if (refs[refChunk] == null) {
+            refs[refChunk] = new int[CHUNK_ROWS * 3];
+        }
+        int at = (row % CHUNK_ROWS) * 3;
+        refs[refChunk][at] = wholeLine ? -chunk - 1 : chunk;
+        refs[refChunk][at + 1] = arenaPosition;
+        refs[refChunk][at + 2] = bytes.length;
+        arenaPosition += bytes.length;
+        arenaBytes += bytes.length;
+    }
+}
@@ -0,0 +1,230 @@
+package org.info.berkut.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The pipe-delimited rows of an export. A field that contains '|', '\r' or '\n', or that starts with '"', is
+ * written in double quotes, with its quotes doubled, the way RFC 4180 does it with commas; all other fields go out
+ * as they are, so a name like {@code ТОО "Береке"} keeps its bytes and a row without '|' in a value still splits
+ * on '|'. A row is one line unless a quoted field has a line break in it, so rows are read back with
+ * {@link RecordReader}, never line by line.
+ * <p>
+ * A '"' only opens a quoted field at the start of the field. A quote in the middle of an unquoted field stays
+ * part of the field.
+ */
+public final class CsvFormat {
+
+    public static final char SEPARATOR = '|';
+    private static final char QUOTE = '"';
+
+    private CsvFormat() {
+    }
+
+    /**
+     * Joins values to a row, escaping those that need it.
+     */
+    public static String join(String... values) {
+        StringBuilder row = new StringBuilder(values.length * 16);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                row.append(SEPARATOR);
+            }
+            int start = row.length();
+            row.append(values[i]);
+            escapeFrom(row, start);
+        }
+        return row.toString();
+    }
+
+    /**
+     * Escapes the field that was appended to {@code row} from {@code start} on, in place. Fields without special
+     * characters, which is nearly all of them, are only scanned.
+     */
+    public static void escapeFrom(StringBuilder row, int start) {
+        int length = row.length();
+        int quotes = 0;
+        // a quote opens a quoted field only at the start, so one further in needs no escaping
+        boolean special = start < length && row.charAt(start) == QUOTE;
+        for (int i = start; i < length; i++) {
+            char c = row.charAt(i);
+            if (c == QUOTE) {
+                quotes++;
+            } else if (c == SEPARATOR || c == '\r' || c == '\n') {
+                special = true;
+            }
+        }
+        if (!special) {
+            return;
+        }
+        String field = row.substring(start);
+        row.setLength(start);
+        row.ensureCapacity(start + field.length() + quotes + 2);
+        row.append(QUOTE);
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == QUOTE) {
+                row.append(QUOTE);
+            }
+            row.append(c);
+        }
+        row.append(QUOTE);
+    }
+
+    /**
+     * The unescaped fields of one row.
+     */
+    public static String[] fields(String row) {
+        if (row.indexOf(QUOTE) < 0) {
+            return row.split("\\|", -1);
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        int at = 0;
+        while (true) {
+            at = readField(row, at, field);
+            fields.add(field.toString());
+            if (at >= row.length()) {
+                return fields.toArray(String[]::new);
+            }
+            at++;
+        }
+    }
+
+    /**
+     * The unescaped field {@code column} of a row, or "" if the row is shorter; cheaper than {@link #fields}
+     * when one column is all that is needed.
+     */
+    public static String field(String row, int column) {
+        int start = 0;
+        if (row.indexOf(QUOTE) < 0) {
+            for (int i = 0; i < column; i++) {
+                start = row.indexOf(SEPARATOR, start) + 1;
+                if (start == 0) {
+                    return "";
+                }
+            }
+            int end = row.indexOf(SEPARATOR, start);
+            return end < 0 ? row.substring(start) : row.substring(start, end);
+        }
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < column; i++) {
+            start = readField(row, start, null);
+            if (start >= row.length()) {
+                return "";
+            }
+            start++;
+        }
+        readField(row, start, field);
+        return field.toString();
+    }
+
+    /**
+     * Reads the field at {@code at} into {@code field} (if given) and returns the index of the separator after
+     * it, or the length of the row.
+     */
+    private static int readField(String row, int at, StringBuilder field) {
+        if (field != null) {
+            field.setLength(0);
+        }
+        int length = row.length();
+        if (at < length && row.charAt(at) == QUOTE) {
+            int i = at + 1;
+            while (i < length) {
+                char c = row.charAt(i);
+                if (c == QUOTE) {
+                    if (i + 1 < length && row.charAt(i + 1) == QUOTE) {
+                        if (field != null) field.append(QUOTE);
+                        i += 2;
+                        continue;
+                    }
+                    // the closing quote; anything up to the separator is kept, as lenient readers do
+                    int end = row.indexOf(SEPARATOR, i + 1);
+                    end = end < 0 ? length : end;
+                    if (field != null) field.append(row, i + 1, end);
+                    return end;
+                }
+                if (field != null) field.append(c);
+                i++;
+            }
+            return length;
+        }
+        int end = row.indexOf(SEPARATOR, at);
+        end = end < 0 ? length : end;
+        if (field != null) field.append(row, at, end);
+        return end;
+    }
+
+    private enum State { FIELD_START, UNQUOTED, QUOTED, QUOTE_SEEN }
+
+    /**
+     * Reads the rows of a file as they were written: a line break inside a quoted field belongs to the field,
+     * and a "\r\n" ending a row counts as "\n". Rows come back escaped, ready to be written again or to go
+     * through {@link #fields}.
+     */
+    public static final class RecordReader implements Closeable {
+
+        private final Reader reader;
+        private final char[] buffer = new char[64 * 1024];
+        private final StringBuilder record = new StringBuilder(1024);
+        private int position;
+        private int limit;
+
+        public RecordReader(Path file) throws IOException {
+            this.reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * The next row, or {@code null} at the end of the file.
+         */
+        public String next() throws IOException {
+            record.setLength(0);
+            State state = State.FIELD_START;
+            while (true) {
+                if (position == limit) {
+                    limit = reader.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return state == State.FIELD_START && record.isEmpty() ? null : record.toString();
+                    }
+                }
+                char c = buffer[position++];
+                if (state == State.QUOTED) {
+                    if (c == QUOTE) {
+                        state = State.QUOTE_SEEN;
+                    }
+                    record.append(c);
+                    continue;
+                }
+                if (c == '\n') {
+                    int end = record.length();
+                    if (end > 0 && record.charAt(end - 1) == '\r') {
+                        record.setLength(end - 1);
+                    }
+                    return record.toString();
+                }
+                if (c == SEPARATOR) {
+                    state = State.FIELD_START;
+                } else if (c == QUOTE && state != State.UNQUOTED) {
+                    // opens a quoted field, or is the second half of a doubled quote in one
+                    state = State.QUOTED;
+                } else {
+                    state = State.UNQUOTED;
+                }
+                record.append(c);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
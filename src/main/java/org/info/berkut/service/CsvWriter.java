@@ -0,0 +1,162 @@
+package org.info.berkut.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends CSV lines to a file through a fixed-size direct buffer (256 KB unless told otherwise), so memory use does not
+ * depend on the size of the export. Intended to be driven from a single writer thread;
+ * {@link #flush()} may be called from any thread.
+ * <p>
+ * Lines are written as they come, each followed by '\n'. They are rows escaped by {@link CsvFormat}, so a
+ * line break inside one belongs to a quoted field.
+ */
+public class CsvWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private long rows;
+    private long bytes;
+    private boolean closed;
+
+    public CsvWriter(Path path, String header) throws IOException {
+        this(path, header, BUFFER_SIZE);
+    }
+
+    /**
+     * Starts a new file through a buffer of {@code bufferSize} bytes, for when many writers are open at once.
+     */
+    public CsvWriter(Path path, String header, int bufferSize) throws IOException {
+        this.path = path;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        writeLine(header);
+    }
+
+    /**
+     * Reopens an existing file for appending, dropping anything past {@code keepBytes}.
+     * {@link #rows()} then counts only the rows appended through this writer.
+     */
+    public CsvWriter(Path path, long keepBytes) throws IOException {
+        this.path = path;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel.truncate(keepBytes);
+        this.channel.position(keepBytes);
+        this.bytes = keepBytes;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public synchronized long rows() {
+        return rows;
+    }
+
+    /**
+     * Bytes written so far, including those still in the buffer.
+     */
+    public synchronized long bytes() {
+        return bytes + buffer.position();
+    }
+
+    public synchronized void append(List<String> lines) {
+        for (String line : lines) {
+            writeLine(line);
+        }
+        rows += lines.size();
+    }
+
+    /**
+     * Pushes buffered bytes to the file and forces them to disk.
+     */
+    public synchronized void flush() {
+        if (closed) return;
+        try {
+            drain();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot flush " + path, e);
+        }
+    }
+
+    public synchronized ExportResult result() {
+        return new ExportResult(path, rows, bytes + buffer.position());
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        try {
+            drain();
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot close " + path, e);
+        } finally {
+            closed = true;
+        }
+    }
+
+    // -----------------------------
+    // ENCODING
+    // -----------------------------
+    private void writeLine(String line) {
+        encode(CharBuffer.wrap(line));
+        if (!buffer.hasRemaining()) {
+            try {
+                drain();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write " + path, e);
+            }
+        }
+        buffer.put((byte) '\n');
+    }
+
+    private void encode(CharBuffer in) {
+        try {
+            while (true) {
+                CoderResult result = encoder.encode(in, buffer, true);
+                if (result.isOverflow()) {
+                    drain();
+                    continue;
+                }
+                if (result.isError()) {
+                    result.throwException();
+                }
+                break;
+            }
+            encoder.reset();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write " + path, e);
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
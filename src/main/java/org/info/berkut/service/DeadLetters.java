@@ -0,0 +1,102 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pages that failed for good, kept in {@code berkut.dead-letter.file} until a re-run fetches them.
+ * <p>
+ * An offset export skips such a page and goes on, so one broken page does not hold up the rest; its rows are
+ * missing from the output until {@link Parser#rerunDeadLetters} gets them. Entries are keyed like the page cache,
+ * so a page that fails again replaces its old entry.
+ */
+@Component
+public class DeadLetters {
+
+    /**
+     * {@code filter} holds the client-side criteria of the export, {@code null} when it had none.
+     */
+    public record Entry(String key, String requestBody, List<String> filter, long page, int size, String sort,
+                        String failure, int attempts, String error, String failedAt) {
+    }
+
+    @Value("${berkut.dead-letter.file:export/state/dead-letters.json}")
+    private String file;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private Map<String, Entry> entries;
+
+    public synchronized void add(String requestBody, ExportFilter filter, long page, int size, String sort,
+                                 PageFetchException e) {
+        String key = PageCache.key(requestBody, page, size, sort);
+        Throwable cause = e.getCause() == null ? e : e.getCause();
+        List<String> criteria = filter.filtersRows() ? filter.residualCriteria() : null;
+        entries().put(key, new Entry(key, requestBody, criteria, page, size, sort, e.failure().name(), e.attempts(),
+                cause.getMessage(), Instant.now().toString()));
+        save();
+    }
+
+    public synchronized void remove(String key) {
+        if (entries().remove(key) != null) {
+            save();
+        }
+    }
+
+    public synchronized List<Entry> list() {
+        return new ArrayList<>(entries().values());
+    }
+
+    private Map<String, Entry> entries() {
+        if (entries == null) {
+            entries = new LinkedHashMap<>();
+            Path path = path();
+            if (Files.exists(path)) {
+                try {
+                    for (Entry entry : mapper.readValue(path.toFile(), new TypeReference<List<Entry>>() { })) {
+                        entries.put(entry.key(), entry);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot read dead letters " + path, e);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void save() {
+        Path path = path();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.wrap(mapper.writeValueAsBytes(entries.values())));
+                channel.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write dead letters " + path, e);
+        }
+    }
+
+    private Path path() {
+        return Paths.get(file).toAbsolutePath();
+    }
+}
@@ -0,0 +1,26 @@
+package org.info.berkut.service;
+
+import java.util.List;
+
+/**
+ * One decoded search page: the paging totals reported by the server, the CSV rows of its items and,
+ * parallel to the rows, each item's {@code statusDatetime} (the keyset pagination cursor).
+ * <p>
+ * With a client-side {@link ExportFilter} the rows are only the matching items; {@code items} still counts every
+ * item of the page and {@code lastStatusDatetime} is the time of its last item, which is what paging goes by.
+ */
+public record DecodedPage(int totalPages, long totalElements, List<String> rows, List<String> statusDatetimes,
+                          int items, String lastStatusDatetime) {
+
+    public DecodedPage(int totalPages, long totalElements, List<String> rows, List<String> statusDatetimes) {
+        this(totalPages, totalElements, rows, statusDatetimes, rows.size(),
+                statusDatetimes.isEmpty() ? "" : statusDatetimes.get(statusDatetimes.size() - 1));
+    }
+
+    /**
+     * The crossing-fact id of a row, which is always its first column.
+     */
+    static String id(String row) {
+        return CsvFormat.field(row, 0);
+    }
+}
@@ -0,0 +1,121 @@
+package org.info.berkut.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Cross-run de-duplication on the crossing-fact id.
+ * <p>
+ * Ids of finished exports live in a persistent {@link IdIndex}. A run first collects its ids in a scratch index
+ * of its own and only adds them to the persistent one once its output is final, so a failed or resumed run
+ * never hides rows that were not written for good. Disabled by default ({@code berkut.dedup.enabled}).
+ */
+@Component
+public class DedupIndex {
+
+    @Value("${berkut.dedup.enabled:false}")
+    private boolean enabled;
+
+    @Value("${berkut.dedup.path:export/state/ids.idx}")
+    private String indexPath;
+
+    @Value("${berkut.dedup.initial-capacity:1048576}")
+    private long initialCapacity;
+
+    private IdIndex index;
+
+    @PostConstruct
+    void load() {
+        if (!enabled) return;
+        long start = System.nanoTime();
+        index = IdIndex.open(Paths.get(indexPath).toAbsolutePath(), initialCapacity);
+        Parser.log("Id index loaded: " + index.size() + " ids in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    @PreDestroy
+    void close() {
+        if (index != null) {
+            index.close();
+        }
+    }
+
+    /**
+     * Starts a run; rows go through {@link Run#filter} and the run's ids become permanent with {@link Run#commit}.
+     */
+    public Run begin() {
+        if (!enabled) {
+            return new Run(null, null, null);
+        }
+        Path scratch = Paths.get(indexPath).toAbsolutePath().resolveSibling("run-" + UUID.randomUUID() + ".idx");
+        return new Run(index, IdIndex.open(scratch, 1 << 16), scratch);
+    }
+
+    public static final class Run implements Closeable {
+
+        private final IdIndex index;
+        private final IdIndex pending;
+        private final Path pendingPath;
+        private long duplicates;
+
+        private Run(IdIndex index, IdIndex pending, Path pendingPath) {
+            this.index = index;
+            this.pending = pending;
+            this.pendingPath = pendingPath;
+        }
+
+        /**
+         * Drops the rows whose id was exported before, by an earlier run or earlier in this one.
+         */
+        public List<String> filter(List<String> rows) {
+            if (index == null) {
+                return rows;
+            }
+            List<String> fresh = new ArrayList<>(rows.size());
+            for (String row : rows) {
+                long key = IdIndex.key(DecodedPage.id(row));
+                if (!index.contains(key) && pending.add(key)) {
+                    fresh.add(row);
+                }
+            }
+            synchronized (this) {
+                duplicates += rows.size() - fresh.size();
+            }
+            return fresh;
+        }
+
+        public synchronized long duplicates() {
+            return duplicates;
+        }
+
+        /**
+         * Adds the ids of this run to the persistent index.
+         */
+        public void commit() {
+            if (index == null) return;
+            pending.forEach(index::add);
+            index.force();
+            Parser.log("Id index: " + index.size() + " ids, " + duplicates() + " duplicate rows skipped in this run");
+        }
+
+        @Override
+        public void close() {
+            if (pending == null) return;
+            pending.close();
+            try {
+                IdIndex.delete(pendingPath);
+            } catch (IOException e) {
+                Parser.log("Cannot remove " + pendingPath + ": " + e.getMessage());
+            }
+        }
+    }
+}
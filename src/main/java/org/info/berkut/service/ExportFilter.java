@@ -0,0 +1,239 @@
+package org.info.berkut.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Extra criteria of an export, on top of its {@code statusDatetime} range.
+ * <p>
+ * Criteria name a CSV column and are written {@code column=value}, {@code column!=value}, {@code column=a|b|c}
+ * (any of), {@code column!=a|b} (none of) or {@code column~text} (contains, ignoring case). They are compared
+ * with the column values as fetched, which may contain '|' themselves: in a value {@code \|} stands for '|' and
+ * {@code \\} for '\', so {@code name=ТОО А\|Б} matches {@code ТОО А|Б}.
+ * <p>
+ * Criteria on a column whose API field is listed in {@code berkut.filter.pushdown-fields} are sent to the server
+ * in the search {@code fields}, so the pages only hold matching records. The others are compiled into one
+ * predicate that the page decoders run on the column values of every record, before the record is formatted
+ * into a row.
+ */
+public final class ExportFilter {
+
+    public static final ExportFilter NONE = new ExportFilter(List.of(), List.of(), List.of());
+
+    public enum Operator {
+        EQUAL("="), NOT_EQUAL("!="), IN("="), NOT_IN("!="), CONTAINS("~");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    /**
+     * One criterion on the column at {@code column} of the CSV header.
+     */
+    public record Criterion(String name, int column, Operator operator, List<String> values) {
+
+        @Override
+        public String toString() {
+            return name + operator.symbol + String.join("|", values.stream().map(ExportFilter::escape).toList());
+        }
+    }
+
+    /**
+     * A criterion the server evaluates: {@code field} is the path of the column's value in a search record.
+     */
+    record Pushed(Criterion criterion, String field) {
+    }
+
+    /**
+     * Column values of one record, by CSV column index.
+     */
+    public interface Row {
+        String column(int index);
+    }
+
+    private interface Test {
+        boolean test(Row row);
+    }
+
+    private final List<Pushed> pushed;
+    private final List<Criterion> residual;
+    private final List<Test> tests;
+
+    private ExportFilter(List<Pushed> pushed, List<Criterion> residual, List<Test> tests) {
+        this.pushed = pushed;
+        this.residual = residual;
+        this.tests = tests;
+    }
+
+    /**
+     * Parses {@code expressions} against {@code header} and decides, per criterion, where it runs.
+     *
+     * @param sourcePaths  the API field each column is read from, {@code null} for derived columns
+     * @param pushdownable API fields the search accepts in {@code fields}
+     */
+    public static ExportFilter compile(List<String> expressions, String header, IntFunction<String> sourcePaths,
+                                       Set<String> pushdownable) {
+        if (expressions == null || expressions.stream().allMatch(String::isBlank)) {
+            return NONE;
+        }
+        List<String> columns = Arrays.asList(header.split("\\|", -1));
+        List<Pushed> pushed = new ArrayList<>();
+        List<Criterion> residual = new ArrayList<>();
+        for (String expression : expressions) {
+            if (expression.isBlank()) continue;
+            Criterion criterion = parse(expression.strip(), columns);
+            String field = sourcePaths.apply(criterion.column());
+            boolean serverSide = field != null && pushdownable.contains(field)
+                    && (criterion.operator() == Operator.EQUAL || criterion.operator() == Operator.IN);
+            if (serverSide) {
+                pushed.add(new Pushed(criterion, field));
+            } else {
+                residual.add(criterion);
+            }
+        }
+        // plain comparisons first, substring scans last
+        residual.sort(Comparator.comparing(Criterion::operator));
+        List<Test> tests = residual.stream().map(ExportFilter::test).toList();
+        return new ExportFilter(List.copyOf(pushed), List.copyOf(residual), tests);
+    }
+
+    private static Criterion parse(String expression, List<String> columns) {
+        int at = -1;
+        Operator operator = null;
+        for (int i = 0; i < expression.length() && operator == null; i++) {
+            char c = expression.charAt(i);
+            if (c == '!' && i + 1 < expression.length() && expression.charAt(i + 1) == '=') {
+                operator = Operator.NOT_EQUAL;
+            } else if (c == '=') {
+                operator = Operator.EQUAL;
+            } else if (c == '~') {
+                operator = Operator.CONTAINS;
+            }
+            at = i;
+        }
+        if (operator == null || at == 0) {
+            throw new IllegalArgumentException("Filter '" + expression + "' is not column=value, column!=value or column~text");
+        }
+        String name = expression.substring(0, at).strip();
+        int column = columns.indexOf(name);
+        if (column < 0) {
+            throw new IllegalArgumentException("Filter '" + expression + "': no column '" + name + "'");
+        }
+        String text = expression.substring(at + operator.symbol.length()).strip();
+        List<String> values = values(text, operator != Operator.CONTAINS);
+        if (values.size() > 1) {
+            operator = operator == Operator.EQUAL ? Operator.IN : Operator.NOT_IN;
+        }
+        return new Criterion(name, column, operator, values);
+    }
+
+    /**
+     * The values of a criterion, split at every '|' that is not escaped when {@code split} is set.
+     */
+    private static List<String> values(String text, boolean split) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                value.append(text.charAt(++i));
+            } else if (c == '|' && split) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return List.copyOf(values);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("|", "\\|");
+    }
+
+    private static Test test(Criterion criterion) {
+        int column = criterion.column();
+        List<String> values = criterion.values();
+        return switch (criterion.operator()) {
+            case EQUAL -> {
+                String value = values.get(0);
+                yield row -> value.equals(row.column(column));
+            }
+            case NOT_EQUAL -> {
+                String value = values.get(0);
+                yield row -> !value.equals(row.column(column));
+            }
+            case IN -> {
+                Set<String> set = new HashSet<>(values);
+                yield row -> set.contains(row.column(column));
+            }
+            case NOT_IN -> {
+                Set<String> set = new HashSet<>(values);
+                yield row -> !set.contains(row.column(column));
+            }
+            case CONTAINS -> {
+                String needle = values.get(0).toLowerCase(Locale.ROOT);
+                yield row -> row.column(column).toLowerCase(Locale.ROOT).contains(needle);
+            }
+        };
+    }
+
+    /**
+     * Whether the record passes the criteria that are not pushed down.
+     */
+    public boolean test(Row row) {
+        for (Test test : tests) {
+            if (!test.test(row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return pushed.isEmpty() && residual.isEmpty();
+    }
+
+    /**
+     * Whether the decoders have anything to check.
+     */
+    public boolean filtersRows() {
+        return !tests.isEmpty();
+    }
+
+    List<Pushed> pushed() {
+        return pushed;
+    }
+
+    /**
+     * The client-side criteria, as expressions {@link #compile} reads back.
+     */
+    List<String> residualCriteria() {
+        return residual.stream().map(Criterion::toString).toList();
+    }
+
+    /**
+     * The client-side criteria in one line; part of the journal key, since they change the output.
+     */
+    String residualKey() {
+        return String.join("; ", residualCriteria());
+    }
+
+    @Override
+    public String toString() {
+        List<String> all = new ArrayList<>();
+        pushed.forEach(p -> all.add(p.criterion() + " (server)"));
+        residual.forEach(c -> all.add(c.toString()));
+        return String.join("; ", all);
+    }
+}
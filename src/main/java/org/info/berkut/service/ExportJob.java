@@ -0,0 +1,101 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AccessLevel;
+import lombok.Getter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * One submitted export. Its output goes to {@code export/jobs/<id>/result.csv} ({@code berkut.jobs.dir}), its
+ * journals to {@code export/jobs/<id>/journal}.
+ */
+@Getter
+public class ExportJob {
+
+    public enum Status { QUEUED, RUNNING, DONE, PARTIAL, FAILED, CANCELLED }
+
+    private final String id;
+    private final String dateFrom;
+    private final String dateTo;
+    private final int startPage;
+    private final List<String> filter;
+    @JsonIgnore
+    private final Path output;
+    private final Instant submittedAt = Instant.now();
+    @Getter(AccessLevel.NONE)
+    private final Sinks.Empty<Void> cancel = Sinks.empty();
+    @Getter(AccessLevel.NONE)
+    private final ExportProgress progress = new ExportProgress();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    @Getter(AccessLevel.NONE)
+    private volatile ExportResult result;
+    private volatile String error;
+
+    ExportJob(String id, String dateFrom, String dateTo, int startPage, List<String> filter, Path output) {
+        this.id = id;
+        this.dateFrom = dateFrom;
+        this.dateTo = dateTo;
+        this.startPage = startPage;
+        this.filter = filter;
+        this.output = output;
+    }
+
+    public Long getRows() {
+        return result == null ? null : result.rows();
+    }
+
+    public Long getBytes() {
+        return result == null ? null : result.bytes();
+    }
+
+    /**
+     * The latest progress report; {@link #progressEvents()} streams them.
+     */
+    public ProgressEvent getProgress() {
+        return progress.latest();
+    }
+
+    public Flux<ProgressEvent> progressEvents() {
+        return progress.events();
+    }
+
+    public boolean isFinished() {
+        return status != Status.QUEUED && status != Status.RUNNING;
+    }
+
+    // -----------------------------
+    // TRANSITIONS (ExportJobService only)
+    // -----------------------------
+    Sinks.Empty<Void> cancelSignal() {
+        return cancel;
+    }
+
+    ExportProgress progress() {
+        return progress;
+    }
+
+    synchronized boolean start() {
+        if (status != Status.QUEUED) return false;
+        status = Status.RUNNING;
+        startedAt = Instant.now();
+        return true;
+    }
+
+    synchronized void finish(Status status, ExportResult result, String error) {
+        if (isFinished()) return;
+        // set before the status, so a job that looks finished always has its finishedAt
+        this.finishedAt = Instant.now();
+        this.result = result;
+        this.error = error;
+        this.status = status;
+        progress.finish();
+    }
+}
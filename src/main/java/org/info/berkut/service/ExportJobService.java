@@ -0,0 +1,184 @@
+package org.info.berkut.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry and scheduler of export jobs.
+ * <p>
+ * Submitted jobs wait in a bounded queue and at most {@code berkut.jobs.max-concurrent} of them run at once.
+ * Each job runs {@link Parser#exportCsv(String, String, int, Path, ExportProgress, List, Path)} into its own directory,
+ * {@code <berkut.jobs.dir>/<id>}, with its journals under {@code journal} in there. Jobs share nothing but the auth
+ * session ({@link TokenManager} is safe to share): two jobs of the same range run side by side, and a job never
+ * resumes the journal of another job or of an export started elsewhere.
+ * <p>
+ * Finished jobs stay listed for {@code berkut.jobs.retention-minutes}, and at most {@code berkut.jobs.max-finished}
+ * of them; after that they are removed together with their output.
+ */
+@Service
+@RequiredArgsConstructor
+public class ExportJobService {
+
+    private final Parser parser;
+
+    @Value("${berkut.jobs.max-concurrent:2}")
+    private int maxConcurrent;
+
+    @Value("${berkut.jobs.queue-capacity:20}")
+    private int queueCapacity;
+
+    @Value("${berkut.jobs.dir:export/jobs}")
+    private String jobsDir;
+
+    @Value("${berkut.jobs.retention-minutes:1440}")
+    private long retentionMinutes;
+
+    // the oldest finished jobs go first once there are more of them
+    @Value("${berkut.jobs.max-finished:100}")
+    private int maxFinished;
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Sinks.Many<ExportJob> queue = Sinks.many().unicast().onBackpressureBuffer();
+    private Disposable worker;
+
+    @PostConstruct
+    void start() {
+        worker = queue.asFlux()
+                // deferred: flatMap takes a bare Mono.empty() (a job cancelled in the queue) as a scalar and only
+                // asks for the next job after a batch of them, which left a slot idle until another job finished
+                .flatMap(job -> Mono.defer(() -> run(job)), Math.max(1, maxConcurrent))
+                .subscribe();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (worker != null) {
+            worker.dispose();
+        }
+    }
+
+    /**
+     * Queues an export; throws {@link RejectedExecutionException} when the queue is full and
+     * {@link IllegalArgumentException} when a filter does not parse.
+     */
+    public ExportJob submit(String dateFrom, String dateTo, int startPage, List<String> filters) {
+        List<String> criteria = filters == null ? List.of() : List.copyOf(filters);
+        parser.filter(criteria);
+        expire();
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            throw new RejectedExecutionException("Export queue is full (" + queueCapacity + " jobs waiting)");
+        }
+        String id = UUID.randomUUID().toString();
+        Path output = Paths.get(jobsDir).toAbsolutePath().resolve(id).resolve("result.csv");
+        ExportJob job = new ExportJob(id, dateFrom, dateTo, startPage, criteria, output);
+        jobs.put(id, job);
+
+        synchronized (queue) {
+            queue.emitNext(job, Sinks.EmitFailureHandler.FAIL_FAST);
+        }
+        Parser.log("Job " + id + " queued: " + dateFrom + " .. " + dateTo);
+        return job;
+    }
+
+    public ExportJob get(String id) {
+        expire();
+        return jobs.get(id);
+    }
+
+    public List<ExportJob> list() {
+        expire();
+        Collection<ExportJob> all = jobs.values();
+        return all.stream().sorted(Comparator.comparing(ExportJob::getSubmittedAt)).toList();
+    }
+
+    /**
+     * Cancels a queued or running job; a finished job is removed together with its output.
+     * Returns {@code false} for an unknown id.
+     */
+    public boolean cancel(String id) {
+        ExportJob job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        if (job.isFinished()) {
+            remove(job);
+            return true;
+        }
+        job.cancelSignal().tryEmitEmpty();
+        job.finish(ExportJob.Status.CANCELLED, null, null);
+        Parser.log("Job " + id + " cancelled");
+        return true;
+    }
+
+    /**
+     * Removes finished jobs past the retention time, and the oldest ones beyond {@code maxFinished}.
+     */
+    private void expire() {
+        Instant horizon = Instant.now().minus(Duration.ofMinutes(retentionMinutes));
+        List<ExportJob> finished = jobs.values().stream()
+                .filter(job -> job.isFinished() && job.getFinishedAt() != null)
+                .sorted(Comparator.comparing(ExportJob::getFinishedAt).reversed())
+                .toList();
+        for (int i = 0; i < finished.size(); i++) {
+            ExportJob job = finished.get(i);
+            if (i >= maxFinished || job.getFinishedAt().isBefore(horizon)) {
+                Parser.log("Job " + job.getId() + " expired");
+                remove(job);
+            }
+        }
+    }
+
+    private void remove(ExportJob job) {
+        if (!jobs.remove(job.getId(), job)) {
+            return;
+        }
+        try {
+            ExportJournal.deleteRecursively(job.getOutput().getParent());
+        } catch (IOException e) {
+            Parser.log("Cannot remove output of job " + job.getId() + ": " + e.getMessage());
+        }
+    }
+
+    // -----------------------------
+    // EXECUTION
+    // -----------------------------
+    private Mono<Void> run(ExportJob job) {
+        queued.decrementAndGet();
+        if (!job.start()) {
+            return Mono.empty(); // cancelled while queued
+        }
+        Parser.log("Job " + job.getId() + " started");
+        return parser.exportCsv(job.getDateFrom(), job.getDateTo(), job.getStartPage(), job.getOutput(), job.progress(),
+                        job.getFilter(), job.getOutput().resolveSibling("journal"))
+                // cancelling disposes the export; its journals are closed and removed with the job
+                .takeUntilOther(job.cancelSignal().asMono())
+                .doOnNext(result -> job.finish(result.complete() ? ExportJob.Status.DONE : ExportJob.Status.PARTIAL,
+                        result, null))
+                .doOnError(e -> job.finish(ExportJob.Status.FAILED, null, e.getMessage()))
+                .doFinally(signal -> Parser.log("Job " + job.getId() + " " + job.getStatus()))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+}
@@ -0,0 +1,470 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Crash-safe, append-only journal of one export.
+ * <p>
+ * Rows are appended to segment files ({@code segment-00001.csv}, ...; the first one starts with the header).
+ * A commit forces the active segment to disk and then atomically replaces {@code manifest.json}, which records
+ * the query, the record offset to resume from, the row count and the committed length of every segment.
+ * Anything written after the last commit is cut off when the journal is reopened, so a resumed export
+ * never duplicates rows. The journal directory is keyed by the export parameters.
+ * <p>
+ * A sharded export keeps one journal per time window; completed windows stay on disk until
+ * {@link #merge} has concatenated all of them in order.
+ * <p>
+ * Pages that failed for good are recorded as gaps. A journal with gaps is not finished: the next run with the
+ * same parameters fetches the gaps again before it goes on, and their rows follow the rows already written.
+ */
+public class ExportJournal implements Closeable {
+
+    private static final String MANIFEST = "manifest.json";
+
+    private final Path dir;
+    private final ObjectMapper mapper;
+    private final long segmentBytes;
+    private final boolean resumed;
+
+    private final List<Segment> segments;
+    private Manifest manifest;
+    private CsvWriter active;
+
+    private long appendedOffset;
+    private long appendedRows;
+    private Cursor appendedCursor;
+    private final List<Gap> appendedGaps;
+    private boolean closed;
+
+    public record Segment(String file, long bytes) {
+    }
+
+    /**
+     * {@code size} records of the offset-paged query from {@code offset} on that are not in the journal.
+     */
+    public record Gap(long offset, int size) {
+    }
+
+    /**
+     * Keyset position after the last committed page: the lower {@code statusDatetime} bound, the ids already
+     * written at exactly that instant, and the record offset within that bound (non-zero only while one instant
+     * fills whole pages).
+     */
+    public record Cursor(String statusDatetime, List<String> boundaryIds, long offset) {
+    }
+
+    /**
+     * {@code nextOffset} is the first record of the offset-paged query that is not committed yet; the records
+     * before it are in the journal, except for the {@code gaps}. {@code complete} means paged to the end.
+     */
+    public record Manifest(String query, String dateFrom, String dateTo, long startOffset,
+                           long nextOffset, long rows, long headerBytes, List<Segment> segments,
+                           Cursor cursor, List<Gap> gaps, boolean complete, String updatedAt) {
+
+        public Manifest {
+            gaps = gaps == null ? List.of() : gaps;
+        }
+    }
+
+    private ExportJournal(Path dir, ObjectMapper mapper, long segmentBytes, Manifest manifest, boolean resumed)
+            throws IOException {
+        this.dir = dir;
+        this.mapper = mapper;
+        this.segmentBytes = segmentBytes;
+        this.manifest = manifest;
+        this.resumed = resumed;
+        this.segments = new ArrayList<>(manifest.segments());
+        this.appendedOffset = manifest.nextOffset();
+        this.appendedRows = manifest.rows();
+        this.appendedCursor = manifest.cursor();
+        this.appendedGaps = new ArrayList<>(manifest.gaps());
+
+        Segment last = segments.get(segments.size() - 1);
+        this.active = new CsvWriter(dir.resolve(last.file()), last.bytes());
+    }
+
+    /**
+     * Directory of the journal for these parameters.
+     */
+    public static Path dir(Path root, String query, String dateFrom, String dateTo, long startOffset) {
+        return root.resolve(key(query, dateFrom, dateTo, startOffset));
+    }
+
+    /**
+     * Whether a journal (finished or not) exists for these parameters.
+     */
+    public static boolean exists(Path root, String query, String dateFrom, String dateTo, long startOffset) {
+        return Files.exists(dir(root, query, dateFrom, dateTo, startOffset).resolve(MANIFEST));
+    }
+
+    /**
+     * Opens the journal for these parameters: reuses a finished one or resumes an unfinished one,
+     * otherwise starts from scratch.
+     */
+    public static ExportJournal open(Path root, ObjectMapper mapper, String query, String dateFrom, String dateTo,
+                                     long startOffset, String header, long segmentBytes) throws IOException {
+        Path dir = dir(root, query, dateFrom, dateTo, startOffset);
+        Path manifestFile = dir.resolve(MANIFEST);
+
+        if (Files.exists(manifestFile)) {
+            Manifest manifest = readManifest(manifestFile, mapper);
+            boolean segmentsPresent = manifest.segments().stream().allMatch(seg -> Files.exists(dir.resolve(seg.file())));
+            if (segmentsPresent) {
+                return new ExportJournal(dir, mapper, segmentBytes, manifest, true);
+            }
+        }
+
+        deleteRecursively(dir);
+        Files.createDirectories(dir);
+
+        String first = segmentName(1);
+        long headerBytes;
+        try (CsvWriter writer = new CsvWriter(dir.resolve(first), header)) {
+            writer.flush();
+            headerBytes = writer.bytes();
+        }
+        Manifest manifest = new Manifest(query, dateFrom, dateTo, startOffset, startOffset, 0, headerBytes,
+                List.of(new Segment(first, headerBytes)), null, List.of(), false, Instant.now().toString());
+        writeManifest(dir, mapper, manifest);
+        return new ExportJournal(dir, mapper, segmentBytes, manifest, false);
+    }
+
+    public boolean resumed() {
+        return resumed;
+    }
+
+    public synchronized boolean isComplete() {
+        return manifest.complete();
+    }
+
+    public Path dir() {
+        return dir;
+    }
+
+    /**
+     * Record offset of the offset-paged query to resume from.
+     */
+    public synchronized long nextOffset() {
+        return manifest.nextOffset();
+    }
+
+    public synchronized long rows() {
+        return appendedRows;
+    }
+
+    public synchronized long committedRows() {
+        return manifest.rows();
+    }
+
+    /**
+     * Committed gaps, in the order they were recorded.
+     */
+    public synchronized List<Gap> gaps() {
+        return manifest.gaps();
+    }
+
+    /**
+     * Whether records are missing, committed or not; such a journal must not be finished.
+     */
+    public synchronized boolean hasGaps() {
+        return !appendedGaps.isEmpty();
+    }
+
+    /**
+     * Keyset position of the last committed page, {@code null} for offset-paged exports or a fresh journal.
+     */
+    public synchronized Cursor cursor() {
+        return manifest.cursor();
+    }
+
+    /**
+     * Bytes in all segments, including rows not committed yet.
+     */
+    public synchronized long bytes() {
+        long total = active.bytes();
+        for (int i = 0; i < segments.size() - 1; i++) {
+            total += segments.get(i).bytes();
+        }
+        return total;
+    }
+
+    /**
+     * Appends the rows of an offset page that ends before {@code nextOffset}; they become durable with the next
+     * {@link #commit()}.
+     */
+    public synchronized void append(long nextOffset, List<String> rows) {
+        append(nextOffset, rows, appendedCursor);
+    }
+
+    /**
+     * Appends the rows of a keyset page together with the cursor that follows it.
+     */
+    public synchronized void append(long nextOffset, List<String> rows, Cursor cursor) {
+        active.append(rows);
+        appendedRows += rows.size();
+        appendedOffset = nextOffset;
+        appendedCursor = cursor;
+    }
+
+    /**
+     * Records that the page of {@code size} records at {@code offset} failed for good and moves on to
+     * {@code nextOffset}.
+     */
+    public synchronized void skip(long offset, int size, long nextOffset) {
+        appendedGaps.add(new Gap(offset, size));
+        appendedOffset = nextOffset;
+    }
+
+    /**
+     * Appends the rows of a gap that was fetched again and closes the gap.
+     */
+    public synchronized void fill(Gap gap, List<String> rows) {
+        active.append(rows);
+        appendedRows += rows.size();
+        appendedGaps.remove(gap);
+    }
+
+    /**
+     * Makes everything appended so far durable. Cheap when nothing changed since the last commit.
+     */
+    public synchronized void commit() {
+        if (closed) return;
+        if (appendedOffset == manifest.nextOffset() && appendedRows == manifest.rows()
+                && Objects.equals(appendedCursor, manifest.cursor()) && appendedGaps.equals(manifest.gaps())) {
+            return;
+        }
+        active.flush();
+        segments.set(segments.size() - 1, new Segment(segments.get(segments.size() - 1).file(), active.bytes()));
+        writeManifest(manifest.complete());
+
+        if (active.bytes() >= segmentBytes) {
+            active.close();
+            String next = segmentName(segments.size() + 1);
+            try {
+                active = new CsvWriter(dir.resolve(next), 0);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open segment " + next, e);
+            }
+            segments.add(new Segment(next, 0));
+            writeManifest(manifest.complete());
+        }
+    }
+
+    /**
+     * Commits and marks the journal complete; its rows stay in place until {@link #finish} or {@link #merge}.
+     */
+    public synchronized void complete() {
+        if (closed) return;
+        commit();
+        if (!manifest.complete()) {
+            writeManifest(true);
+        }
+        closeWriter();
+    }
+
+    /**
+     * Commits, marks the journal complete, moves the rows to {@code target} and removes the journal.
+     */
+    public synchronized ExportResult finish(Path target) {
+        if (hasGaps()) {
+            throw new IllegalStateException("Journal " + dir + " has gaps, it cannot be finished");
+        }
+        complete();
+        ExportResult result = assemble(target, true);
+        try {
+            deleteRecursively(dir);
+        } catch (IOException e) {
+            Parser.log("Cannot remove journal " + dir + ": " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Commits and copies the committed rows to {@code target}, keeping the journal for a later resume.
+     */
+    public synchronized ExportResult snapshot(Path target) {
+        commit();
+        return assemble(target, false).partial();
+    }
+
+    /**
+     * Concatenates the journals in the given order into {@code target}, with the header of the first one only.
+     * With {@code consume} the journals are removed afterwards, otherwise they stay resumable.
+     */
+    public static ExportResult merge(List<ExportJournal> journals, Path target, boolean consume) {
+        if (consume && journals.stream().anyMatch(ExportJournal::hasGaps)) {
+            throw new IllegalStateException("Journals with gaps cannot be merged for good");
+        }
+        if (consume && journals.size() == 1) {
+            return journals.get(0).finish(target);
+        }
+
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        long rows = 0;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < journals.size(); i++) {
+                ExportJournal journal = journals.get(i);
+                synchronized (journal) {
+                    if (consume) {
+                        journal.complete();
+                    } else {
+                        journal.commit();
+                    }
+                    journal.transferTo(out, i == 0 ? 0 : journal.manifest.headerBytes());
+                    rows += journal.manifest.rows();
+                }
+            }
+            out.force(false);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot merge journals into " + target, e);
+        }
+
+        if (consume) {
+            for (ExportJournal journal : journals) {
+                try {
+                    deleteRecursively(journal.dir);
+                } catch (IOException e) {
+                    Parser.log("Cannot remove journal " + journal.dir + ": " + e.getMessage());
+                }
+            }
+        }
+        try {
+            return new ExportResult(target, rows, Files.size(target));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Commits whatever was appended and releases the segment file. The journal stays resumable.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        commit();
+        closeWriter();
+    }
+
+    // -----------------------------
+    // FILES
+    // -----------------------------
+    private void closeWriter() {
+        active.close();
+        closed = true;
+    }
+
+    private ExportResult assemble(Path target, boolean move) {
+        try {
+            if (move && segments.size() == 1) {
+                Files.move(dir.resolve(segments.get(0).file()), target,
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return new ExportResult(target, manifest.rows(), Files.size(target));
+            }
+
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                transferTo(out, 0);
+                out.force(false);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new ExportResult(target, manifest.rows(), Files.size(target));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot assemble " + target + " from " + dir, e);
+        }
+    }
+
+    /**
+     * Copies the committed bytes of all segments to {@code out}, skipping the first {@code skip} bytes.
+     */
+    private void transferTo(FileChannel out, long skip) throws IOException {
+        for (Segment segment : segments) {
+            try (FileChannel in = FileChannel.open(dir.resolve(segment.file()), StandardOpenOption.READ)) {
+                long position = Math.min(skip, segment.bytes());
+                skip -= position;
+                while (position < segment.bytes()) {
+                    position += in.transferTo(position, segment.bytes() - position, out);
+                }
+            }
+        }
+    }
+
+    private void writeManifest(boolean complete) {
+        manifest = new Manifest(manifest.query(), manifest.dateFrom(), manifest.dateTo(), manifest.startOffset(),
+                appendedOffset, appendedRows, manifest.headerBytes(), List.copyOf(segments), appendedCursor,
+                List.copyOf(appendedGaps), complete, Instant.now().toString());
+        writeManifest(dir, mapper, manifest);
+    }
+
+    private static Manifest readManifest(Path file, ObjectMapper mapper) throws IOException {
+        return mapper.readValue(file.toFile(), Manifest.class);
+    }
+
+    private static void writeManifest(Path dir, ObjectMapper mapper, Manifest manifest) {
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(mapper.writeValueAsBytes(manifest)));
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write manifest in " + dir, e);
+        }
+        try {
+            Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot commit manifest in " + dir, e);
+        }
+    }
+
+    private static String segmentName(int index) {
+        return "segment-%05d.csv".formatted(index);
+    }
+
+    static String key(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String key(String query, String dateFrom, String dateTo, long startOffset) {
+        return key(query, dateFrom, dateTo, Long.toString(startOffset));
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.info.berkut.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micrometer meters of the export pipeline, exposed through {@code /actuator/prometheus}.
+ * <p>
+ * Splits the time of an export into remote ({@code berkut.page.fetch}), parsing ({@code berkut.page.decode})
+ * and disk ({@code berkut.journal.checkpoint}, {@code berkut.bytes.written}); rows per second is the rate of
+ * {@code berkut.rows.decoded}.
+ */
+@Component
+public class ExportMetrics {
+
+    private final MeterRegistry registry;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Timer fetchRemote;
+    private final Timer fetchCache;
+    private final Timer decode;
+    private final Timer checkpoint;
+    private final Counter rowsDecoded;
+    private final Counter rowsWritten;
+    private final Counter bytesWritten;
+    private final DistributionSummary bytesReceived;
+
+    public ExportMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.fetchRemote = pageFetchTimer("remote");
+        this.fetchCache = pageFetchTimer("cache");
+        this.decode = Timer.builder("berkut.page.decode")
+                .description("Time to decode one search page into CSV rows")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.checkpoint = Timer.builder("berkut.journal.checkpoint")
+                .description("Time to make a journal checkpoint durable")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.rowsDecoded = Counter.builder("berkut.rows.decoded").register(registry);
+        this.rowsWritten = Counter.builder("berkut.rows.written").register(registry);
+        this.bytesWritten = Counter.builder("berkut.bytes.written").baseUnit("bytes").register(registry);
+        this.bytesReceived = DistributionSummary.builder("berkut.bytes.received")
+                .description("Size of the raw search responses")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("berkut.requests.in_flight", inFlight, AtomicInteger::get)
+                .description("Search requests currently waiting for a response")
+                .register(registry);
+    }
+
+    private Timer pageFetchTimer(String source) {
+        return Timer.builder("berkut.page.fetch")
+                .description("Latency of one search page, from request to the last body byte")
+                .tag("source", source)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    // -----------------------------
+    // RECORDING
+    // -----------------------------
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    public void requestFinished(long startNanos, long bytes) {
+        inFlight.decrementAndGet();
+        if (bytes >= 0) {
+            fetchRemote.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            bytesReceived.record(bytes);
+        }
+    }
+
+    public void cacheHit(long startNanos) {
+        fetchCache.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void decoded(long startNanos, int rows) {
+        decode.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        rowsDecoded.increment(rows);
+    }
+
+    public void written(int rows, long bytes) {
+        rowsWritten.increment(rows);
+        bytesWritten.increment(bytes);
+    }
+
+    public void checkpoint(long startNanos) {
+        checkpoint.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void retry(int status) {
+        registry.counter("berkut.retries", "status", Integer.toString(status)).increment();
+    }
+
+    public void retryBudgetExhausted() {
+        registry.counter("berkut.retry.budget.exhausted").increment();
+    }
+
+    public void deadLettered(FetchRetry.Failure failure) {
+        registry.counter("berkut.pages.dead_lettered", "failure", failure.name().toLowerCase()).increment();
+    }
+
+    /**
+     * Circuit state (0 closed, 1 half-open, 2 open) and retry budget balance; negative while retries queue for it.
+     */
+    public void retryGuards(CircuitBreaker breaker, RetryBudget budget) {
+        Gauge.builder("berkut.circuit.state", breaker, b -> switch (b.state()) {
+                    case CLOSED -> 0;
+                    case HALF_OPEN -> 1;
+                    case OPEN -> 2;
+                })
+                .description("Circuit breaker in front of the search API: 0 closed, 1 half-open, 2 open")
+                .register(registry);
+        Gauge.builder("berkut.retry.budget", budget, RetryBudget::balance)
+                .description("Retries that can go out right now; negative while retries wait for the budget")
+                .register(registry);
+    }
+
+    /**
+     * @param grant {@code refresh_token} or {@code login}
+     */
+    public void reauthenticated(String grant, boolean success) {
+        registry.counter("berkut.auth.refresh", "grant", grant, "outcome", success ? "success" : "failure").increment();
+    }
+}
@@ -0,0 +1,147 @@
+package org.info.berkut.service;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of one export, published once a second as a {@link ProgressEvent}.
+ * <p>
+ * The exporter reports the records it expects (the {@code totalElements} of the first page of every query),
+ * the records each fetched page covers and the rows and bytes it writes. Rates are smoothed over the last few
+ * seconds, so the ETA follows the current speed rather than the average since the start.
+ */
+public class ExportProgress {
+
+    private static final Duration TICK = Duration.ofSeconds(1);
+    // weight of the newest second in the smoothed rates
+    private static final double ALPHA = 0.3;
+
+    private final AtomicLong expectedRecords = new AtomicLong();
+    private final AtomicLong fetchedRecords = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong skippedRecords = new AtomicLong();
+    private final Sinks.Many<ProgressEvent> events = Sinks.many().replay().latest();
+
+    // only touched by the ticker
+    private long startedAt;
+    private long lastTick;
+    private long lastRecords;
+    private long lastRows;
+    private long lastBytes;
+    private double recordRate = -1;
+    private double rowRate = -1;
+    private double byteRate = -1;
+
+    private Disposable ticker;
+    private volatile boolean finished;
+    private volatile ProgressEvent latest;
+
+    public ExportProgress() {
+        publish(new ProgressEvent(0, -1, 0, -1, 0, 0, 0, 0, -1, 0, false));
+    }
+
+    /**
+     * Starts publishing; called by the exporter when the export starts running.
+     */
+    public synchronized void start() {
+        if (ticker != null || finished) return;
+        startedAt = lastTick = System.nanoTime();
+        ticker = Flux.interval(TICK, TICK).subscribe(t -> tick(false));
+    }
+
+    /**
+     * Publishes the last event and completes the stream.
+     */
+    public synchronized void finish() {
+        if (finished) return;
+        finished = true;
+        if (ticker != null) {
+            ticker.dispose();
+            tick(true);
+        } else {
+            publish(latest.finished());
+        }
+        events.tryEmitComplete();
+    }
+
+    /**
+     * The latest event, then one per second until the export is over. Late subscribers start from the latest.
+     */
+    public Flux<ProgressEvent> events() {
+        return events.asFlux();
+    }
+
+    public ProgressEvent latest() {
+        return latest;
+    }
+
+    // -----------------------------
+    // REPORTING
+    // -----------------------------
+    public void expect(long records) {
+        expectedRecords.addAndGet(Math.max(0, records));
+    }
+
+    public void fetched(long records) {
+        pages.incrementAndGet();
+        fetchedRecords.addAndGet(records);
+    }
+
+    public void written(long rows, long bytes) {
+        this.rows.addAndGet(rows);
+        this.bytes.addAndGet(bytes);
+    }
+
+    /**
+     * Records of a page that failed for good and went to the dead letters; the output lacks them.
+     */
+    public void skipped(long records) {
+        skippedRecords.addAndGet(records);
+    }
+
+    public long skippedRecords() {
+        return skippedRecords.get();
+    }
+
+    private synchronized void tick(boolean done) {
+        long now = System.nanoTime();
+        double seconds = (now - lastTick) / 1e9;
+        long records = fetchedRecords.get();
+        long rowCount = rows.get();
+        long byteCount = bytes.get();
+        if (seconds > 0) {
+            recordRate = smooth(recordRate, (records - lastRecords) / seconds);
+            rowRate = smooth(rowRate, (rowCount - lastRows) / seconds);
+            byteRate = smooth(byteRate, (byteCount - lastBytes) / seconds);
+        }
+        lastTick = now;
+        lastRecords = records;
+        lastRows = rowCount;
+        lastBytes = byteCount;
+
+        long expected = expectedRecords.get();
+        long pagesDone = pages.get();
+        long remaining = Math.max(0, expected - records);
+        // the pages still to come, at the average number of records per page so far
+        long pagesTotal = expected == 0 || records == 0 ? -1
+                : pagesDone + (long) Math.ceil(remaining * (double) pagesDone / records);
+        long eta = done ? 0 : expected > 0 && recordRate > 0 ? (long) Math.ceil(remaining / recordRate) : -1;
+        publish(new ProgressEvent(pagesDone, pagesTotal, records, expected > 0 ? expected : -1, rowCount, byteCount,
+                Math.max(0, rowRate), Math.max(0, byteRate), eta, (now - startedAt) / 1_000_000_000L, done));
+    }
+
+    private void publish(ProgressEvent event) {
+        latest = event;
+        events.tryEmitNext(event);
+    }
+
+    private static double smooth(double previous, double current) {
+        return previous < 0 ? current : ALPHA * current + (1 - ALPHA) * previous;
+    }
+}
@@ -0,0 +1,22 @@
+package org.info.berkut.service;
+
+import java.nio.file.Path;
+
+/**
+ * Summary of an export. The rows themselves live in {@code path}; {@code complete} is false when the export
+ * stopped early and {@code path} only holds the rows committed so far.
+ */
+public record ExportResult(Path path, long rows, long bytes, boolean complete) {
+
+    public ExportResult(Path path, long rows, long bytes) {
+        this(path, rows, bytes, true);
+    }
+
+    public boolean isEmpty() {
+        return rows == 0;
+    }
+
+    public ExportResult partial() {
+        return new ExportResult(path, rows, bytes, false);
+    }
+}
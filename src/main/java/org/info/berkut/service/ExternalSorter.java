@@ -0,0 +1,361 @@
+package org.info.berkut.service;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts CSV rows on one column with a bounded amount of heap. Rows are read with {@link CsvFormat.RecordReader}
+ * and keep their escaping all the way through, so a quoted field with a line break in it stays one row.
+ * <p>
+ * Lines are collected in a {@link ColumnarRows} store, next to their primitive sort keys, until they take about
+ * {@code maxRunBytes}; the run is then sorted as an index permutation and spilled to a temporary run file. Encoding
+ * the repetitive columns once per distinct value fits several times more rows in a run than plain strings would.
+ * {@link #finish} k-way merges the runs (at most {@link #FAN_IN} at a time, in several passes if there are more)
+ * into the target. Heap use is the run buffer plus one line and one read buffer per merged run, whatever the
+ * size of the input. Lines with equal keys keep a deterministic order (by the whole line).
+ */
+public class ExternalSorter implements Closeable {
+
+    /**
+     * Columns an export can be ordered by, with the header name of their CSV column.
+     */
+    public enum SortKey {
+        STATUS_DATETIME("date"),
+        ID("id");
+
+        private final String column;
+
+        SortKey(String column) {
+            this.column = column;
+        }
+
+        /**
+         * {@code statusDatetime} or {@code id}; {@code none} (or blank) means unsorted and gives {@code null}.
+         */
+        public static SortKey of(String name) {
+            return switch (name == null ? "" : name.trim().toLowerCase(Locale.ROOT)) {
+                case "", "none" -> null;
+                case "statusdatetime", "status_datetime", "date" -> STATUS_DATETIME;
+                case "id" -> ID;
+                default -> throw new IllegalArgumentException("Unknown sort key: " + name + " (statusDatetime, id or none)");
+            };
+        }
+    }
+
+    // runs merged at once; each open run costs one reader buffer
+    static final int FAN_IN = 64;
+    private static final int WRITE_BATCH = 1024;
+
+    private final SortKey key;
+    private final String header;
+    private final int column;
+    private final long maxRunBytes;
+    private final Path tmpDir;
+
+    // the current run: rows, their numeric keys and, only for keys that are not numbers, their text
+    private ColumnarRows buffer;
+    private long[] numbers = new long[1024];
+    private String[] texts;
+    private long textBytes;
+    private final List<Path> runs = new ArrayList<>();
+
+    /**
+     * @param header the CSV header, which tells in which column {@code key} is
+     */
+    public ExternalSorter(SortKey key, String header, long maxRunBytes, Path tmpDir) {
+        this.key = key;
+        this.header = header;
+        this.column = Arrays.asList(header.split("\\|", -1)).indexOf(key.column);
+        if (column < 0) {
+            throw new IllegalArgumentException("Header has no '" + key.column + "' column to sort on");
+        }
+        this.maxRunBytes = maxRunBytes;
+        this.tmpDir = tmpDir;
+        this.buffer = new ColumnarRows(header);
+    }
+
+    /**
+     * Sorts the lines of {@code file} (after its header) in place.
+     */
+    public static ExportResult sortFile(Path file, SortKey key, long maxRunBytes, Path tmpDir) {
+        long start = System.nanoTime();
+        Path sorted = file.resolveSibling(file.getFileName() + ".sorted");
+        String header;
+        ExportResult result;
+        try (CsvFormat.RecordReader reader = new CsvFormat.RecordReader(file)) {
+            header = reader.next();
+            if (header == null) {
+                return new ExportResult(file, 0, 0);
+            }
+            try (ExternalSorter sorter = new ExternalSorter(key, header, maxRunBytes, tmpDir)) {
+                String line;
+                while ((line = reader.next()) != null) {
+                    sorter.add(line);
+                }
+                result = sorter.finish(sorted, header);
+                Parser.log("Sorted " + result.rows() + " rows by " + key + " in " + sorter.runs.size() + " runs, "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot sort " + file, e);
+        }
+        try {
+            Files.move(sorted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replace " + file + " with its sorted version", e);
+        }
+        return new ExportResult(file, result.rows(), result.bytes());
+    }
+
+    public void add(String line) {
+        int index = buffer.size();
+        if (index == numbers.length) {
+            numbers = Arrays.copyOf(numbers, index * 2);
+            if (texts != null) {
+                texts = Arrays.copyOf(texts, index * 2);
+            }
+        }
+        Comparable<?> value = key(line);
+        if (value instanceof String text) {
+            if (texts == null) {
+                texts = new String[numbers.length];
+            }
+            texts[index] = text;
+            textBytes += text.length() + 48;
+        } else {
+            numbers[index] = (Long) value;
+        }
+        buffer.add(line);
+        if (buffer.heapBytes() + 8L * buffer.size() + textBytes >= maxRunBytes) {
+            spill();
+        }
+    }
+
+    /**
+     * Writes all lines added so far, in order, to {@code target} after {@code header}.
+     */
+    public ExportResult finish(Path target, String header) {
+        try (CsvWriter writer = new CsvWriter(target, header)) {
+            if (runs.isEmpty()) {
+                // everything fit in memory, no need to touch the disk twice
+                List<String> batch = new ArrayList<>(WRITE_BATCH);
+                for (int index : sortedIndexes(buffer)) {
+                    batch.add(buffer.row(index));
+                    if (batch.size() == WRITE_BATCH) {
+                        writer.append(batch);
+                        batch.clear();
+                    }
+                }
+                writer.append(batch);
+                clearBuffer();
+                return writer.result();
+            }
+            spill();
+            List<Path> level = new ArrayList<>(runs);
+            while (level.size() > FAN_IN) {
+                List<Path> next = new ArrayList<>();
+                for (int i = 0; i < level.size(); i += FAN_IN) {
+                    Path merged = Files.createTempFile(tmpDir, "berkut-run-", ".csv");
+                    runs.add(merged);
+                    try (BufferedWriter out = Files.newBufferedWriter(merged, StandardCharsets.UTF_8)) {
+                        merge(level.subList(i, Math.min(level.size(), i + FAN_IN)), batch -> {
+                            for (String line : batch) {
+                                out.write(line);
+                                out.write('\n');
+                            }
+                        });
+                    }
+                    next.add(merged);
+                }
+                level = next;
+            }
+            merge(level, writer::append);
+            return writer.result();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write sorted output " + target, e);
+        }
+    }
+
+    /**
+     * Deletes the run files.
+     */
+    @Override
+    public void close() {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                Parser.log("Cannot delete sort run " + run + ": " + e.getMessage());
+            }
+        }
+        clearBuffer();
+    }
+
+    // -----------------------------
+    // RUNS
+    // -----------------------------
+    private void spill() {
+        if (buffer.size() == 0) {
+            return;
+        }
+        int[] order = sortedIndexes(buffer);
+        try {
+            Files.createDirectories(tmpDir);
+            Path run = Files.createTempFile(tmpDir, "berkut-run-", ".csv");
+            runs.add(run);
+            try (BufferedWriter out = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+                for (int index : order) {
+                    out.write(buffer.row(index));
+                    out.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot spill a sort run to " + tmpDir, e);
+        }
+        clearBuffer();
+    }
+
+    private void clearBuffer() {
+        buffer = new ColumnarRows(header);
+        texts = null;
+        textBytes = 0;
+    }
+
+    /**
+     * The buffered rows in key order, as a merge sort of their indexes (stable, and cheap on the already ordered
+     * stretches that time windows produce).
+     */
+    private int[] sortedIndexes(ColumnarRows rows) {
+        int n = rows.size();
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        int[] scratch = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int from = 0; from < n - width; from += 2 * width) {
+                int middle = from + width;
+                int to = Math.min(n, middle + width);
+                if (compare(rows, order[middle - 1], order[middle]) <= 0) {
+                    continue;
+                }
+                System.arraycopy(order, from, scratch, from, to - from);
+                int left = from;
+                int right = middle;
+                for (int k = from; k < to; k++) {
+                    order[k] = right >= to || left < middle && compare(rows, scratch[left], scratch[right]) <= 0
+                            ? scratch[left++] : scratch[right++];
+                }
+            }
+        }
+        return order;
+    }
+
+    private int compare(ColumnarRows rows, int a, int b) {
+        String textA = texts == null ? null : texts[a];
+        String textB = texts == null ? null : texts[b];
+        int c;
+        if (textA == null && textB == null) {
+            c = Long.compare(numbers[a], numbers[b]);
+        } else if (textA != null && textB != null) {
+            c = textA.compareTo(textB);
+        } else {
+            c = textA == null ? -1 : 1;
+        }
+        return c != 0 ? c : rows.row(a).compareTo(rows.row(b));
+    }
+
+    private interface BatchSink {
+        void accept(List<String> lines) throws IOException;
+    }
+
+    private void merge(List<Path> inputs, BatchSink sink) throws IOException {
+        List<CsvFormat.RecordReader> readers = new ArrayList<>(inputs.size());
+        try {
+            PriorityQueue<Head> heads = new PriorityQueue<>(inputs.size());
+            for (Path input : inputs) {
+                CsvFormat.RecordReader reader = new CsvFormat.RecordReader(input);
+                readers.add(reader);
+                String line = reader.next();
+                if (line != null) {
+                    heads.add(new Head(new Keyed(key(line), line), reader));
+                }
+            }
+            List<String> batch = new ArrayList<>(WRITE_BATCH);
+            while (!heads.isEmpty()) {
+                Head head = heads.poll();
+                batch.add(head.line().line());
+                if (batch.size() == WRITE_BATCH) {
+                    sink.accept(batch);
+                    batch.clear();
+                }
+                String next = head.reader().next();
+                if (next != null) {
+                    heads.add(new Head(new Keyed(key(next), next), head.reader()));
+                }
+            }
+            sink.accept(batch);
+        } finally {
+            for (CsvFormat.RecordReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    // -----------------------------
+    // KEYS
+    // -----------------------------
+
+    /**
+     * Timestamps compare as instants (a missing or broken one sorts first), ids numerically when they are numbers.
+     */
+    private Comparable<?> key(String line) {
+        String value = CsvFormat.field(line, column);
+        if (key == SortKey.STATUS_DATETIME) {
+            OffsetDateTime time = TimeWindow.parse(value, ZoneOffset.UTC);
+            return time == null ? Long.MIN_VALUE : time.toInstant().toEpochMilli();
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    private record Keyed(Comparable<?> key, String line) {
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        static final Comparator<Keyed> ORDER = (a, b) -> {
+            int c;
+            if (a.key.getClass() == b.key.getClass()) {
+                c = ((Comparable) a.key).compareTo(b.key);
+            } else {
+                // numbers before text, e.g. numeric ids before odd ones
+                c = a.key instanceof Long ? -1 : 1;
+            }
+            return c != 0 ? c : a.line.compareTo(b.line);
+        };
+    }
+
+    private record Head(Keyed line, CsvFormat.RecordReader reader) implements Comparable<Head> {
+
+        @Override
+        public int compareTo(Head other) {
+            return Keyed.ORDER.compare(line, other.line);
+        }
+    }
+}
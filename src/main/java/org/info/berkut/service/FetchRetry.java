@@ -0,0 +1,242 @@
+package org.info.berkut.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy of the search requests, one per process and shared by every export.
+ * <p>
+ * A failure is sorted into a {@link Failure} class and retried until its class runs out of attempts, then the
+ * page fails with a {@link PageFetchException}. The delay before a retry is drawn from
+ * [0, min(max, min * 2^retries)] ("full jitter"), so fetchers that failed together do not come back together;
+ * a {@code Retry-After} on a 429 or 503 is a lower bound for it.
+ * <p>
+ * Across fetchers a {@link RetryBudget} keeps retries a small fraction of the traffic and a {@link CircuitBreaker}
+ * holds every request, first attempts included, while the upstream is down.
+ */
+@Component
+@RequiredArgsConstructor
+public class FetchRetry {
+
+    public enum Failure {
+        // 401, 403: the token was rejected, refresh it and retry
+        AUTH,
+        // 400: also what the upstream answers to a stale session, so it gets a fresh token, but not for long
+        BAD_REQUEST,
+        // 429, 503: the upstream asks us to slow down, usually with Retry-After
+        THROTTLED,
+        // other 5xx
+        SERVER,
+        // timeouts, refused or dropped connections
+        TRANSPORT,
+        // anything else (404, 501, a body that does not decode): retrying gives the same answer
+        PERMANENT;
+
+        public boolean overload() {
+            return this == THROTTLED || this == SERVER || this == TRANSPORT;
+        }
+    }
+
+    @FunctionalInterface
+    public interface BeforeRetry {
+
+        /**
+         * Runs before retry number {@code retry} (starting at 1) of a request that failed with {@code ex}.
+         */
+        Mono<Void> apply(Failure failure, Throwable ex, long retry);
+    }
+
+    // delay before the first retry of a failed page; the cap doubles per attempt up to the max
+    @Value("${berkut.fetch.retry-min-backoff-ms:5000}")
+    private long minBackoffMs;
+
+    @Value("${berkut.fetch.retry-max-backoff-ms:120000}")
+    private long maxBackoffMs;
+
+    // attempts per page for THROTTLED, SERVER and TRANSPORT failures; the circuit breaker holds requests
+    // while the upstream is down, so an outage does not use them up
+    @Value("${berkut.retry.max-attempts:20}")
+    private int maxAttempts;
+
+    @Value("${berkut.retry.auth-max-attempts:5}")
+    private int authMaxAttempts;
+
+    @Value("${berkut.retry.bad-request-max-attempts:2}")
+    private int badRequestMaxAttempts;
+
+    // longest Retry-After we honour; anything longer is probably a misconfigured proxy
+    @Value("${berkut.retry.max-retry-after-ms:600000}")
+    private long maxRetryAfterMs;
+
+    @Value("${berkut.retry.budget.ratio:0.2}")
+    private double budgetRatio;
+
+    @Value("${berkut.retry.budget.min-per-second:2}")
+    private double budgetMinPerSecond;
+
+    @Value("${berkut.retry.breaker.failure-threshold:10}")
+    private int breakerThreshold;
+
+    @Value("${berkut.retry.breaker.open-ms:10000}")
+    private long breakerOpenMs;
+
+    @Value("${berkut.retry.breaker.max-open-ms:300000}")
+    private long breakerMaxOpenMs;
+
+    private final ExportMetrics metrics;
+
+    private CircuitBreaker breaker;
+    private RetryBudget budget;
+
+    @PostConstruct
+    void init() {
+        breaker = new CircuitBreaker(breakerThreshold, breakerOpenMs, breakerMaxOpenMs);
+        budget = new RetryBudget(budgetRatio, budgetMinPerSecond);
+        metrics.retryGuards(breaker, budget);
+    }
+
+    public CircuitBreaker breaker() {
+        return breaker;
+    }
+
+    // -----------------------------
+    // AROUND EACH ATTEMPT
+    // -----------------------------
+
+    /**
+     * Completes once the circuit lets a request through. Subscribe to it before every attempt, retries included.
+     */
+    public Mono<Void> permit() {
+        return Mono.defer(() -> {
+            long waitMs = breaker.admit();
+            return waitMs <= 0 ? Mono.empty() : Mono.delay(Duration.ofMillis(waitMs)).then(permit());
+        });
+    }
+
+    /**
+     * Feeds the outcome of one attempt into the circuit breaker.
+     */
+    public <T> Mono<T> record(Mono<T> attempt) {
+        return attempt
+                .doOnSuccess(v -> breaker.succeeded())
+                .doOnError(ex -> {
+                    Failure failure = classify(ex);
+                    if (failure.overload()) {
+                        breaker.failed(retryAfterMs(ex));
+                    } else {
+                        breaker.succeeded();
+                    }
+                })
+                .doOnCancel(breaker::released);
+    }
+
+    /**
+     * The retry spec of one page; {@code beforeRetry} logs, counts or refreshes the token before each retry.
+     */
+    public Retry retry(BeforeRetry beforeRetry) {
+        return Retry.from(signals -> {
+            // one map per subscription, i.e. per page
+            Map<Failure, Integer> attempts = new EnumMap<>(Failure.class);
+            return signals.concatMap(signal -> {
+                Throwable ex = signal.failure();
+                Failure failure = classify(ex);
+                int failed = attempts.merge(failure, 1, Integer::sum);
+                long retries = signal.totalRetries();
+                if (failed >= maxAttempts(failure)) {
+                    return Mono.error(new PageFetchException(failure, (int) retries + 1, ex));
+                }
+                long delay = Math.max(jitteredBackoff(retries), retryAfterMs(ex));
+                long budgetWait = budget.withdraw();
+                if (budgetWait > 0) {
+                    metrics.retryBudgetExhausted();
+                }
+                return beforeRetry.apply(failure, ex, retries + 1)
+                        .then(Mono.delay(Duration.ofMillis(delay + budgetWait)));
+            });
+        });
+    }
+
+    /**
+     * Marks the first attempt of a page, which pays into the retry budget.
+     */
+    public void requested() {
+        budget.deposit();
+    }
+
+    // -----------------------------
+    // POLICY
+    // -----------------------------
+    public static Failure classify(Throwable ex) {
+        if (ex instanceof WebClientResponseException wcre) {
+            int status = wcre.getStatusCode().value();
+            return switch (status) {
+                case 401, 403 -> Failure.AUTH;
+                case 400 -> Failure.BAD_REQUEST;
+                case 429, 503 -> Failure.THROTTLED;
+                case 501, 505 -> Failure.PERMANENT;
+                default -> status >= 500 ? Failure.SERVER : Failure.PERMANENT;
+            };
+        }
+        if (ex instanceof WebClientRequestException && AdaptiveConcurrencyLimiter.isOverload(ex)) {
+            return Failure.TRANSPORT;
+        }
+        return Failure.PERMANENT;
+    }
+
+    private int maxAttempts(Failure failure) {
+        return switch (failure) {
+            case AUTH -> authMaxAttempts;
+            case BAD_REQUEST -> badRequestMaxAttempts;
+            case PERMANENT -> 1;
+            default -> maxAttempts;
+        };
+    }
+
+    long jitteredBackoff(long retries) {
+        long cap = minBackoffMs << Math.min(retries, 30);
+        if (cap <= 0 || cap > maxBackoffMs) {
+            cap = maxBackoffMs;
+        }
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * The {@code Retry-After} of a 429 or 503 in milliseconds (delta-seconds or an HTTP date), 0 if there is none.
+     */
+    long retryAfterMs(Throwable ex) {
+        if (!(ex instanceof WebClientResponseException wcre) || classify(ex) != Failure.THROTTLED) {
+            return 0;
+        }
+        String value = wcre.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        long ms;
+        try {
+            ms = Long.parseLong(value.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                ms = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value.trim(),
+                        DateTimeFormatter.RFC_1123_DATE_TIME)).toMillis();
+            } catch (DateTimeParseException ignored) {
+                return 0;
+            }
+        }
+        return Math.max(0, Math.min(ms, maxRetryAfterMs));
+    }
+}
@@ -0,0 +1,59 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * State of one delta export, stored as {@code export/state/delta-<name>.json} ({@code berkut.delta.dir}).
+ * <p>
+ * {@code statusDatetime} is the newest crossing seen so far; the next run starts {@code overlap} before it.
+ * {@code recentIds} maps the ids written inside that overlap to their {@code statusDatetime}, so rows that
+ * come back from the overlap are not appended twice. {@code outputBytes} is the length of the output file
+ * when the mark was saved; anything a failed run appended after it is cut off by the next run.
+ */
+public record HighWaterMark(String name, String statusDatetime, long rows, long outputBytes,
+                            Map<String, String> recentIds, String updatedAt) {
+
+    /**
+     * The mark of {@code name}, which {@link Parser#exportDelta} has already restricted to letters, digits,
+     * '-' and '_', so it is safe as part of a file name.
+     */
+    static Path file(Path stateDir, String name) {
+        return stateDir.resolve("delta-" + name + ".json");
+    }
+
+    static HighWaterMark load(Path file, ObjectMapper mapper) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return mapper.readValue(file.toFile(), HighWaterMark.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read delta state " + file, e);
+        }
+    }
+
+    void save(Path file, ObjectMapper mapper) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.wrap(mapper.writeValueAsBytes(this)));
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write delta state " + file, e);
+        }
+    }
+}
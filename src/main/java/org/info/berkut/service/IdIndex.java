@@ -0,0 +1,320 @@
+package org.info.berkut.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Set of 64-bit id keys in a memory-mapped, open-addressing hash table (linear probing, load factor 0.7).
+ * <p>
+ * File layout: a 64-byte header ({@code MAGIC}, capacity, size, generation) followed by {@code capacity} slots
+ * of 8 bytes, 0 meaning empty. Opening only maps the file, so even a table with tens of millions of ids is ready
+ * at once and lives in the page cache rather than on the heap; each id costs 11 to 23 bytes depending on the fill.
+ * <p>
+ * The table doubles into a new file when it fills up: {@code ids.idx.1}, then {@code ids.idx.2} and so on, and
+ * once the new table is on disk the generation in the header of {@code ids.idx} is switched to it. A file stays
+ * mapped until its buffers are garbage collected, and Windows neither replaces nor deletes a mapped file, so a
+ * grown table never takes the place of the old one; the old tables are removed when the index is next opened.
+ */
+public class IdIndex implements Closeable {
+
+    private static final long MAGIC = 0x4245524B49445831L; // "BERKIDX1"
+    private static final int HEADER = 64;
+    private static final int CHUNK_SHIFT = 26;             // 2^26 slots = 512 MB per mapping
+    private static final long CHUNK_SLOTS = 1L << CHUNK_SHIFT;
+    private static final double MAX_LOAD = 0.7;
+    private static final int GENERATION = 24;
+
+    private final Path path;
+    // 0 while the table is in the file at path, n once it is in path.n
+    private long generation;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] chunks;
+    private long capacity;
+    private long mask;
+    private long size;
+
+    private IdIndex(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Maps the index at {@code path}, creating it with room for {@code initialCapacity} slots if it does not exist.
+     */
+    public static IdIndex open(Path path, long initialCapacity) {
+        IdIndex index = new IdIndex(path);
+        try {
+            if (Files.exists(path) && Files.size(path) >= HEADER) {
+                index.generation = readGeneration(path);
+                index.map(FileChannel.open(index.table(index.generation), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE), -1);
+                index.removeOldTables();
+            } else {
+                Files.createDirectories(path.toAbsolutePath().getParent());
+                index.map(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), tableSize(initialCapacity));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open id index " + path, e);
+        }
+        return index;
+    }
+
+    /**
+     * Deletes the index at {@code path} with all its tables. A table that is still mapped cannot be deleted on
+     * Windows, which fails with an {@link IOException}.
+     */
+    public static void delete(Path path) throws IOException {
+        for (Path table : tables(path)) {
+            Files.deleteIfExists(table);
+        }
+        Files.deleteIfExists(path);
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized boolean contains(long key) {
+        long slot = find(key);
+        return get(slot) != 0;
+    }
+
+    /**
+     * Adds the key; returns {@code false} when it was already present.
+     */
+    public synchronized boolean add(long key) {
+        long slot = find(key);
+        if (get(slot) != 0) {
+            return false;
+        }
+        put(slot, key);
+        size++;
+        header.putLong(16, size);
+        if (size > capacity * MAX_LOAD) {
+            grow();
+        }
+        return true;
+    }
+
+    public synchronized void forEach(LongConsumer action) {
+        for (long slot = 0; slot < capacity; slot++) {
+            long key = get(slot);
+            if (key != 0) {
+                action.accept(key);
+            }
+        }
+    }
+
+    /**
+     * Flushes the mapped pages to disk.
+     */
+    public synchronized void force() {
+        header.force();
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel == null) return;
+        force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        channel = null;
+    }
+
+    /**
+     * Key of a crossing-fact id. Numeric ids go through a bijective mix, so distinct numeric ids never collide;
+     * anything else is hashed (FNV-1a, then mixed). The one value that mixes to 0 is moved to {@link Long#MIN_VALUE}.
+     */
+    public static long key(String id) {
+        long value;
+        try {
+            value = Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            value = 0xcbf29ce484222325L;
+            for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+                value ^= b & 0xff;
+                value *= 0x100000001b3L;
+            }
+        }
+        long key = mix(value);
+        return key == 0 ? Long.MIN_VALUE : key;
+    }
+
+    // -----------------------------
+    // TABLE
+    // -----------------------------
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static long tableSize(long expected) {
+        return Math.max(1024, Long.highestOneBit(Math.max(1, expected) - 1) << 1);
+    }
+
+    private long find(long key) {
+        // keys are already mixed, their low bits are spread well enough to index the table directly
+        long slot = key & mask;
+        long current;
+        while ((current = get(slot)) != 0 && current != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private long get(long slot) {
+        return chunks[(int) (slot >>> CHUNK_SHIFT)].getLong((int) (slot & (CHUNK_SLOTS - 1)) << 3);
+    }
+
+    private void put(long slot, long key) {
+        chunks[(int) (slot >>> CHUNK_SHIFT)].putLong((int) (slot & (CHUNK_SLOTS - 1)) << 3, key);
+    }
+
+    private Path table(long generation) {
+        return generation == 0 ? path : path.resolveSibling(path.getFileName() + "." + generation);
+    }
+
+    /**
+     * The grown tables next to {@code path}, whether current or left over.
+     */
+    private static List<Path> tables(Path path) throws IOException {
+        String prefix = path.getFileName() + ".";
+        try (Stream<Path> siblings = Files.list(path.toAbsolutePath().getParent())) {
+            return siblings.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(prefix) && name.length() > prefix.length()
+                        && name.substring(prefix.length()).chars().allMatch(Character::isDigit);
+            }).toList();
+        }
+    }
+
+    private static long readGeneration(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER);
+            channel.read(head, 0);
+            if (head.getLong(0) != MAGIC) {
+                throw new IOException("Not an id index: " + path);
+            }
+            return head.getLong(GENERATION);
+        }
+    }
+
+    /**
+     * Points the header at {@code path} to the table of {@code next}; the switch is a single 8-byte write.
+     */
+    private void writeGeneration(long next) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, next), GENERATION);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Drops the tables a grow left behind, and the table in the file at {@code path} once a newer one took over.
+     * Nothing of them is mapped yet, so this works on Windows too.
+     */
+    private void removeOldTables() throws IOException {
+        for (Path table : tables(path)) {
+            if (!table.getFileName().equals(table(generation).getFileName())) {
+                Files.deleteIfExists(table);
+            }
+        }
+        if (generation > 0 && Files.size(path) > HEADER) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(HEADER);
+            }
+        }
+    }
+
+    /**
+     * Maps {@code channel}; a positive {@code newCapacity} formats it as an empty table of that size.
+     */
+    private void map(FileChannel channel, long newCapacity) throws IOException {
+        if (newCapacity > 0) {
+            channel.truncate(0);
+            channel.write(ByteBuffer.allocate(1), HEADER + newCapacity * 8 - 1);
+        }
+        MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+        if (newCapacity > 0) {
+            head.putLong(0, MAGIC).putLong(8, newCapacity).putLong(16, 0);
+        } else if (head.getLong(0) != MAGIC) {
+            channel.close();
+            throw new IOException("Not an id index: " + path);
+        }
+
+        long slots = head.getLong(8);
+        int count = (int) ((slots + CHUNK_SLOTS - 1) >>> CHUNK_SHIFT);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long first = (long) i << CHUNK_SHIFT;
+            mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + first * 8,
+                    Math.min(CHUNK_SLOTS, slots - first) * 8);
+        }
+
+        this.channel = channel;
+        this.header = head;
+        this.chunks = mapped;
+        this.capacity = slots;
+        this.mask = slots - 1;
+        this.size = head.getLong(16);
+    }
+
+    /**
+     * Rehashes into a table twice the size, written to a file of its own and switched to once it is on disk.
+     */
+    private void grow() {
+        long next = generation + 1;
+        Path previous = table(generation);
+        long oldCapacity = capacity;
+        MappedByteBuffer[] oldChunks = chunks;
+        FileChannel oldChannel = channel;
+        try {
+            map(FileChannel.open(table(next), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), oldCapacity * 2);
+            long moved = 0;
+            for (long slot = 0; slot < oldCapacity; slot++) {
+                long key = oldChunks[(int) (slot >>> CHUNK_SHIFT)].getLong((int) (slot & (CHUNK_SLOTS - 1)) << 3);
+                if (key != 0) {
+                    put(find(key), key);
+                    moved++;
+                }
+            }
+            size = moved;
+            header.putLong(16, size);
+            force();
+            writeGeneration(next);
+            generation = next;
+            oldChannel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot grow id index " + path, e);
+        }
+        if (!previous.equals(path)) {
+            try {
+                Files.deleteIfExists(previous);
+            } catch (IOException e) {
+                // still mapped, as on Windows; goes when the index is next opened
+                Parser.log("Cannot remove " + previous + " yet: " + e.getMessage());
+            }
+        }
+        Parser.log("Id index grown to " + capacity + " slots (" + size + " ids)");
+    }
+}
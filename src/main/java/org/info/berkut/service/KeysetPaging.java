@@ -0,0 +1,86 @@
+package org.info.berkut.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cursor arithmetic for keyset pagination.
+ * <p>
+ * Every request asks for the first page of {@code statusDatetime BETWEEN [cursor, to]} sorted by
+ * {@code statusDatetime, id}, so the server never has to skip over earlier rows. The lower bound is inclusive,
+ * which means rows sharing the cursor instant come back again; the ids already written at that instant travel
+ * with the cursor and are dropped. When a whole page sits on one instant the bound cannot move, and the cursor
+ * falls back to record offsets within that bound until it can.
+ * <p>
+ * The cursor follows the last item of a page even when a client-side filter dropped it; the boundary ids only
+ * need the written rows, since a dropped row is dropped again when it comes back.
+ */
+final class KeysetPaging {
+
+    static final String SORT = "&sort=statusDatetime,asc&sort=id,asc";
+
+    /**
+     * The part of one page that was not written before, and the cursor for the next request.
+     */
+    record Step(DecodedPage page, ExportJournal.Cursor next, boolean last) {
+
+        List<String> rows() {
+            return page.rows();
+        }
+    }
+
+    private KeysetPaging() {
+    }
+
+    static ExportJournal.Cursor start(String from) {
+        return new ExportJournal.Cursor(from, List.of(), 0);
+    }
+
+    /**
+     * @param pageSize the number of records {@code page} was requested with
+     */
+    static Step advance(ExportJournal.Cursor cursor, DecodedPage page, int pageSize) {
+        List<String> rows = page.rows();
+        List<String> times = page.statusDatetimes();
+        if (page.items() == 0) {
+            return new Step(page, cursor, true);
+        }
+
+        Set<String> seen = new HashSet<>(cursor.boundaryIds());
+        List<String> fresh = new ArrayList<>(rows.size());
+        List<String> freshTimes = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            if (!times.get(i).equals(cursor.statusDatetime()) || !seen.contains(DecodedPage.id(rows.get(i)))) {
+                fresh.add(rows.get(i));
+                freshTimes.add(times.get(i));
+            }
+        }
+
+        String lastTime = page.lastStatusDatetime();
+        ExportJournal.Cursor next;
+        if (lastTime.isEmpty() || lastTime.equals(cursor.statusDatetime())) {
+            // no progress on the instant: stay on the bound and take the records after this page
+            List<String> ids = new ArrayList<>(cursor.boundaryIds());
+            for (String row : rows) {
+                if (seen.add(DecodedPage.id(row))) {
+                    ids.add(DecodedPage.id(row));
+                }
+            }
+            next = new ExportJournal.Cursor(cursor.statusDatetime(), ids, cursor.offset() + pageSize);
+        } else {
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < rows.size(); i++) {
+                if (times.get(i).equals(lastTime)) {
+                    ids.add(DecodedPage.id(rows.get(i)));
+                }
+            }
+            next = new ExportJournal.Cursor(lastTime, ids, 0);
+        }
+        // the items that were written before do not count again
+        int newItems = page.items() - (rows.size() - fresh.size());
+        return new Step(new DecodedPage(page.totalPages(), page.totalElements(), fresh, freshTimes, newItems, lastTime),
+                next, page.items() < pageSize);
+    }
+}
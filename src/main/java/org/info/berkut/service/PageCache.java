@@ -0,0 +1,207 @@
+package org.info.berkut.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed cache of raw search responses, gzip-compressed on disk.
+ * <p>
+ * A page is stored under the SHA-256 of (request body, page, size, sort) as {@code <dir>/<2 hex>/<key>.json.gz}.
+ * Reads refresh the file's modification time, which serves as the LRU clock: when the cache grows past
+ * {@code berkut.cache.max-bytes} the least recently used pages are deleted.
+ * <p>
+ * Modes: {@code off}, {@code write} (store every fetched page), {@code read-write} (serve hits from disk,
+ * fetch and store misses) and {@code replay} (serve from disk only, no login and no network; a miss fails).
+ */
+@Component
+public class PageCache {
+
+    @Value("${berkut.cache.mode:off}")
+    private String mode;
+
+    @Value("${berkut.cache.dir:export/cache}")
+    private String dir;
+
+    @Value("${berkut.cache.max-bytes:2147483648}")
+    private long maxBytes;
+
+    private final AtomicLong totalBytes = new AtomicLong(-1);
+
+    public boolean reads() {
+        String m = mode.toLowerCase(Locale.ROOT);
+        return m.equals("read-write") || m.equals("replay");
+    }
+
+    public boolean writes() {
+        String m = mode.toLowerCase(Locale.ROOT);
+        return m.equals("write") || m.equals("read-write");
+    }
+
+    public boolean replay() {
+        return "replay".equalsIgnoreCase(mode);
+    }
+
+    static String key(String requestBody, long page, int size, String sort) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{requestBody, Long.toString(page), Integer.toString(size), sort}) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The decompressed response for {@code key}, or {@code null} on a miss.
+     */
+    public InputStream get(String key) {
+        Path file = file(key);
+        try {
+            byte[] compressed = Files.readAllBytes(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return new GZIPInputStream(new ByteArrayInputStream(compressed), 64 * 1024);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            Parser.log("Cache entry " + key + " unreadable, ignoring: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores a raw response. Failures are logged and never fail the export.
+     */
+    public void put(String key, byte[] body) {
+        Path file = file(key);
+        AtomicLong used = usedBytes();
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024)) {
+                out.write(body);
+            }
+            long stored = Files.size(tmp);
+            // a page fetched again replaces its old entry, which no longer takes any space
+            long replaced = sizeOf(file);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (used.addAndGet(stored - replaced) > maxBytes) {
+                evict();
+            }
+        } catch (IOException e) {
+            Parser.log("Cannot cache page " + key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Bytes the cached pages take on disk, as counted so far.
+     */
+    long usedBytesOnDisk() {
+        return usedBytes().get();
+    }
+
+    // -----------------------------
+    // LRU
+    // -----------------------------
+    private Path root() {
+        return Paths.get(dir).toAbsolutePath();
+    }
+
+    private Path file(String key) {
+        return root().resolve(key.substring(0, 2)).resolve(key + ".json.gz");
+    }
+
+    private static long sizeOf(Path file) throws IOException {
+        try {
+            return Files.size(file);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private AtomicLong usedBytes() {
+        if (totalBytes.get() < 0) {
+            synchronized (totalBytes) {
+                if (totalBytes.get() < 0) {
+                    totalBytes.set(entries().stream().mapToLong(Entry::bytes).sum());
+                }
+            }
+        }
+        return totalBytes;
+    }
+
+    /**
+     * Deletes the least recently used pages until the cache is back under 90% of its cap.
+     */
+    private synchronized void evict() {
+        if (totalBytes.get() <= maxBytes) return;
+        List<Entry> entries = entries();
+        entries.sort(Comparator.comparing(Entry::lastUsed));
+
+        long used = entries.stream().mapToLong(Entry::bytes).sum();
+        long target = maxBytes / 10 * 9;
+        int removed = 0;
+        for (Entry entry : entries) {
+            if (used <= target) break;
+            try {
+                Files.deleteIfExists(entry.file());
+                used -= entry.bytes();
+                removed++;
+            } catch (IOException e) {
+                Parser.log("Cannot evict " + entry.file() + ": " + e.getMessage());
+            }
+        }
+        totalBytes.set(used);
+        Parser.log("Page cache: evicted " + removed + " pages, " + used / (1024 * 1024) + " MB left");
+    }
+
+    private record Entry(Path file, long bytes, FileTime lastUsed) {
+    }
+
+    private List<Entry> entries() {
+        if (!Files.isDirectory(root())) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.walk(root())) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".json.gz"))
+                    .map(path -> {
+                        try {
+                            return new Entry(path, Files.size(path), Files.getLastModifiedTime(path));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .collect(Collectors.toCollection(ArrayList::new));
+        } catch (IOException | UncheckedIOException e) {
+            Parser.log("Cannot scan page cache: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+}
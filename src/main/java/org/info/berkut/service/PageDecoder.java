@@ -0,0 +1,19 @@
+package org.info.berkut.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Turns one raw crossing-facts search response into pipe-delimited CSV rows.
+ */
+public interface PageDecoder {
+
+    /**
+     * Decodes the items that pass {@code filter}; the others are counted but never formatted.
+     */
+    DecodedPage decode(InputStream body, ExportFilter filter) throws IOException;
+
+    default DecodedPage decode(InputStream body) throws IOException {
+        return decode(body, ExportFilter.NONE);
+    }
+}
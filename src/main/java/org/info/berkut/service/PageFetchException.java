@@ -0,0 +1,24 @@
+package org.info.berkut.service;
+
+/**
+ * A page that could not be fetched within the retry policy of its failure class.
+ */
+public class PageFetchException extends RuntimeException {
+
+    private final FetchRetry.Failure failure;
+    private final int attempts;
+
+    public PageFetchException(FetchRetry.Failure failure, int attempts, Throwable cause) {
+        super("Gave up after " + attempts + " attempt(s), " + failure + ": " + cause.getMessage(), cause);
+        this.failure = failure;
+        this.attempts = attempts;
+    }
+
+    public FetchRetry.Failure failure() {
+        return failure;
+    }
+
+    public int attempts() {
+        return attempts;
+    }
+}
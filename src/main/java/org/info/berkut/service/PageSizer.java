@@ -0,0 +1,107 @@
+package org.info.berkut.service;
+
+/**
+ * Picks the search page size from the latency and size of recent responses.
+ * <p>
+ * Sizes come from a ladder {@code min, 2*min, 4*min, ...} up to {@code max}. The API addresses records as
+ * {@code page * size}, so a size can only be used at an offset it divides; {@link #sizeAt} steps down the ladder
+ * until it finds one, which keeps the record offsets contiguous when the size changes mid-export.
+ * <p>
+ * The size is halved when a response of the current size is slower than the latency target or larger than the
+ * byte target, and doubled after a few responses in a row that would still be within both targets at twice the
+ * size. Responses of other sizes are still in flight from before the last change and are not acted on.
+ */
+public class PageSizer {
+
+    private static final int GROW_AFTER = 3;
+
+    private final int minSize;
+    private final int maxSize;
+    private final boolean adaptive;
+    private final long targetLatencyMs;
+    private final long targetBytes;
+
+    private int size;
+    private int goodInARow;
+    private double bytesPerRecord = -1;
+
+    public PageSizer(int initialSize, int minSize, int maxSize, boolean adaptive, long targetLatencyMs, long targetBytes) {
+        this.minSize = Math.max(1, minSize);
+        int top = this.minSize;
+        while ((long) top * 2 <= maxSize) {
+            top *= 2;
+        }
+        this.maxSize = top;
+        this.adaptive = adaptive;
+        this.targetLatencyMs = targetLatencyMs;
+        this.targetBytes = targetBytes;
+        this.size = ladder(initialSize);
+    }
+
+    public static PageSizer fixed(int size) {
+        return new PageSizer(size, size, size, false, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    public synchronized int current() {
+        return size;
+    }
+
+    /**
+     * The size to request at {@code offset}: the current size, or the largest smaller one that divides the offset.
+     */
+    public synchronized int sizeAt(long offset) {
+        int candidate = size;
+        while (candidate > minSize && offset % candidate != 0) {
+            candidate /= 2;
+        }
+        // an offset from outside the ladder (e.g. a start page in other units) still gets a size that divides it
+        return offset % candidate == 0 ? candidate : (int) gcd(offset, candidate);
+    }
+
+    /**
+     * Feeds back one remote response of {@code requested} records.
+     */
+    public synchronized void observe(int requested, int records, long bytes, long latencyMs) {
+        if (!adaptive || records == 0) {
+            return;
+        }
+        double perRecord = (double) bytes / records;
+        bytesPerRecord = bytesPerRecord < 0 ? perRecord : 0.7 * bytesPerRecord + 0.3 * perRecord;
+        if (requested != size) {
+            return;
+        }
+
+        if ((latencyMs > targetLatencyMs || bytes > targetBytes) && size > minSize) {
+            resize(size / 2, latencyMs, bytes);
+        } else if (size < maxSize && latencyMs * 2 <= targetLatencyMs && bytesPerRecord * size * 2 <= targetBytes) {
+            if (++goodInARow >= GROW_AFTER) {
+                resize(size * 2, latencyMs, bytes);
+            }
+        } else {
+            goodInARow = 0;
+        }
+    }
+
+    private void resize(int next, long latencyMs, long bytes) {
+        Parser.log("Page size " + size + " → " + next + " (last page: " + latencyMs + " ms, " + bytes / 1024 + " KB)");
+        size = next;
+        goodInARow = 0;
+    }
+
+    private int ladder(int wanted) {
+        int candidate = minSize;
+        while (candidate * 2 <= Math.min(wanted, maxSize)) {
+            candidate *= 2;
+        }
+        return candidate;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
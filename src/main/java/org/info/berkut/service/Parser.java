@@ -1,37 +1,41 @@
 package org.info.berkut.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.reactive.function.BodyInserters;
-import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.util.retry.Retry;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.Base64;
 import java.util.Random;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Function;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 @Slf4j
@@ -39,444 +43,1164 @@ import java.util.function.Function;
 public class Parser {
 
     private final ObjectMapper mapper = new ObjectMapper();
+    private final PageDecoder treeDecoder = new TreePageDecoder(mapper);
+    private final PageDecoder streamingDecoder = new StreamingPageDecoder(mapper);
 
-    private static final String BASE = "https://center.berkut";
-    private static final String UA = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 Chrome";
+    private static final int MAX_PAGE_BYTES = 16 * 1024 * 1024;
+    // start pages typed by the user count pages of this many records
+    private static final int START_PAGE_SIZE = 200;
 
-    @Value("${berkut.secure.login}")
-    private String username;
+    @Value("${berkut.base-url:https://center.berkut}")
+    private String baseUrl;
 
-    @Value("${berkut.secure.password}")
-    private String password;
+    // sequential = one page at a time with a fixed delay, adaptive = N pages in flight under an AIMD limiter
+    @Value("${berkut.fetch.mode:adaptive}")
+    private String fetchMode;
 
-    @Value("${berkut.client.id:acme}")
-    private String clientId;
+    @Value("${berkut.fetch.initial-concurrency:2}")
+    private int initialConcurrency;
 
-    @Value("${berkut.client.secret:acmesecret}")
-    private String clientSecret;
+    @Value("${berkut.fetch.max-concurrency:8}")
+    private int maxConcurrency;
 
-    @Value("${berkut.redirect-uri:https://center.berkut/app/ru/}")
-    private String redirectUri;
+    @Value("${berkut.fetch.latency-target-ms:3000}")
+    private long latencyTargetMs;
 
-    private String sessionCookie = "";
-    private String currentToken;
+    @Value("${berkut.fetch.backoff-ratio:0.5}")
+    private double backoffRatio;
+
+    // records per search page; adaptive sizing moves between min and max in powers of two times min
+    @Value("${berkut.page.size:200}")
+    private int pageSize;
+
+    @Value("${berkut.page.adaptive:true}")
+    private boolean adaptivePageSize;
+
+    @Value("${berkut.page.min-size:50}")
+    private int minPageSize;
+
+    @Value("${berkut.page.max-size:800}")
+    private int maxPageSize;
+
+    // below berkut.fetch.latency-target-ms, so pages shrink before the limiter cuts concurrency
+    @Value("${berkut.page.latency-target-ms:2000}")
+    private long pageLatencyTargetMs;
+
+    // well below the 16 MB the client buffers per response
+    @Value("${berkut.page.target-bytes:4194304}")
+    private long pageTargetBytes;
+
+    // streaming = token-level decoder, tree = JsonNode tree (reference implementation)
+    @Value("${berkut.decoder:streaming}")
+    private String decoderMode;
+
+    // offset = page=N over the whole range, keyset = always page 0 with a moving statusDatetime lower bound
+    @Value("${berkut.pagination:offset}")
+    private String paginationMode;
+
+    // how far before the high-water mark a delta run starts again, to catch crossings recorded late
+    @Value("${berkut.delta.overlap-minutes:30}")
+    private long deltaOverlapMinutes;
+
+    // delta outputs go to delta/<name>.csv under it, their marks to state/delta-<name>.json
+    @Value("${berkut.delta.dir:export}")
+    private String deltaDir;
+
+    // one directory per export under it, removed once the export is complete
+    @Value("${berkut.journal.dir:export/journal}")
+    private String journalDir;
+
+    @Value("${berkut.journal.commit-every-pages:10}")
+    private int journalCommitEvery;
+
+    @Value("${berkut.journal.segment-bytes:268435456}")
+    private long journalSegmentBytes;
+
+    // none = one query for the whole range, day / hour = one query per time window
+    @Value("${berkut.shard.mode:none}")
+    private String shardMode;
+
+    @Value("${berkut.shard.window-concurrency:4}")
+    private int windowConcurrency;
+
+    // windows with more pages than this are halved until they fit (or reach the minimum length)
+    @Value("${berkut.shard.max-pages-per-window:100}")
+    private int maxPagesPerWindow;
+
+    @Value("${berkut.shard.min-window-minutes:1}")
+    private long minWindowMinutes;
+
+    // none = rows in the order they were fetched, statusDatetime / id = sorted once the export is complete
+    @Value("${berkut.output.sort:none}")
+    private String outputSort;
+
+    // heap for one sorted run; the sort spills to export/tmp beyond that
+    @Value("${berkut.output.sort-buffer-bytes:67108864}")
+    private long sortBufferBytes;
+
+    // also write a typed, columnar copy of a complete output next to it (result.csv -> result.arrow)
+    @Value("${berkut.output.arrow:false}")
+    private boolean arrowOutput;
+
+    @Value("${berkut.output.arrow-batch-rows:65536}")
+    private int arrowBatchRows;
+
+    // zstd, lz4 or none
+    @Value("${berkut.output.arrow-compression:zstd}")
+    private String arrowCompression;
+
+    // none, day or day-checkpoint: also split a complete output into export/<name>-parts/day=.../part-NNNNN.csv
+    @Value("${berkut.output.partition:none}")
+    private String outputPartition;
+
+    // a part rolls over to the next one beyond this size
+    @Value("${berkut.output.part-bytes:134217728}")
+    private long partBytes;
+
+    @Value("${berkut.output.partition-writers:4}")
+    private int partitionWriters;
+
+    // API fields the search accepts in "fields"; =, and =a|b criteria on columns read from them are sent to the server
+    @Value("${berkut.filter.pushdown-fields:}")
+    private Set<String> pushdownFields;
 
     private final WebClient webClient;
-    private static final String HEADER = "id|taxpayer_name_latin|taxpayer_name_cyrillic|taxpayer_name_original|sex|taxpayer_birthday|citizenship|taxpayer_iin_bin|taxpayer_personal_number|photography_refusing_reason|intersection_status|death_date|death_country|death_reg_place|death_add_information|document_number|document_type|document_issue_date|document_validity_period|document_issue_country|document_issuing_authority|duty_officer_decision|duty_officer_decision_date|duty_officer_decision_add_info|date|detention_place|police_nariad|decision_making_body|decison_making_authority|place_of_birth|location|place_of_work|family_information|education|supression_date|checkpoint|entry_exit_place|trip_purpose|border_crossing_method|direction|exit_country|departure_point|entry_country|destination_pint|system_number|create_date|creater|source|serial_number|status|flight_train_number|belonging|flight_class|flight_type|flight_transport_vessel_number|flight_date_fact|flight_date_plan|vin_code|trailer_number|mark_type|colour|owner|vessel_name|home_port|carriage_quantity|foreign_carriage_quantity|visa_frequency|visa_category|visa_type|visa_number|visa_start_date|visa_expiration_date|document_number1|iin|start_date|expiration_date|actual_date";
+    private final TokenManager tokenManager;
+    private final DedupIndex dedupIndex;
+    private final PageCache pageCache;
+    private final ExportMetrics metrics;
+    private final FetchRetry fetchRetry;
+    private final DeadLetters deadLetters;
+    static final String HEADER = "id|taxpayer_name_latin|taxpayer_name_cyrillic|taxpayer_name_original|sex|taxpayer_birthday|citizenship|taxpayer_iin_bin|taxpayer_personal_number|photography_refusing_reason|intersection_status|death_date|death_country|death_reg_place|death_add_information|document_number|document_type|document_issue_date|document_validity_period|document_issue_country|document_issuing_authority|duty_officer_decision|duty_officer_decision_date|duty_officer_decision_add_info|date|detention_place|police_nariad|decision_making_body|decison_making_authority|place_of_birth|location|place_of_work|family_information|education|supression_date|checkpoint|entry_exit_place|trip_purpose|border_crossing_method|direction|exit_country|departure_point|entry_country|destination_pint|system_number|create_date|creater|source|serial_number|status|flight_train_number|belonging|flight_class|flight_type|flight_transport_vessel_number|flight_date_fact|flight_date_plan|vin_code|trailer_number|mark_type|colour|owner|vessel_name|home_port|carriage_quantity|foreign_carriage_quantity|visa_frequency|visa_category|visa_type|visa_number|visa_start_date|visa_expiration_date|document_number1|iin|start_date|expiration_date|actual_date";
 
     private static final Random random = new Random();
-    private final List<String> globalCsvLines = Collections.synchronizedList(new ArrayList<>());
-    private volatile boolean exportRunning = false;
+    // journals being written right now; their directories (and delta outputs) are claimed so two runs never share one
+    private final Set<ExportJournal> activeJournals = ConcurrentHashMap.newKeySet();
+    private final Set<Path> claimedPaths = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void checkSettings() {
+        // a window cannot be halved below one second, so halving down to "0 minutes" would never end
+        if (minWindowMinutes < 1) {
+            throw new IllegalArgumentException("berkut.shard.min-window-minutes must be at least 1, got: " + minWindowMinutes);
+        }
+    }
+
+    /**
+     * One page on its way to the journal of its window. {@code index} counts the pages of this run,
+     * {@code nextOffset} is the record offset after an offset page and keyset pages carry the cursor that
+     * follows them. A skipped page and a refetched one carry their {@code gap}.
+     */
+    private record JournalPage(Kind kind, ExportJournal journal, long index, long nextOffset, List<String> rows,
+                               ExportJournal.Cursor cursor, ExportJournal.Gap gap) {
+
+        enum Kind {ROWS, SKIPPED, REFETCHED, DONE}
+
+        static JournalPage of(ExportJournal journal, long index, long nextOffset, List<String> rows,
+                                ExportJournal.Cursor cursor) {
+            return new JournalPage(Kind.ROWS, journal, index, nextOffset, rows, cursor, null);
+        }
+
+        static JournalPage done(ExportJournal journal) {
+            return new JournalPage(Kind.DONE, journal, -1, -1, null, null, null);
+        }
+    }
+
+    /**
+     * A joined search response and how long it took from request to last byte.
+     */
+    private record Response(DataBuffer body, long latencyMs) {
+    }
+
+    /**
+     * {@code size} records of an offset-paged query, starting at record {@code offset}. A {@code skipped} page
+     * failed for good and went to the dead letters; it has no rows.
+     */
+    private record OffsetPage(long offset, int size, DecodedPage page, boolean skipped) {
+
+        long end() {
+            return offset + size;
+        }
+    }
 
     // PUBLIC API
-    public Mono<String> exportCsv(String dateFrom, String dateTo, int startPage) {
-        return authenticateAndGetToken()
-                .doOnNext(token -> currentToken = token)
-                .flatMap(token -> requestData(dateFrom, dateTo, startPage));
-    }
-
-    private Mono<String> authenticateAndGetToken() {
-        log("=== STEP 0: GET /auth-service/login ===");
-        return fetchLoginPage()
-                .then(Mono.defer(() -> {
-                    log("=== STEP 1: POST /auth-service/login → get code ===");
-                    return submitLoginForm();
-                }))
-                .flatMap(code -> {
-                    log("AUTH CODE = " + code);
-                    log("=== STEP 2: POST /oauth/token → get access_token ===");
-                    return exchangeCodeForToken(code);
-                });
+    public Mono<ExportResult> exportCsv(String dateFrom, String dateTo, int startPage) {
+        return exportCsv(dateFrom, dateTo, startPage, defaultTarget());
     }
 
-    private Mono<Void> fetchLoginPage() {
-        return webClient.get()
-                .uri(BASE + "/auth-service/login")
-                .header(HttpHeaders.USER_AGENT, UA)
-                .header(HttpHeaders.ACCEPT, "text/html")
-                .exchangeToMono(resp -> {
-                    extractCookies(resp);
-                    log("SESSION COOKIE after GET /login: " + sessionCookie);
-                    if (!resp.statusCode().is2xxSuccessful()) {
-                        return Mono.error(new RuntimeException("GET /login failed: " + resp.statusCode()));
-                    }
-                    return Mono.empty();
-                });
+    /**
+     * Where an export goes unless told otherwise: {@code export/result.csv}.
+     */
+    public static Path defaultTarget() {
+        return exportDir().resolve("result.csv");
     }
 
-    private Mono<String> submitLoginForm() {
-        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
-        form.add("username", username);
-        form.add("password", password);
-        form.add("approve", "on");
-
-        return webClient.post()
-                .uri(BASE + "/auth-service/login")
-                .header(HttpHeaders.COOKIE, sessionCookie)
-                .header(HttpHeaders.USER_AGENT, UA)
-                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
-                .bodyValue(form)
-                .exchangeToMono(resp -> {
-                    extractCookies(resp);
-                    log("SESSION after POST /login: " + sessionCookie);
-
-                    List<String> loc = resp.headers().header(HttpHeaders.LOCATION);
-                    if (loc != null && !loc.isEmpty() && loc.get(0).contains("code=")) {
-                        return Mono.just(extractCode(loc.get(0)));
-                    }
-                    return Mono.error(new RuntimeException("Authorization code not found after login!"));
-                });
+    public Mono<ExportResult> exportCsv(String dateFrom, String dateTo, int startPage, Path target) {
+        return exportCsv(dateFrom, dateTo, startPage, target, new ExportProgress());
     }
 
-    private Mono<String> exchangeCodeForToken(String code) {
-        String basic = "Basic " + Base64.getEncoder()
-                .encodeToString((clientId + ":" + clientSecret).getBytes(StandardCharsets.UTF_8));
-
-        return webClient.post()
-                .uri(BASE + "/auth-service/oauth/token")
-                .header(HttpHeaders.COOKIE, sessionCookie)
-                .header(HttpHeaders.AUTHORIZATION, basic)
-                .header(HttpHeaders.CONTENT_TYPE, "application/x-www-form-urlencoded")
-                .header(HttpHeaders.ACCEPT, "application/json")
-                .body(BodyInserters.fromFormData("grant_type", "authorization_code")
-                        .with("scope", "openid")
-                        .with("redirect_uri", redirectUri)
-                        .with("code", code))
-                .retrieve()
-                .bodyToMono(String.class)
-                .map(body -> {
-                    try {
-                        Map<String, Object> map = mapper.readValue(body, new TypeReference<>() {});
-                        return (String) map.get("access_token");
-                    } catch (JsonProcessingException e) {
-                        throw new RuntimeException("Failed to parse access token", e);
-                    }
-                });
+    /**
+     * Exports into {@code target} and reports to {@code progress}, which is finished when the export ends.
+     * Every call has its own limiter, writer thread and journals, so several exports can run side by side
+     * as long as they write different files.
+     */
+    public Mono<ExportResult> exportCsv(String dateFrom, String dateTo, int startPage, Path target,
+                                        ExportProgress progress) {
+        return exportCsv(dateFrom, dateTo, startPage, target, progress, List.of());
     }
 
-    private Mono<String> requestData(String from, String to, int startPageUser) {
-        int startPage = Math.max(0, startPageUser - 1);
+    /**
+     * Same, keeping only the records that match {@code filters} (see {@link ExportFilter}).
+     */
+    public Mono<ExportResult> exportCsv(String dateFrom, String dateTo, int startPage, Path target,
+                                        ExportProgress progress, List<String> filters) {
+        return exportCsv(dateFrom, dateTo, startPage, target, progress, filters, journalRoot());
+    }
 
-        String requestBody = """
-        {
-          "fields":[
-            {
-              "name":"statusDatetime",
-              "compareOperator":"BETWEEN",
-              "compareValues":["%s","%s"]
-            }
-          ]
+    /**
+     * Same, with the journals under {@code journalRoot} instead of {@code berkut.journal.dir}. Journals are keyed on
+     * the query alone, so exports that must not share or resume each other's journals need roots of their own.
+     */
+    Mono<ExportResult> exportCsv(String dateFrom, String dateTo, int startPage, Path target, ExportProgress progress,
+                                 List<String> filters, Path journalRoot) {
+        ExportFilter filter;
+        try {
+            filter = filter(filters);
+        } catch (IllegalArgumentException e) {
+            progress.finish();
+            return Mono.error(e);
         }
-        """.formatted(from, to);
+        logFilter(filter);
+        return session()
+                .doOnSubscribe(subscription -> progress.start())
+                .flatMap(token -> requestData(dateFrom, dateTo, startPage, target, progress, filter, journalRoot))
+                .transform(run -> releasing(run, progress::finish));
+    }
+
+    /**
+     * Compiles export criteria against the CSV columns; criteria on {@code berkut.filter.pushdown-fields}
+     * go to the server. Throws {@link IllegalArgumentException} for a criterion that does not parse.
+     */
+    public ExportFilter filter(List<String> filters) {
+        return ExportFilter.compile(filters, HEADER, StreamingPageDecoder::sourcePath, pushdownFields);
+    }
+
+    private static void logFilter(ExportFilter filter) {
+        if (!filter.isEmpty()) {
+            log("Filter: " + filter);
+        }
+    }
+
+    /**
+     * Streams the CSV as it is fetched: the header goes out immediately, then one chunk of lines per page.
+     * Pages are only requested as fast as the subscriber consumes them.
+     */
+    public Flux<String> streamCsv(String dateFrom, String dateTo, int startPage) {
+        return streamCsv(dateFrom, dateTo, startPage, List.of());
+    }
+
+    public Flux<String> streamCsv(String dateFrom, String dateTo, int startPage, List<String> filters) {
+        ExportFilter filter;
+        try {
+            filter = filter(filters);
+        } catch (IllegalArgumentException e) {
+            return Flux.error(e);
+        }
+        logFilter(filter);
+        AdaptiveConcurrencyLimiter limiter = newLimiter();
+        PageSizer sizer = newSizer();
+        ExportProgress progress = new ExportProgress();
+        ChronoUnit shardUnit = shardUnit();
+
+        Flux<String> pages = Flux.using(dedupIndex::begin, dedup -> session()
+                .flatMapMany(token -> shardUnit == null
+                        ? windowPages(new TimeWindow(dateFrom, dateTo), startOffset(startPage), limiter, sizer, progress, filter)
+                        // windows are fetched concurrently but emitted in order, so the stream stays sorted
+                        : planWindows(dateFrom, dateTo, shardUnit, limiter, null, filter)
+                                .flatMapSequential(window -> windowPages(window, 0, limiter, sizer, progress, filter),
+                                        windowConcurrency, 2))
+                .map(page -> dedup.filter(page.rows()))
+                .doOnComplete(() -> {
+                    if (progress.skippedRecords() > 0) {
+                        // the client has the rows already; all it can be told is what is missing
+                        log("⚠ Stream ended without " + progress.skippedRecords() + " records, rerun the dead letters to get them");
+                        return;
+                    }
+                    dedup.commit();
+                }), DedupIndex.Run::close)
+                .filter(rows -> !rows.isEmpty())
+                .map(rows -> {
+                    StringBuilder chunk = new StringBuilder(rows.size() * 512);
+                    for (String row : rows) {
+                        chunk.append(row).append('\n');
+                    }
+                    return chunk.toString();
+                })
+                .doOnError(e -> log("FATAL ERROR while streaming: " + e.getMessage()));
+
+        return Flux.concat(Mono.just(HEADER + "\n"), pages);
+    }
+
+    private Mono<ExportResult> requestData(String from, String to, int startPage, Path finalFile,
+                                           ExportProgress progress, ExportFilter filter, Path journalRoot) {
+        long startOffset = startOffset(startPage);
 
         log("Requesting data...");
 
-        Path baseDir = Paths.get("").toAbsolutePath();
-        Path exportDir = baseDir.resolve("export");
         try {
-            Files.createDirectories(exportDir);
+            Files.createDirectories(finalFile.toAbsolutePath().getParent());
         } catch (IOException e) {
             throw new RuntimeException("Cannot create export folder", e);
         }
 
-        Path finalFile = exportDir.resolve("result.csv");
+        ChronoUnit shardUnit = shardUnit();
+        if (shardUnit != null) {
+            if (startOffset > 0) {
+                log("Start page " + startPage + " is ignored in sharded mode, windows resume from their journals");
+            }
+            return requestSharded(from, to, shardUnit, journalRoot, finalFile, progress, filter);
+        }
 
-        exportRunning = true;
-        globalCsvLines.clear();
-        globalCsvLines.add(HEADER);
+        TimeWindow range = new TimeWindow(from, to);
+        ExportJournal journal = openJournal(journalRoot, range, startOffset, filter);
+        if (journal.resumed()) {
+            log("↻ Resuming export from record " + journal.nextOffset() + " (" + journal.committedRows()
+                    + " rows already in " + journal.dir() + ")");
+        }
 
-        AtomicInteger processedPages = new AtomicInteger(0);
-        AtomicInteger totalPagesRef = new AtomicInteger(1);
+        Scheduler writerThread = Schedulers.newSingle("csv-writer");
+        DedupIndex.Run dedup = dedupIndex.begin();
 
-        Function<Integer, Mono<JsonNode>> fetchPage = page -> webClient.post()
-                .uri(BASE + "/pp-center-service/api/crossing-facts/search?page=" + page + "&size=200")
-                .header(HttpHeaders.AUTHORIZATION, "Bearer " + currentToken)
-                .header(HttpHeaders.CONTENT_TYPE, "application/json")
-                .header(HttpHeaders.COOKIE, sessionCookie)
-                .bodyValue(requestBody)
-                .retrieve()
-                .bodyToMono(String.class)
-                .map(body -> {
-                    try {
-                        log("Processing page: " + page);
-                        return mapper.readTree(body);
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
+        return journalPages(range, journal, newLimiter(), newSizer(), progress, filter)
+                // pages are decoded on the network threads and handed over to a single writer thread;
+                // the small prefetch keeps at most a few decoded pages waiting in memory
+                .publishOn(writerThread, 4)
+                .doOnNext(page -> writePage(page, dedup, progress))
+                .then(Mono.fromCallable(() -> {
+                    if (journal.hasGaps()) {
+                        // nothing is finished while pages are missing: the journal stays for the next run
+                        ExportResult partial = journal.snapshot(finalFile);
+                        log("⚠ " + journal.gaps().size() + " pages are missing, partial file saved: " + partial.rows()
+                                + " rows; rerun the export to fetch them");
+                        return partial;
                     }
+                    ExportResult result = journal.finish(finalFile);
+                    dedup.commit();
+                    log("✔ Final file saved: " + finalFile.toAbsolutePath());
+                    return result;
+                }))
+                .onErrorResume(e -> {
+                    log("FATAL ERROR: " + e.getMessage());
+                    // the journal keeps the committed pages, so the next run with the same parameters resumes
+                    ExportResult partial = journal.snapshot(finalFile);
+                    log("Partial file saved: " + partial.rows() + " rows, resume point record " + journal.nextOffset());
+                    return Mono.just(partial);
                 })
-                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(5))
-                        .maxBackoff(Duration.ofMinutes(2))
-                        .filter(ex -> {
-                            if (ex instanceof WebClientResponseException wcre) {
-                                int status = wcre.getStatusCode().value();
-                                return status == 401 || status == 403 || status == 400 ||
-                                        status == 500 || status == 501 || status == 502;
-                            }
-                            return false;
-                        })
-                        .doBeforeRetryAsync(signal -> {
-                            Throwable ex = signal.failure();
-                            if (ex instanceof WebClientResponseException wcre) {
-                                int status = wcre.getStatusCode().value();
-                                if (status == 500 || status == 501 || status == 502) {
-                                    log("⚠ Server error 500 — retrying (attempt " + (signal.totalRetries() + 1) + ")");
-                                    return Mono.empty();
-                                } else if (status == 401 || status == 403 || status == 400) {
-                                    log("Token expired — re-authenticating (attempt " + (signal.totalRetries() + 1) + ")");
-                                    return authenticateAndGetToken()
-                                            .doOnNext(token -> currentToken = token)
-                                            .then();
-                                }
-                            }
-                            return Mono.empty();
-                        }));
-
-        return fetchPage.apply(startPage)
-                .flatMap(first -> {
-                    JsonNode pageInfo = first.path("page");
-                    int totalPages = pageInfo.path("totalPages").asInt(1);
-                    int totalElements = pageInfo.path("totalElements").asInt(0);
-
-                    totalPagesRef.set(totalPages);
-                    log("Total records: " + totalElements + ", Total pages: " + totalPages);
-
-                    if (totalPages == 0) return Mono.just("");
-
-                    processPageData(first, globalCsvLines);
-                    processedPages.incrementAndGet();
-
-                    return Flux.range(startPage + 1, totalPages - (startPage + 1))
-                            .delayElements(Duration.ofMillis(400 + random.nextInt(600)))
-                            .concatMap(page -> fetchPage.apply(page)
-                                    .doOnNext(json -> {
-                                        processPageData(json, globalCsvLines);
-                                        int done = processedPages.incrementAndGet();
-                                        if (done % 50 == 0) {
-                                            saveTempFile(exportDir, page);
-                                        }
-                                    }))
-                            .then(Mono.fromCallable(() -> {
-                                Files.write(finalFile, globalCsvLines, StandardCharsets.UTF_8,
-                                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                                log("✔ Final file saved: " + finalFile.toAbsolutePath());
-                                return String.join("\n", globalCsvLines);
-                            }));
-                })
+                // the journal is gone by now, a failure from here on must not fall back to it
+                .map(this::finishOutput)
+                .transform(run -> releasing(run, () -> {
+                    releaseJournal(journal);
+                    dedup.close();
+                    writerThread.disposeGracefully().subscribe();
+                }));
+    }
+
+    /**
+     * Sharded export: every time window has its own journal and is paged on its own, several windows run at once
+     * and all of them share one limiter, so the global number of requests in flight stays capped.
+     * At the end the journals are concatenated in window order, which gives the same rows as an unsharded run.
+     */
+    private Mono<ExportResult> requestSharded(String from, String to, ChronoUnit unit, Path journalRoot, Path finalFile,
+                                              ExportProgress progress, ExportFilter filter) {
+        AdaptiveConcurrencyLimiter limiter = newLimiter();
+        PageSizer sizer = newSizer();
+        // plan order -> journal; the merge walks it in order no matter which window finished first
+        NavigableMap<Long, ExportJournal> journals = new ConcurrentSkipListMap<>();
+
+        Scheduler writerThread = Schedulers.newSingle("csv-writer");
+        DedupIndex.Run dedup = dedupIndex.begin();
+
+        return planWindows(from, to, unit, limiter, journalRoot, filter)
+                .index()
+                .flatMap(indexed -> {
+                    TimeWindow window = indexed.getT2();
+                    ExportJournal journal = openJournal(journalRoot, window, 0, filter);
+                    journals.put(indexed.getT1(), journal);
+                    if (journal.isComplete() && !journal.hasGaps()) {
+                        log("✔ Window " + window + " already exported (" + journal.committedRows() + " rows)");
+                        return Flux.<JournalPage>empty();
+                    }
+
+                    log("Window " + window + (journal.isComplete() ? " fetches " + journal.gaps().size() + " missing pages"
+                            : journal.resumed() ? " resumes from record " + journal.nextOffset() : " started"));
+                    return journalPages(window, journal, limiter, sizer, progress, filter)
+                            .concatWith(Mono.fromCallable(() -> JournalPage.done(journal)));
+                }, windowConcurrency)
+                // pages of different windows interleave here, each one goes to the journal of its own window
+                .publishOn(writerThread, 4)
+                .doOnNext(page -> writePage(page, dedup, progress))
+                .then(Mono.fromCallable(() -> {
+                    long missing = journals.values().stream().mapToLong(journal -> journal.gaps().size()).sum();
+                    if (missing > 0) {
+                        ExportResult partial = mergeWindows(journals, finalFile, false).partial();
+                        log("⚠ " + missing + " pages are missing, partial file saved: " + partial.rows()
+                                + " rows; rerun the export to fetch them");
+                        return partial;
+                    }
+                    ExportResult result = mergeWindows(journals, finalFile, true);
+                    dedup.commit();
+                    log("✔ Final file saved: " + finalFile.toAbsolutePath() + " (" + journals.size() + " windows)");
+                    return result;
+                }))
                 .onErrorResume(e -> {
                     log("FATAL ERROR: " + e.getMessage());
-                    return Mono.just(String.join("\n", globalCsvLines));
-                });
+                    // finished and partial windows stay in their journals, the next run only fetches what is missing
+                    ExportResult partial = mergeWindows(journals, finalFile, false).partial();
+                    log("Partial file saved: " + partial.rows() + " rows from " + journals.size() + " windows");
+                    return Mono.just(partial);
+                })
+                .map(this::finishOutput)
+                .transform(run -> releasing(run, () -> {
+                    journals.values().forEach(this::releaseJournal);
+                    dedup.close();
+                    writerThread.disposeGracefully().subscribe();
+                }));
+    }
+
+    /**
+     * Pages of {@code window} from the journal's resume point on. Offset-paged journals first fetch their gaps
+     * once more; a gap that fails again stays one.
+     */
+    private Flux<JournalPage> journalPages(TimeWindow window, ExportJournal journal, AdaptiveConcurrencyLimiter limiter,
+                                          PageSizer sizer, ExportProgress progress, ExportFilter filter) {
+        if (keyset()) {
+            ExportJournal.Cursor start = journal.cursor() == null ? KeysetPaging.start(window.from()) : journal.cursor();
+            return fetchKeyset(window.to(), start, limiter, sizer, filter)
+                    .index()
+                    .doOnNext(step -> reportKeyset(step.getT1(), step.getT2(), progress))
+                    .map(step -> JournalPage.of(journal, step.getT1(), 0, step.getT2().rows(), step.getT2().next()));
+        }
+        String requestBody = searchBody(window.from(), window.to(), filter);
+        Flux<JournalPage> refetched = Flux.fromIterable(journal.gaps())
+                .concatMap(gap -> fetchOffsetPage(requestBody, filter, new OffsetPage(gap.offset(), gap.size(), null, false),
+                        limiter, sizer)
+                        .filter(page -> !page.skipped())
+                        .doOnNext(page -> {
+                            // the journal has the page now, a dead letter rerun would only fetch it twice
+                            deadLetters.remove(PageCache.key(requestBody, gap.offset() / gap.size(), gap.size(), ""));
+                            progress.fetched(page.page().items());
+                        })
+                        .map(page -> new JournalPage(JournalPage.Kind.REFETCHED, journal, 0, 0, page.page().rows(),
+                                null, gap)));
+        if (journal.isComplete()) {
+            return refetched;
+        }
+        long startOffset = journal.nextOffset();
+        return Flux.concat(refetched, fetchPages(requestBody, filter, startOffset, limiter, sizer)
+                .doOnNext(page -> reportOffset(startOffset, page, progress))
+                .index()
+                .map(page -> page.getT2().skipped()
+                        ? new JournalPage(JournalPage.Kind.SKIPPED, journal, page.getT1(), page.getT2().end(), null, null,
+                                new ExportJournal.Gap(page.getT2().offset(), page.getT2().size()))
+                        : JournalPage.of(journal, page.getT1(), page.getT2().end(), page.getT2().page().rows(), null)));
+    }
+
+    /**
+     * Pages of {@code window} in the configured pagination mode, without a journal.
+     */
+    private Flux<DecodedPage> windowPages(TimeWindow window, long startOffset, AdaptiveConcurrencyLimiter limiter,
+                                          PageSizer sizer, ExportProgress progress, ExportFilter filter) {
+        return keyset()
+                ? fetchKeyset(window.to(), KeysetPaging.start(window.from()), limiter, sizer, filter)
+                        .index()
+                        .doOnNext(step -> reportKeyset(step.getT1(), step.getT2(), progress))
+                        .map(step -> step.getT2().page())
+                : fetchPages(searchBody(window.from(), window.to(), filter), filter, startOffset, limiter, sizer)
+                        .doOnNext(page -> reportOffset(startOffset, page, progress))
+                        .map(OffsetPage::page);
+    }
+
+    /**
+     * The first page of a query tells how many records are left from {@code startOffset} on; every page covers
+     * its share of them (a skipped page covers none, it reports no total, only that its records are missing).
+     */
+    private static void reportOffset(long startOffset, OffsetPage page, ExportProgress progress) {
+        if (page.skipped()) {
+            progress.skipped(page.size());
+        }
+        long total = page.page().totalElements();
+        if (page.offset() == startOffset) {
+            progress.expect(total - startOffset);
+        }
+        progress.fetched(Math.max(0, Math.min(page.size(), total - page.offset())));
+    }
+
+    private static void reportKeyset(long index, KeysetPaging.Step step, ExportProgress progress) {
+        if (index == 0) {
+            // counted from the cursor on, so a resumed window only expects what is left
+            progress.expect(step.page().totalElements());
+        }
+        progress.fetched(step.page().items());
+    }
+
+    private void writePage(JournalPage page, DedupIndex.Run dedup, ExportProgress progress) {
+        ExportJournal journal = page.journal();
+        switch (page.kind()) {
+            case DONE -> {
+                journal.complete();
+                log("✔ Window done: " + journal.rows() + " rows"
+                        + (journal.hasGaps() ? ", " + journal.gaps().size() + " pages missing" : ""));
+                return;
+            }
+            case SKIPPED -> journal.skip(page.gap().offset(), page.gap().size(), page.nextOffset());
+            case REFETCHED -> {
+                List<String> rows = dedup.filter(page.rows());
+                long before = journal.bytes();
+                journal.fill(page.gap(), rows);
+                metrics.written(rows.size(), journal.bytes() - before);
+                progress.written(rows.size(), journal.bytes() - before);
+                // refetched gaps are few and far between, each one is made durable right away
+                checkpoint(journal);
+                return;
+            }
+            case ROWS -> {
+                List<String> rows = dedup.filter(page.rows());
+                long before = journal.bytes();
+                journal.append(page.nextOffset(), rows, page.cursor());
+                metrics.written(rows.size(), journal.bytes() - before);
+                progress.written(rows.size(), journal.bytes() - before);
+            }
+        }
+        if ((page.index() + 1) % journalCommitEvery == 0) {
+            checkpoint(journal);
+        }
     }
-    private void saveTempFile(Path exportDir, int page){
-        page++;
+
+    /**
+     * Opens the journal of {@code window} and claims it for this run.
+     */
+    private ExportJournal openJournal(Path journalRoot, TimeWindow window, long startOffset, ExportFilter filter) {
+        String query = journalQuery(window, filter);
+        Path dir = ExportJournal.dir(journalRoot, query, window.from(), window.to(), startOffset);
+        if (!claimedPaths.add(dir)) {
+            throw new IllegalStateException("Another export of " + window + " is already running");
+        }
         try {
-            Path file = exportDir.resolve("progress_page_" + page + ".csv");
-            Files.write(file, globalCsvLines, StandardCharsets.UTF_8,
-                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            ExportJournal journal = ExportJournal.open(journalRoot, mapper, query, window.from(), window.to(),
+                    startOffset, HEADER, journalSegmentBytes);
+            activeJournals.add(journal);
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            claimedPaths.remove(dir);
+            throw new RuntimeException("Cannot open export journal for " + window, e);
+        }
+    }
 
-            log("💾 Auto-saved CSV at page " + page + ": " + file.toAbsolutePath());
+    /**
+     * Runs {@code release} once, on the result, an error or a cancel. Unlike {@code doFinally} it runs before the
+     * result goes out, so whoever gets it may start the same export again right away. It runs on the thread that
+     * ends the run, usually the writer thread itself, which is why that one is disposed without an interrupt.
+     */
+    private static <T> Mono<T> releasing(Mono<T> run, Runnable release) {
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable once = () -> {
+            if (released.compareAndSet(false, true)) {
+                release.run();
+            }
+        };
+        return run.doOnTerminate(once).doOnCancel(once);
+    }
 
-        } catch (Exception e) {
-            log("ERROR saving temp CSV: " + e.getMessage());
+    private void releaseJournal(ExportJournal journal) {
+        journal.close();
+        activeJournals.remove(journal);
+        claimedPaths.remove(journal.dir());
+    }
+
+    /**
+     * Sorts a complete output, then derives its Arrow copy and its partitions from it, as configured.
+     * If one of them fails, the assembled CSV stays the result; every step replaces its files atomically.
+     */
+    private ExportResult finishOutput(ExportResult result) {
+        try {
+            return partitionedCopy(columnarCopy(sortOutput(result)));
+        } catch (RuntimeException e) {
+            log("⚠ Post-processing failed, " + result.path() + " stays as assembled: " + e.getMessage());
+            return result;
         }
     }
 
-    // -----------------------------
-    // DATA PROCESSING
-    // -----------------------------
-    private void processPageData(JsonNode root, List<String> csvLines) {
-        JsonNode items = root.path("_embedded").path("content");
-
-        if (!items.isArray() || items.size() == 0) {
-            log("Warning: Page has no items");
-            return;
-        }
-
-        for (JsonNode item : items) {
-            // Document info
-            JsonNode doc = item.path("document");
-            String surnameEn = getOrEmpty(doc, "surnameEn");
-            String givenNameEn = getOrEmpty(doc, "givenNameEn");
-            String fathersNameEn = getOrEmpty(doc, "fathersNameEn");
-            String surnameRu = getOrEmpty(doc, "surnameRu");
-            String givenNameRu = getOrEmpty(doc, "givenNameRu");
-            String fathersNameRu = getOrEmpty(doc, "fathersNameRu");
-            String surnameOrigin = getOrEmpty(doc, "surnameOrigin");
-            String givenNameOrigin = getOrEmpty(doc, "givenNameOrigin");
-            String fathersNameOrigin = getOrEmpty(doc, "fathersNameOrigin");
-
-            // Trip info
-            JsonNode trip = item.path("trip");
-
-            // Visa info
-            JsonNode visa = item.path("crossingFactVisa");
-
-            String[] values = {
-                    getOrEmpty(item, "id"),
-                    formatName(givenNameEn, surnameEn, fathersNameEn),
-                    formatName(givenNameRu, surnameRu, fathersNameRu),
-                    formatName(givenNameOrigin, surnameOrigin, fathersNameOrigin),
-                    getNestedOrEmpty(doc, "gender"),
-                    getOrEmpty(doc, "birthDate"),
-                    getNestedOrEmpty(item, "citizenCountry", "valueRu"),
-                    getOrEmpty(doc, "iin"),
-                    getOrEmpty(doc, "personalNumber"),
-                    getNestedOrEmpty(item, "refusePhotoReason", "valueRu"),
-                    getOrEmpty(item, "statusValue"),
-                    getOrEmpty(item, "deathDate"),
-                    getNestedOrEmpty(item, "deathCountry", "valueRu"),
-                    getOrEmpty(item, "deathRegistrationPlace"),
-                    getOrEmpty(item, "deathAdditionalInfo"),
-                    getOrEmpty(doc, "documentNumber"),
-                    getNestedOrEmpty(doc, "documentType", "valueRu"),
-                    getOrEmpty(doc, "beginDate"),
-                    getOrEmpty(doc, "endDate"),
-                    getNestedOrEmpty(doc, "issueCountry", "valueRu"),
-                    getOrEmpty(doc, "issueAuthority"),
-                    getNestedOrEmpty(item, "violationsInfo", "decisionInfo", "valueRu"),
-                    getOrEmpty(item, "violationsInfo", "decisionDate"),
-                    getOrEmpty(item, "violationsInfo", "additionalInfo"),
-                    getOrEmpty(item, "statusDatetime"),
-                    getNestedOrEmpty(item, "detentionInfo", "detentionPlace"),
-                    getNestedOrEmpty(item, "detentionInfo", "policeSquad"),
-                    getNestedOrEmpty(item, "detentionInfo", "decisionMakingBody", "valueRu"),
-                    getNestedOrEmpty(item, "detentionInfo", "decisionMakingAuthority"),
-                    getOrEmpty(item, "birthPlace"),
-                    getOrEmpty(item, "residencePlace"),
-                    getOrEmpty(item, "workPlace"),
-                    getOrEmpty(item, "familyInfo"),
-                    getOrEmpty(item, "training"),
-                    "",
-                    getNestedOrEmpty(item, "checkpoint", "valueRu"),
-                    getNestedOrEmpty(item, "checkpoint", "valueRu"),
-                    getNestedOrEmpty(item, "tripPurpose", "valueRu"),
-                    getOrEmpty(trip, "crossingFactTypeValue"),
-                    getOrEmpty(trip, "directionTypeValue"),
-                    getNestedOrEmpty(trip, "fromDestinationCountry", "valueRu"),
-                    getOrEmpty(trip, "fromDestinationData"),
-                    getNestedOrEmpty(trip, "toDestinationCountry", "valueRu"),
-                    getOrEmpty(trip, "toDestinationData"),
-                    getOrEmpty(item, "id"),
-                    getOrEmpty(item, "createdDatetime"),
-                    getOrEmpty(item, "userInfo", "fullName"),
-                    getNestedOrEmpty(item, "source", "valueRu"),
-                    getOrEmpty(item, "deviceSerialNumber"),
-                    getOrEmpty(item, "status"),
-                    getOrEmpty(trip, "tripNumber"),
-                    getNestedOrEmpty(trip, "ownerCountry", "valueRu"),
-                    getNestedOrEmpty(trip, "tripClass", "valueRu"),
-                    getNestedOrEmpty(trip, "tripType", "valueRu"),
-                    getOrEmpty(trip, "transportNumber"),
-                    getOrEmpty(trip, "actualDatetime"),
-                    "",
-                    "",
-                    getOrEmpty(trip, "trailerNumber"),
-                    getNestedOrEmpty(trip, "brand", "valueRu"),
-                    getNestedOrEmpty(trip, "colorInfo", "valueRu"),
-                    getNestedOrEmpty(trip, "ownerCountry", "valueRu"),
-                    getOrEmpty(trip, "shipName"),
-                    getOrEmpty(trip, "portName"),
-                    "",
-                    "",
-                    getNestedOrEmpty(visa, "frequency", "valueRu"),
-                    getNestedOrEmpty(visa, "category", "valueRu"),
-                    getNestedOrEmpty(visa, "type", "valueRu"),
-                    getOrEmpty(visa, "number"),
-                    getOrEmpty(visa, "beginDate"),
-                    getOrEmpty(visa, "endDate"),
-                    "",
-                    getOrEmpty(doc, "iin"),
-                    "",
-                    "",
-                    ""
-            };
-
-            csvLines.add(String.join("|", values));
+    /**
+     * Orders a complete output by {@code berkut.output.sort}, if set. Partial outputs stay as they are:
+     * their order is what the next run resumes from.
+     */
+    private ExportResult sortOutput(ExportResult result) {
+        ExternalSorter.SortKey key = ExternalSorter.SortKey.of(outputSort);
+        if (key == null || !result.complete()) {
+            return result;
         }
+        return ExternalSorter.sortFile(result.path(), key, sortBufferBytes, exportDir().resolve("tmp"));
     }
-    // -----------------------------
-    // HELPERS
-    // -----------------------------
-    private String getOrEmpty(JsonNode node, String... path) {
-        JsonNode current = node;
-        for (String field : path) {
-            if (current == null || current.isNull() || current.isMissingNode()) {
-                return "";
+
+    /**
+     * Writes the Arrow copy of a complete output if {@code berkut.output.arrow} is set; the CSV stays the result.
+     */
+    private ExportResult columnarCopy(ExportResult result) {
+        if (arrowOutput && result.complete()) {
+            String name = result.path().getFileName().toString();
+            Path target = result.path().resolveSibling(name.replaceFirst("\\.csv$", "") + ".arrow");
+            ArrowOutput.write(result.path(), target, arrowBatchRows, ArrowOutput.codec(arrowCompression));
+        }
+        return result;
+    }
+
+    /**
+     * Splits a complete output as {@code berkut.output.partition} says; the CSV stays the result.
+     */
+    private ExportResult partitionedCopy(ExportResult result) {
+        PartitionedOutput.Scheme scheme = PartitionedOutput.Scheme.of(outputPartition);
+        if (scheme != null && result.complete()) {
+            String name = result.path().getFileName().toString();
+            Path dir = result.path().resolveSibling(name.replaceFirst("\\.csv$", "") + "-parts");
+            PartitionedOutput.write(result.path(), dir, scheme, partBytes, partitionWriters, mapper);
+        }
+        return result;
+    }
+
+    private static Path exportDir() {
+        return Paths.get("").toAbsolutePath().resolve("export");
+    }
+
+    private Path journalRoot() {
+        return Paths.get(journalDir).toAbsolutePath();
+    }
+
+    private Path deltaRoot() {
+        return Paths.get(deltaDir).toAbsolutePath();
+    }
+
+    private ExportResult mergeWindows(NavigableMap<Long, ExportJournal> journals, Path finalFile, boolean consume) {
+        if (journals.isEmpty()) {
+            try (CsvWriter writer = new CsvWriter(finalFile, HEADER)) {
+                return writer.result();
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot write " + finalFile, e);
             }
-            current = current.path(field);
         }
+        return ExportJournal.merge(new ArrayList<>(journals.values()), finalFile, consume);
+    }
+
+    /**
+     * Cuts the range at {@code unit} boundaries and halves every window that still has more than
+     * {@code maxPagesPerWindow} pages. Each window is probed with a one-record page to learn its size;
+     * empty windows are dropped, windows that already have a journal are taken as they are.
+     * Windows come out in time order.
+     */
+    Flux<TimeWindow> planWindows(String from, String to, ChronoUnit unit,
+                                 AdaptiveConcurrencyLimiter limiter, Path journalRoot, ExportFilter filter) {
+        return Flux.fromIterable(TimeWindow.split(from, to, unit))
+                .flatMapSequential(window -> planWindow(window, limiter, journalRoot, filter), windowConcurrency);
+    }
 
-        if (current.isNull() || current.isMissingNode()) {
-            return "";
+    private Flux<TimeWindow> planWindow(TimeWindow window, AdaptiveConcurrencyLimiter limiter, Path journalRoot,
+                                        ExportFilter filter) {
+        if (journalRoot != null
+                && ExportJournal.exists(journalRoot, journalQuery(window, filter), window.from(), window.to(), 0)) {
+            return Flux.just(window);
         }
+        // only the totals matter here; they already reflect the pushed-down criteria
+        return fetchPage(searchBody(window.from(), window.to(), filter), ExportFilter.NONE, 0, 1, "", limiter, null)
+                .flatMapMany(probe -> {
+                    // counted in pages of the configured size, whatever size the fetch settles on
+                    long pages = (probe.totalElements() + pageSize - 1) / pageSize;
+                    if (pages == 0) {
+                        return Flux.empty();
+                    }
+                    List<TimeWindow> halves = window.halves();
+                    // a window of a second or two may not split at all; it is then fetched as it is
+                    if (pages > maxPagesPerWindow && window.length().toMinutes() >= 2 * minWindowMinutes
+                            && halves.size() == 2) {
+                        log("Window " + window + " has " + pages + " pages — splitting");
+                        return Flux.fromIterable(halves)
+                                .flatMapSequential(half -> planWindow(half, limiter, journalRoot, filter), 2);
+                    }
+                    return Flux.just(window);
+                });
+    }
+
+    /**
+     * Logs in, unless pages are replayed from the cache.
+     */
+    private Mono<String> session() {
+        return pageCache.replay() ? Mono.just("") : tokenManager.token();
+    }
+
+    private boolean keyset() {
+        return "keyset".equalsIgnoreCase(paginationMode);
+    }
 
-        String value = current.asText("");
-        return value.equals("null") ? "" : value;
+    /**
+     * What a journal is keyed on; keyset and offset journals of the same range never mix.
+     */
+    private String journalQuery(TimeWindow window, ExportFilter filter) {
+        String body = searchBody(window.from(), window.to(), filter);
+        String query = keyset() ? "keyset" + KeysetPaging.SORT + "\n" + body : body;
+        // client-side criteria change the rows too; unfiltered exports keep their old keys
+        return filter.filtersRows() ? query + "\nfilter " + filter.residualKey() : query;
     }
 
-    private String getNestedOrEmpty(JsonNode node, String... path) {
-        return getOrEmpty(node, path);
+    private ChronoUnit shardUnit() {
+        return switch (shardMode.toLowerCase(Locale.ROOT)) {
+            case "day" -> ChronoUnit.DAYS;
+            case "hour" -> ChronoUnit.HOURS;
+            default -> null;
+        };
     }
 
-    private String formatName(String given, String surname, String fathers) {
-        List<String> parts = new ArrayList<>();
+    // -----------------------------
+    // DELTA EXPORT
+    // -----------------------------
+
+    /**
+     * Appends the crossings newer than the previous successful run of {@code name} to
+     * {@code export/delta/<name>.csv} ({@code berkut.delta.dir}). The first run starts at {@code dateFrom}; {@code dateTo} defaults to now.
+     */
+    public Mono<ExportResult> exportDelta(String name, String dateFrom, String dateTo) {
+        if (!name.matches("[A-Za-z0-9_-]+")) {
+            return Mono.error(new IllegalArgumentException("Delta name may only contain letters, digits, '-' and '_'"));
+        }
+        return session()
+                .flatMap(token -> requestDelta(name, dateFrom, dateTo));
+    }
+
+    private Mono<ExportResult> requestDelta(String name, String dateFrom, String dateTo) {
+        Path stateFile = HighWaterMark.file(deltaRoot().resolve("state"), name);
+        Path output = deltaRoot().resolve("delta").resolve(name + ".csv");
+        Duration overlap = Duration.ofMinutes(deltaOverlapMinutes);
 
-        if (surname != null && !surname.isEmpty() && !surname.equals("null")) {
-            parts.add(surname);
+        HighWaterMark mark = HighWaterMark.load(stateFile, mapper);
+        OffsetDateTime start = new TimeWindow(dateFrom, dateFrom).start();
+        ZoneOffset offset = start.getOffset();
+        OffsetDateTime previousNewest = mark == null ? null : TimeWindow.parse(mark.statusDatetime(), offset);
+        if (previousNewest != null && previousNewest.minus(overlap).isAfter(start)) {
+            start = previousNewest.minus(overlap);
         }
-        if (given != null && !given.isEmpty() && !given.equals("null")) {
-            parts.add(given);
+        String from = TimeWindow.format(start);
+        String to = dateTo == null || dateTo.isBlank() ? TimeWindow.format(OffsetDateTime.now(offset)) : dateTo;
+
+        if (!claimedPaths.add(output)) {
+            return Mono.error(new IllegalStateException("Delta '" + name + "' is already running"));
         }
-        if (fathers != null && !fathers.isEmpty() && !fathers.equals("null")) {
-            parts.add(fathers);
+        CsvWriter writer;
+        try {
+            Files.createDirectories(output.getParent());
+            // a failed run may have appended rows after the mark; they are cut off and fetched again
+            writer = mark != null && Files.exists(output)
+                    ? new CsvWriter(output, mark.outputBytes())
+                    : new CsvWriter(output, HEADER);
+        } catch (IOException e) {
+            claimedPaths.remove(output);
+            throw new RuntimeException("Cannot open delta output " + output, e);
         }
+        log("Delta '" + name + "': fetching " + from + " .. " + to
+                + (mark == null ? " (first run)" : " (mark " + mark.statusDatetime() + ")"));
+
+        // ids from the previous run's overlap, and the ids of this run with their statusDatetime
+        Set<String> previousIds = mark == null ? Set.of() : mark.recentIds().keySet();
+        Map<String, String> seen = new HashMap<>();
+        OffsetDateTime[] newest = {previousNewest};
+        Scheduler writerThread = Schedulers.newSingle("csv-writer");
+        DedupIndex.Run dedup = dedupIndex.begin();
+
+        ExportProgress progress = new ExportProgress();
+
+        return windowPages(new TimeWindow(from, to), 0, newLimiter(), newSizer(), progress, ExportFilter.NONE)
+                .publishOn(writerThread, 4)
+                .doOnNext(page -> {
+                    List<String> fresh = new ArrayList<>(page.rows().size());
+                    for (int i = 0; i < page.rows().size(); i++) {
+                        String row = page.rows().get(i);
+                        String id = DecodedPage.id(row);
+                        if (previousIds.contains(id) || seen.putIfAbsent(id, page.statusDatetimes().get(i)) != null) {
+                            continue;
+                        }
+                        fresh.add(row);
+                        OffsetDateTime time = TimeWindow.parse(page.statusDatetimes().get(i), offset);
+                        if (time != null && (newest[0] == null || time.isAfter(newest[0]))) {
+                            newest[0] = time;
+                        }
+                    }
+                    List<String> rows = dedup.filter(fresh);
+                    long before = writer.bytes();
+                    writer.append(rows);
+                    metrics.written(rows.size(), writer.bytes() - before);
+                    if (seen.size() > 100_000 && newest[0] != null) {
+                        // ids older than the overlap can no longer come back in the next run
+                        retainRecent(seen, newest[0].minus(overlap), offset);
+                    }
+                })
+                .then(Mono.fromCallable(() -> {
+                    writer.flush();
+                    if (progress.skippedRecords() > 0) {
+                        // the mark stays put, so the next run cuts these rows off again and fetches the window anew
+                        log("⚠ Delta '" + name + "': " + progress.skippedRecords() + " records are missing, mark not moved;"
+                                + " rerun the delta to fetch them");
+                        return new ExportResult(output, writer.rows(), writer.bytes()).partial();
+                    }
+                    Map<String, String> recent = new HashMap<>(seen);
+                    if (mark != null) {
+                        mark.recentIds().forEach(recent::putIfAbsent);
+                    }
+                    if (newest[0] != null) {
+                        retainRecent(recent, newest[0].minus(overlap), offset);
+                    }
+                    long total = (mark == null ? 0 : mark.rows()) + writer.rows();
+                    new HighWaterMark(name, newest[0] == null ? null : TimeWindow.format(newest[0]), total,
+                            writer.bytes(), recent, Instant.now().toString()).save(stateFile, mapper);
+                    dedup.commit();
+
+                    log("✔ Delta '" + name + "': " + writer.rows() + " new rows appended to " + output
+                            + ", mark " + (newest[0] == null ? "unchanged" : TimeWindow.format(newest[0])));
+                    return new ExportResult(output, writer.rows(), writer.bytes());
+                }))
+                .doOnError(e -> log("FATAL ERROR in delta '" + name + "': " + e.getMessage() + " — mark not moved"))
+                .transform(run -> releasing(run, () -> {
+                    writer.close();
+                    claimedPaths.remove(output);
+                    dedup.close();
+                    writerThread.disposeGracefully().subscribe();
+                }));
+    }
 
-        return parts.isEmpty() ? "" : String.join(" ", parts);
+    private static void retainRecent(Map<String, String> ids, OffsetDateTime horizon, ZoneOffset offset) {
+        ids.values().removeIf(text -> {
+            OffsetDateTime time = TimeWindow.parse(text, offset);
+            return time == null || time.isBefore(horizon);
+        });
     }
 
     // -----------------------------
-    // COOKIES
+    // DEAD LETTERS
     // -----------------------------
-    private void extractCookies(ClientResponse resp) {
-        resp.headers().header(HttpHeaders.SET_COOKIE).forEach(c -> {
-            if (c.contains("SESSION=") || c.contains("INGRESSCOOKIE=")) {
-                String clean = c.split(";", 2)[0];
-                if (!sessionCookie.contains(clean)) {
-                    sessionCookie = sessionCookie.isEmpty() ? clean : sessionCookie + "; " + clean;
-                }
+
+    /**
+     * Fetches the pages in the dead letters once more and writes their rows to {@code target}, one page at a time.
+     * Pages that come through leave the dead letters, pages that fail again stay there.
+     */
+    public Mono<ExportResult> rerunDeadLetters(Path target) {
+        List<DeadLetters.Entry> entries = deadLetters.list();
+        if (entries.isEmpty()) {
+            return Mono.error(new IllegalStateException("There are no dead letters to rerun"));
+        }
+        if (!claimedPaths.add(target)) {
+            return Mono.error(new IllegalStateException("Another export is writing " + target));
+        }
+        return session().flatMap(token -> {
+            CsvWriter writer;
+            try {
+                Files.createDirectories(target.toAbsolutePath().getParent());
+                writer = new CsvWriter(target, HEADER);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot open " + target, e);
             }
-        });
+            AdaptiveConcurrencyLimiter limiter = newLimiter();
+            DedupIndex.Run dedup = dedupIndex.begin();
+            log("Rerunning " + entries.size() + " dead-lettered pages into " + target);
+
+            return Flux.fromIterable(entries)
+                    .concatMap(entry -> fetchPage(entry.requestBody(), rerunFilter(entry), entry.page(), entry.size(),
+                                    entry.sort(), limiter, null)
+                            .doOnNext(page -> {
+                                List<String> rows = dedup.filter(page.rows());
+                                long before = writer.bytes();
+                                writer.append(rows);
+                                metrics.written(rows.size(), writer.bytes() - before);
+                                deadLetters.remove(entry.key());
+                            })
+                            .onErrorResume(PageFetchException.class, e -> Mono.empty()))
+                    .then(Mono.fromCallable(() -> {
+                        writer.flush();
+                        dedup.commit();
+                        int left = deadLetters.list().size();
+                        log("✔ Dead letters rerun: " + writer.rows() + " rows in " + target + ", " + left + " pages still failing");
+                        return left == 0 ? writer.result() : writer.result().partial();
+                    }))
+                    .doFinally(signal -> {
+                        writer.close();
+                        dedup.close();
+                    });
+        }).doFinally(signal -> claimedPaths.remove(target));
     }
 
-    private String extractCode(String loc) {
-        int idx = loc.indexOf("code=");
-        String part = loc.substring(idx + 5);
-        int amp = part.indexOf('&');
-        return amp == -1 ? part : part.substring(0, amp);
+    /**
+     * The client-side criteria the page was fetched with; the pushed-down ones are in its request body already.
+     */
+    private static ExportFilter rerunFilter(DeadLetters.Entry entry) {
+        return entry.filter() == null
+                ? ExportFilter.NONE
+                : ExportFilter.compile(entry.filter(), HEADER, StreamingPageDecoder::sourcePath, Set.of());
     }
-    public void flushPartialCsv() {
+
+    private void checkpoint(ExportJournal journal) {
         try {
-            if (!exportRunning) {
-                System.out.println("No active export, nothing to flush.");
-                return;
+            long start = System.nanoTime();
+            journal.commit();
+            metrics.checkpoint(start);
+            log("💾 Checkpoint at record " + journal.nextOffset() + ": " + journal.rows() + " rows committed in " + journal.dir());
+        } catch (Exception e) {
+            log("ERROR committing journal: " + e.getMessage());
+        }
+    }
+
+    String searchBody(String from, String to, ExportFilter filter) {
+        String body = """
+        {
+          "fields":[
+            {
+              "name":"statusDatetime",
+              "compareOperator":"BETWEEN",
+              "compareValues":["%s","%s"]
+            }
+          ]
+        }
+        """.formatted(from, to);
+        if (filter.pushed().isEmpty()) {
+            return body;
+        }
+        try {
+            ObjectNode root = (ObjectNode) mapper.readTree(body);
+            ArrayNode fields = (ArrayNode) root.get("fields");
+            for (ExportFilter.Pushed pushed : filter.pushed()) {
+                ObjectNode field = fields.addObject();
+                field.put("name", pushed.field());
+                field.put("compareOperator", pushed.criterion().operator().name());
+                ArrayNode values = field.putArray("compareValues");
+                pushed.criterion().values().forEach(values::add);
             }
+            return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(root) + "\n";
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot build the search body", e);
+        }
+    }
 
-            List<String> snapshot;
+    private AdaptiveConcurrencyLimiter newLimiter() {
+        return "sequential".equalsIgnoreCase(fetchMode)
+                ? new AdaptiveConcurrencyLimiter(1, 1, 1, latencyTargetMs, backoffRatio)
+                : new AdaptiveConcurrencyLimiter(initialConcurrency, 1, maxConcurrency, latencyTargetMs, backoffRatio);
+    }
 
-            synchronized (globalCsvLines) {
-                snapshot = new ArrayList<>(globalCsvLines);
-            }
+    /**
+     * Starting record of a 1-based start page typed by the user.
+     */
+    private static long startOffset(int startPage) {
+        return (long) Math.max(0, startPage - 1) * START_PAGE_SIZE;
+    }
+
+    /**
+     * Pages are only resized when nothing is cached: cache keys include the size, and a replay has to ask for
+     * exactly the pages that were recorded.
+     */
+    private PageSizer newSizer() {
+        return adaptivePageSize && !pageCache.reads() && !pageCache.writes()
+                ? new PageSizer(pageSize, minPageSize, maxPageSize, true, pageLatencyTargetMs, pageTargetBytes)
+                : PageSizer.fixed(pageSize);
+    }
+
+    /**
+     * Fetches all records of the query from {@code startOffset} on and emits the pages in order. The size of each
+     * page is taken from {@code sizer} when it is requested, so it may change along the way; every page starts
+     * where the previous one ended.
+     */
+    private Flux<OffsetPage> fetchPages(String requestBody, ExportFilter filter, long startOffset,
+                                        AdaptiveConcurrencyLimiter limiter, PageSizer sizer) {
+        // replayed pages come from disk, there is nobody to be polite to
+        boolean sequential = "sequential".equalsIgnoreCase(fetchMode) && !pageCache.replay();
+        int firstSize = sizer.sizeAt(startOffset);
 
-            if (snapshot.isEmpty()) {
-                System.out.println("No CSV data to flush.");
+        return fetchPage(requestBody, filter, startOffset / firstSize, firstSize, "", limiter, sizer)
+                .flatMapMany(first -> {
+                    long totalElements = first.totalElements();
+
+                    log("Total records: " + totalElements + ", Total pages: " + first.totalPages() + " of " + firstSize);
+
+                    if (first.totalPages() == 0) return Flux.empty();
+
+                    // generated on demand, i.e. when a fetch slot frees up, so each page gets the latest size
+                    Flux<OffsetPage> chunks = Flux.generate(() -> startOffset + firstSize, (Long offset, SynchronousSink<OffsetPage> sink) -> {
+                        if (offset >= totalElements) {
+                            sink.complete();
+                            return offset;
+                        }
+                        int size = sizer.sizeAt(offset);
+                        sink.next(new OffsetPage(offset, size, null, false));
+                        return offset + size;
+                    });
+                    Flux<OffsetPage> fetched = sequential
+                            ? chunks.delayElements(Duration.ofMillis(400 + random.nextInt(600)))
+                                    .concatMap(chunk -> fetchOffsetPage(requestBody, filter, chunk, limiter, sizer))
+                            : chunks.flatMapSequential(chunk -> fetchOffsetPage(requestBody, filter, chunk, limiter, sizer),
+                                    limiter.maxLimit());
+
+                    return Flux.concat(Mono.just(new OffsetPage(startOffset, firstSize, first, false)), fetched);
+                });
+    }
+
+    private Mono<OffsetPage> fetchOffsetPage(String requestBody, ExportFilter filter, OffsetPage chunk,
+                                             AdaptiveConcurrencyLimiter limiter, PageSizer sizer) {
+        return fetchPage(requestBody, filter, chunk.offset() / chunk.size(), chunk.size(), "", limiter, sizer)
+                .map(page -> new OffsetPage(chunk.offset(), chunk.size(), page, false))
+                // the page is in the dead letters by now; the offsets that follow do not depend on it,
+                // but the run knows it is short of these records and does not finish
+                .onErrorResume(PageFetchException.class, e -> {
+                    log("Skipping records " + chunk.offset() + "–" + (chunk.end() - 1) + ", the export stays partial");
+                    return Mono.just(new OffsetPage(chunk.offset(), chunk.size(),
+                            new DecodedPage(0, 0, List.of(), List.of()), true));
+                });
+    }
+
+    /**
+     * Fetches the range [{@code start}, {@code to}] page after page with a moving lower bound.
+     * Each request depends on the previous page, so keyset paging runs one request at a time per range.
+     */
+    private Flux<KeysetPaging.Step> fetchKeyset(String to, ExportJournal.Cursor start, AdaptiveConcurrencyLimiter limiter,
+                                                PageSizer sizer, ExportFilter filter) {
+        return Mono.defer(() -> {
+                    log("Keyset paging from " + start.statusDatetime() + " to " + to);
+                    return fetchKeysetPage(to, start, limiter, sizer, filter);
+                })
+                .expand(step -> step.last() ? Mono.empty() : fetchKeysetPage(to, step.next(), limiter, sizer, filter));
+    }
+
+    private Mono<KeysetPaging.Step> fetchKeysetPage(String to, ExportJournal.Cursor cursor, AdaptiveConcurrencyLimiter limiter,
+                                                    PageSizer sizer, ExportFilter filter) {
+        int size = sizer.sizeAt(cursor.offset());
+        return fetchPage(searchBody(cursor.statusDatetime(), to, filter), filter, cursor.offset() / size, size,
+                        KeysetPaging.SORT, limiter, sizer)
+                .map(page -> KeysetPaging.advance(cursor, page, size));
+    }
+
+    /**
+     * Fetches and decodes one page, retrying on auth and server errors, and keeps the rows that pass
+     * {@code filter}. Remote responses are fed back into {@code sizer}, if given.
+     */
+    private Mono<DecodedPage> fetchPage(String requestBody, ExportFilter filter, long page, int size, String sort,
+                                        AdaptiveConcurrencyLimiter limiter, PageSizer sizer) {
+        PageDecoder decoder = "tree".equalsIgnoreCase(decoderMode) ? treeDecoder : streamingDecoder;
+        String cacheKey = PageCache.key(requestBody, page, size, sort);
+
+        Mono<DecodedPage> remote = pageCache.replay()
+                ? Mono.error(new IllegalStateException("Page " + page + " (size " + size + ") of " + requestBody.strip()
+                        + " is not in the page cache"))
+                : fetchRemotePage(requestBody, filter, page, size, sort, cacheKey, decoder, limiter, sizer);
+        if (!pageCache.reads()) {
+            return remote;
+        }
+
+        return Mono.fromCallable(() -> {
+                    long start = System.nanoTime();
+                    try (InputStream cached = pageCache.get(cacheKey)) {
+                        if (cached == null) return null;
+                        log("Processing page: " + page + " (cached)");
+                        DecodedPage decoded = decoder.decode(cached, filter);
+                        metrics.cacheHit(start);
+                        metrics.decoded(start, decoded.items());
+                        return decoded;
+                    }
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .switchIfEmpty(remote);
+    }
+
+    private Mono<DecodedPage> fetchRemotePage(String requestBody, ExportFilter filter, long page, int size, String sort,
+                                              String cacheKey, PageDecoder decoder, AdaptiveConcurrencyLimiter limiter,
+                                              PageSizer sizer) {
+        // the body is decoded straight from the joined network buffers, without an intermediate String;
+        // every attempt waits for the circuit breaker before it takes a token and a limiter slot
+        return fetchRetry.permit()
+                .then(tokenManager.token())
+                .flatMap(token -> limiter.run(Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    metrics.requestStarted();
+                    return fetchRetry.record(DataBufferUtils.join(
+                                    webClient.post()
+                                            .uri(baseUrl + "/pp-center-service/api/crossing-facts/search?page=" + page + "&size=" + size + sort)
+                                            .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                                            .header(HttpHeaders.CONTENT_TYPE, "application/json")
+                                            .header(HttpHeaders.COOKIE, tokenManager.sessionCookie())
+                                            .bodyValue(requestBody)
+                                            .retrieve()
+                                            .bodyToFlux(DataBuffer.class),
+                                    MAX_PAGE_BYTES))
+                            .doOnSuccess(buffer -> metrics.requestFinished(start, buffer == null ? 0 : buffer.readableByteCount()))
+                            .doOnError(e -> metrics.requestFinished(start, -1))
+                            .doOnCancel(() -> metrics.requestFinished(start, -1))
+                            .map(buffer -> new Response(buffer, (System.nanoTime() - start) / 1_000_000));
+                })))
+                .map(response -> {
+                    long start = System.nanoTime();
+                    DataBuffer buffer = response.body();
+                    int bytes = buffer.readableByteCount();
+                    try (InputStream body = buffer.asInputStream(true)) {
+                        log("Processing page: " + page);
+                        DecodedPage decoded;
+                        if (pageCache.writes()) {
+                            byte[] raw = body.readAllBytes();
+                            pageCache.put(cacheKey, raw);
+                            decoded = decoder.decode(new ByteArrayInputStream(raw), filter);
+                        } else {
+                            decoded = decoder.decode(body, filter);
+                        }
+                        metrics.decoded(start, decoded.items());
+                        if (sizer != null) {
+                            sizer.observe(size, decoded.items(), bytes, response.latencyMs());
+                        }
+                        return decoded;
+                    } catch (IOException e) {
+                        throw new RuntimeException("Cannot decode page " + page, e);
+                    }
+                })
+                .retryWhen(fetchRetry.retry((failure, ex, retry) -> {
+                    if (ex instanceof WebClientResponseException wcre) {
+                        metrics.retry(wcre.getStatusCode().value());
+                    }
+                    switch (failure) {
+                        case AUTH, BAD_REQUEST -> {
+                            log("Token rejected with " + ((WebClientResponseException) ex).getStatusCode().value()
+                                    + " — refreshing (attempt " + retry + ")");
+                            return tokenManager.invalidate(rejectedToken((WebClientResponseException) ex)).then();
+                        }
+                        case THROTTLED, SERVER -> log("⚠ Server error " + ((WebClientResponseException) ex).getStatusCode().value()
+                                + " — retrying with concurrency " + limiter.currentLimit() + " (attempt " + retry + ")");
+                        default -> log("⚠ Transport error (" + ex.getMessage() + ") — retrying with concurrency "
+                                + limiter.currentLimit() + " (attempt " + retry + ")");
+                    }
+                    return Mono.empty();
+                }))
+                .doOnSubscribe(subscription -> fetchRetry.requested())
+                .doOnError(PageFetchException.class, e -> {
+                    log("✖ Page " + page + " (size " + size + ") failed for good: " + e.getMessage());
+                    metrics.deadLettered(e.failure());
+                    deadLetters.add(requestBody, filter, page, size, sort, e);
+                });
+    }
+
+    private static String rejectedToken(WebClientResponseException ex) {
+        String header = ex.getRequest() == null ? null : ex.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        return header == null ? "" : header.substring(header.indexOf(' ') + 1);
+    }
+
+    public void flushPartialCsv() {
+        try {
+            if (activeJournals.isEmpty()) {
+                System.out.println("No active export, nothing to flush.");
                 return;
             }
 
-            Path path = Paths.get("export/shutdown_save.csv");
-            Files.createDirectories(path.getParent());
-            Files.write(path, snapshot, StandardCharsets.UTF_8);
-
-            System.out.println("✔ Shutdown autosave complete: " + path.toAbsolutePath());
+            for (ExportJournal journal : activeJournals) {
+                journal.commit();
+                System.out.println("✔ Shutdown autosave complete: " + journal.committedRows() + " rows committed in "
+                        + journal.dir().toAbsolutePath() + ", resume from record " + journal.nextOffset());
+            }
 
         } catch (Exception e) {
             System.err.println("❌ Failed to flush CSV on shutdown: " + e.getMessage());
@@ -484,7 +1208,7 @@ public class Parser {
     }
 
 
-    private static void log(String s) {
+    static void log(String s) {
         System.out.println("[BERKUT] " + s);
     }
 }
\ No newline at end of file
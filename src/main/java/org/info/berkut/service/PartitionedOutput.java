@@ -0,0 +1,365 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Splits an export into one directory per day of {@code statusDatetime}, optionally one per checkpoint below that
+ * ({@code day=2024-01-01/checkpoint=%D0%A5.../}), in the layout Spark, DuckDB and friends read as hive partitions.
+ * Every partition rolls over to a new {@code part-NNNNN.csv} (each with the header) once a part reaches about
+ * {@code partBytes}.
+ * <p>
+ * One thread reads the CSV with {@link CsvFormat.RecordReader}, so rows stay whole and escaped, and hands batches
+ * of them to a pool of writers; a partition always goes to the same writer, so its parts keep the order of the
+ * input. Only the {@value #MAX_OPEN_PARTS} most recently written partitions keep a part open: when another one
+ * starts, the partition used longest ago gets its pending rows written and its part closed, and should more of
+ * its rows come later they go to a new part. An export in time order thus holds the partitions of about one day
+ * open, however many days it spans.
+ * <p>
+ * {@code manifest.json} lists every part with its row count, size and SHA-256, and is written last: a directory
+ * without one is incomplete. The parts are built in a temporary directory that replaces the previous one when done.
+ */
+public final class PartitionedOutput {
+
+    /**
+     * How rows are split; {@code none} (or blank) means not at all and gives {@code null}.
+     */
+    public enum Scheme {
+        DAY,
+        DAY_CHECKPOINT;
+
+        public static Scheme of(String name) {
+            return switch (name == null ? "" : name.trim().toLowerCase(Locale.ROOT)) {
+                case "", "none" -> null;
+                case "day" -> DAY;
+                case "day-checkpoint", "day_checkpoint" -> DAY_CHECKPOINT;
+                default -> throw new IllegalArgumentException("Unknown partitioning: " + name + " (day, day-checkpoint or none)");
+            };
+        }
+    }
+
+    /**
+     * One file of a partition; {@code file} is relative to the output directory.
+     */
+    public record Part(String partition, String file, long rows, long bytes, String sha256) {
+    }
+
+    public record Manifest(String source, String scheme, long rows, long bytes, List<Part> parts, String createdAt) {
+    }
+
+    public static final String MANIFEST = "manifest.json";
+    private static final int BATCH = 1024;
+    private static final int ROLL_CHECK_LINES = 32;
+    // batches queued per writer before the reader waits
+    private static final int QUEUED_PER_WRITER = 8;
+    static final int MAX_OPEN_PARTS = 64;
+    private static final int PART_BUFFER = 32 * 1024;
+
+    private final Path dir;
+    private final String header;
+    private final int dateColumn;
+    private final int checkpointColumn;
+    private final long partBytes;
+
+    private final ExecutorService[] writers;
+    private final Semaphore queued;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    // touched by the reading thread only
+    private final Map<String, Partition> partitions = new HashMap<>();
+    // the partitions with a part open, the one written longest ago first
+    private final Map<String, Partition> open = new LinkedHashMap<>(16, 0.75f, true);
+
+    private PartitionedOutput(Path dir, String header, Scheme scheme, long partBytes, int writers) {
+        this.dir = dir;
+        this.header = header;
+        List<String> columns = Arrays.asList(header.split("\\|", -1));
+        this.dateColumn = columns.indexOf("date");
+        this.checkpointColumn = scheme == Scheme.DAY_CHECKPOINT ? columns.indexOf("checkpoint") : -1;
+        if (dateColumn < 0 || scheme == Scheme.DAY_CHECKPOINT && checkpointColumn < 0) {
+            throw new IllegalArgumentException("Header has no column to partition " + scheme + " on");
+        }
+        this.partBytes = partBytes;
+        this.writers = new ExecutorService[writers];
+        for (int i = 0; i < writers; i++) {
+            int index = i;
+            this.writers[i] = Executors.newSingleThreadExecutor(task -> new Thread(task, "part-writer-" + index));
+        }
+        this.queued = new Semaphore(writers * QUEUED_PER_WRITER);
+    }
+
+    /**
+     * Writes the rows of {@code csv} into partitions under {@code dir}, replacing what was there.
+     */
+    public static Manifest write(Path csv, Path dir, Scheme scheme, long partBytes, int writers, ObjectMapper mapper) {
+        long start = System.nanoTime();
+        Path tmp = dir.resolveSibling(dir.getFileName() + ".tmp");
+        List<Part> parts = new ArrayList<>();
+        try {
+            ExportJournal.deleteRecursively(tmp);
+            Files.createDirectories(tmp);
+            try (CsvFormat.RecordReader reader = new CsvFormat.RecordReader(csv)) {
+                String header = reader.next();
+                if (header == null) {
+                    throw new IllegalArgumentException(csv + " has no header");
+                }
+                PartitionedOutput output = new PartitionedOutput(tmp, header, scheme, partBytes, Math.max(1, writers));
+                try {
+                    String line;
+                    while ((line = reader.next()) != null) {
+                        output.add(line);
+                    }
+                    parts.addAll(output.finish());
+                } finally {
+                    output.shutdown();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot partition " + csv + " into " + tmp, e);
+        }
+
+        parts.sort(Comparator.comparing(Part::file));
+        Manifest manifest = new Manifest(csv.getFileName().toString(), scheme.name(),
+                parts.stream().mapToLong(Part::rows).sum(), parts.stream().mapToLong(Part::bytes).sum(),
+                parts, Instant.now().toString());
+        writeManifest(tmp, mapper, manifest);
+        try {
+            ExportJournal.deleteRecursively(dir);
+            Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replace " + dir + " with " + tmp, e);
+        }
+        Parser.log("Partitioned " + manifest.rows() + " rows into " + parts.size() + " parts under " + dir + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return manifest;
+    }
+
+    // -----------------------------
+    // ROUTING
+    // -----------------------------
+    private void add(String line) throws IOException {
+        String name = partitionOf(line);
+        Partition partition = partitions.get(name);
+        if (partition == null) {
+            partition = new Partition(name, writers[Math.floorMod(name.hashCode(), writers.length)]);
+            partitions.put(name, partition);
+        }
+        if (open.put(name, partition) == null && open.size() > MAX_OPEN_PARTS) {
+            Iterator<Partition> eldest = open.values().iterator();
+            Partition closing = eldest.next();
+            eldest.remove();
+            closing.submit();
+            closing.close();
+        }
+        partition.batch.add(line);
+        if (partition.batch.size() == BATCH) {
+            partition.submit();
+        }
+    }
+
+    private String partitionOf(String line) {
+        OffsetDateTime time = TimeWindow.parse(CsvFormat.field(line, dateColumn), ZoneOffset.UTC);
+        // the day as the crossing was recorded, in the offset of the timestamp itself
+        String name = "day=" + (time == null ? "unknown" : time.toLocalDate().toString());
+        if (checkpointColumn >= 0) {
+            name += "/checkpoint=" + directoryName(CsvFormat.field(line, checkpointColumn));
+        }
+        return name;
+    }
+
+    /**
+     * ASCII letters, digits, '-' and '_' are kept, everything else is escaped as %XX of its UTF-8 bytes, the way
+     * hive partition values are; the names stay portable whatever the file system encoding is.
+     */
+    static String directoryName(String value) {
+        String name = URLEncoder.encode(value.strip(), StandardCharsets.UTF_8)
+                .replace("+", "%20").replace(".", "%2E").replace("*", "%2A");
+        return name.isEmpty() ? "unknown" : name;
+    }
+
+    private List<Part> finish() throws IOException {
+        for (Partition partition : open.values()) {
+            partition.submit();
+            partition.close();
+        }
+        for (ExecutorService writer : writers) {
+            writer.shutdown();
+        }
+        try {
+            for (ExecutorService writer : writers) {
+                while (!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+                    Parser.log("Waiting for the part writers...");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing parts", e);
+        }
+        rethrow();
+        List<Part> parts = new ArrayList<>();
+        partitions.values().forEach(partition -> parts.addAll(partition.parts));
+        return parts;
+    }
+
+    private void shutdown() {
+        for (ExecutorService writer : writers) {
+            writer.shutdownNow();
+        }
+    }
+
+    private void rethrow() throws IOException {
+        Throwable error = failure.get();
+        if (error instanceof IOException io) throw io;
+        if (error instanceof UncheckedIOException io) throw io.getCause();
+        if (error instanceof RuntimeException runtime) throw runtime;
+        if (error != null) throw new IOException("Cannot write parts", error);
+    }
+
+    /**
+     * Runs {@code task} on the writer of a partition, waiting while too many batches are queued.
+     */
+    private void submit(ExecutorService writer, IoTask task) throws IOException {
+        rethrow();
+        try {
+            queued.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing a batch", e);
+        }
+        writer.execute(() -> {
+            try {
+                if (failure.get() == null) {
+                    task.run();
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                queued.release();
+            }
+        });
+    }
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    // -----------------------------
+    // PARTITIONS
+    // -----------------------------
+
+    /**
+     * The reading thread fills {@code batch}; everything else is only touched on the partition's writer.
+     */
+    private final class Partition {
+
+        private final String name;
+        private final ExecutorService writer;
+        private List<String> batch = new ArrayList<>(BATCH);
+        private final List<Part> parts = new ArrayList<>();
+        private CsvWriter part;
+
+        Partition(String name, ExecutorService writer) {
+            this.name = name;
+            this.writer = writer;
+        }
+
+        void submit() throws IOException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<String> lines = batch;
+            batch = new ArrayList<>(BATCH);
+            PartitionedOutput.this.submit(writer, () -> append(lines));
+        }
+
+        void close() throws IOException {
+            PartitionedOutput.this.submit(writer, this::closePart);
+        }
+
+        private void append(List<String> lines) throws IOException {
+            // a few lines at a time, so a part ends close to partBytes
+            for (int from = 0; from < lines.size(); from += ROLL_CHECK_LINES) {
+                if (part == null) {
+                    Path file = dir.resolve(name).resolve("part-%05d.csv".formatted(parts.size()));
+                    Files.createDirectories(file.getParent());
+                    part = new CsvWriter(file, header, PART_BUFFER);
+                }
+                part.append(lines.subList(from, Math.min(lines.size(), from + ROLL_CHECK_LINES)));
+                if (part.bytes() >= partBytes) {
+                    closePart();
+                }
+            }
+        }
+
+        private void closePart() throws IOException {
+            if (part == null) {
+                return;
+            }
+            part.close();
+            ExportResult result = part.result();
+            part = null;
+            parts.add(new Part(name, dir.relativize(result.path()).toString().replace('\\', '/'),
+                    result.rows(), result.bytes(), sha256(result.path())));
+        }
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeManifest(Path dir, ObjectMapper mapper, Manifest manifest) {
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(manifest)));
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write manifest in " + dir, e);
+        }
+        try {
+            Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot commit manifest in " + dir, e);
+        }
+    }
+}
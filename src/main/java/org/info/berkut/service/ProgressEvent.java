@@ -0,0 +1,39 @@
+package org.info.berkut.service;
+
+/**
+ * One progress report of an export. Totals and the ETA are -1 while they are not known yet; {@code pagesTotal}
+ * is an estimate when the page size changes during the export. Rates are per second, {@code bytes} counts CSV output.
+ */
+public record ProgressEvent(long pagesDone, long pagesTotal, long records, long recordsTotal,
+                            long rows, long bytes, double rowsPerSecond, double bytesPerSecond,
+                            long etaSeconds, long elapsedSeconds, boolean done) {
+
+    /**
+     * Share of the expected records fetched so far (0..1), or -1 while the total is unknown.
+     */
+    public double fraction() {
+        return recordsTotal <= 0 ? (done ? 1 : -1) : Math.min(1.0, (double) records / recordsTotal);
+    }
+
+    ProgressEvent finished() {
+        return new ProgressEvent(pagesDone, pagesTotal, records, recordsTotal, rows, bytes, rowsPerSecond,
+                bytesPerSecond, 0, elapsedSeconds, true);
+    }
+
+    /**
+     * One line for people: {@code Page 120/500 · 24000 rows · 850 rows/s · 1.2 MB/s · ETA 00:07:26}.
+     */
+    public String summary() {
+        StringBuilder line = new StringBuilder("Page ").append(pagesDone);
+        if (pagesTotal >= 0) {
+            line.append('/').append(pagesTotal);
+        }
+        line.append(" · ").append(rows).append(" rows · ")
+                .append(Math.round(rowsPerSecond)).append(" rows/s · ")
+                .append(String.format("%.1f MB/s", bytesPerSecond / (1024 * 1024)));
+        if (etaSeconds >= 0 && !done) {
+            line.append(String.format(" · ETA %02d:%02d:%02d", etaSeconds / 3600, etaSeconds / 60 % 60, etaSeconds % 60));
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,53 @@
+package org.info.berkut.service;
+
+/**
+ * Caps retries at a fraction of the requests, across all fetchers.
+ * <p>
+ * Every first attempt deposits {@code ratio} tokens, every retry takes one; on top of that the budget refills at
+ * {@code minPerSecond}, so a handful of failures still gets retried when little is going on. An empty budget does
+ * not drop the retry, it returns how long to wait until a token is there: retries queue up at the refill rate
+ * instead of piling onto an upstream that is already failing.
+ */
+public class RetryBudget {
+
+    private final double ratio;
+    private final double minPerSecond;
+    private final double capacity;
+
+    private double balance;
+    private long refilledAt = System.nanoTime();
+
+    public RetryBudget(double ratio, double minPerSecond) {
+        this.ratio = ratio;
+        this.minPerSecond = Math.max(0.01, minPerSecond);
+        // enough for a burst of failures right after start, not enough to save up for a retry storm
+        this.capacity = Math.max(10, this.minPerSecond * 10);
+        this.balance = capacity;
+    }
+
+    public synchronized void deposit() {
+        refill();
+        balance = Math.min(capacity, balance + ratio);
+    }
+
+    /**
+     * Takes a token for one retry; returns how many milliseconds the retry has to wait for it.
+     */
+    public synchronized long withdraw() {
+        refill();
+        balance -= 1;
+        // a negative balance is the queue of retries already waiting for tokens
+        return balance >= 0 ? 0 : (long) Math.ceil(-balance / minPerSecond * 1000);
+    }
+
+    public synchronized double balance() {
+        refill();
+        return balance;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        balance = Math.min(capacity, balance + (now - refilledAt) / 1e9 * minPerSecond);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,409 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token-level decoder for crossing-fact pages.
+ * <p>
+ * Walks the response with a {@link JsonParser}, keeps only the scalar values that end up in a column
+ * (one slot per JSON path) and writes each row straight into a reusable {@link StringBuilder}.
+ * Unused sub-trees are skipped without being materialised. Output is identical to
+ * {@link TreePageDecoder#processPageData}, including its handling of nulls, the literal string
+ * {@code "null"}, containers where a scalar is expected and number formatting.
+ */
+public class StreamingPageDecoder implements PageDecoder {
+
+    // column sources that are not a plain slot
+    private static final int EMPTY = -1;
+    private static final int NAME_LATIN = -2;
+    private static final int NAME_CYRILLIC = -3;
+    private static final int NAME_ORIGINAL = -4;
+
+    private static final List<String> PATHS = new ArrayList<>();
+    private static final Node ROOT = new Node();
+
+    private static final int SURNAME_EN = slot("document.surnameEn");
+    private static final int GIVEN_NAME_EN = slot("document.givenNameEn");
+    private static final int FATHERS_NAME_EN = slot("document.fathersNameEn");
+    private static final int SURNAME_RU = slot("document.surnameRu");
+    private static final int GIVEN_NAME_RU = slot("document.givenNameRu");
+    private static final int FATHERS_NAME_RU = slot("document.fathersNameRu");
+    private static final int SURNAME_ORIGIN = slot("document.surnameOrigin");
+    private static final int GIVEN_NAME_ORIGIN = slot("document.givenNameOrigin");
+    private static final int FATHERS_NAME_ORIGIN = slot("document.fathersNameOrigin");
+
+    // same order as the HEADER columns
+    private static final int[] COLUMNS = {
+            slot("id"),
+            NAME_LATIN,
+            NAME_CYRILLIC,
+            NAME_ORIGINAL,
+            slot("document.gender"),
+            slot("document.birthDate"),
+            slot("citizenCountry.valueRu"),
+            slot("document.iin"),
+            slot("document.personalNumber"),
+            slot("refusePhotoReason.valueRu"),
+            slot("statusValue"),
+            slot("deathDate"),
+            slot("deathCountry.valueRu"),
+            slot("deathRegistrationPlace"),
+            slot("deathAdditionalInfo"),
+            slot("document.documentNumber"),
+            slot("document.documentType.valueRu"),
+            slot("document.beginDate"),
+            slot("document.endDate"),
+            slot("document.issueCountry.valueRu"),
+            slot("document.issueAuthority"),
+            slot("violationsInfo.decisionInfo.valueRu"),
+            slot("violationsInfo.decisionDate"),
+            slot("violationsInfo.additionalInfo"),
+            slot("statusDatetime"),
+            slot("detentionInfo.detentionPlace"),
+            slot("detentionInfo.policeSquad"),
+            slot("detentionInfo.decisionMakingBody.valueRu"),
+            slot("detentionInfo.decisionMakingAuthority"),
+            slot("birthPlace"),
+            slot("residencePlace"),
+            slot("workPlace"),
+            slot("familyInfo"),
+            slot("training"),
+            EMPTY,
+            slot("checkpoint.valueRu"),
+            slot("checkpoint.valueRu"),
+            slot("tripPurpose.valueRu"),
+            slot("trip.crossingFactTypeValue"),
+            slot("trip.directionTypeValue"),
+            slot("trip.fromDestinationCountry.valueRu"),
+            slot("trip.fromDestinationData"),
+            slot("trip.toDestinationCountry.valueRu"),
+            slot("trip.toDestinationData"),
+            slot("id"),
+            slot("createdDatetime"),
+            slot("userInfo.fullName"),
+            slot("source.valueRu"),
+            slot("deviceSerialNumber"),
+            slot("status"),
+            slot("trip.tripNumber"),
+            slot("trip.ownerCountry.valueRu"),
+            slot("trip.tripClass.valueRu"),
+            slot("trip.tripType.valueRu"),
+            slot("trip.transportNumber"),
+            slot("trip.actualDatetime"),
+            EMPTY,
+            EMPTY,
+            slot("trip.trailerNumber"),
+            slot("trip.brand.valueRu"),
+            slot("trip.colorInfo.valueRu"),
+            slot("trip.ownerCountry.valueRu"),
+            slot("trip.shipName"),
+            slot("trip.portName"),
+            EMPTY,
+            EMPTY,
+            slot("crossingFactVisa.frequency.valueRu"),
+            slot("crossingFactVisa.category.valueRu"),
+            slot("crossingFactVisa.type.valueRu"),
+            slot("crossingFactVisa.number"),
+            slot("crossingFactVisa.beginDate"),
+            slot("crossingFactVisa.endDate"),
+            EMPTY,
+            slot("document.iin"),
+            EMPTY,
+            EMPTY,
+            EMPTY
+    };
+
+    private static final int STATUS_DATETIME = slot("statusDatetime");
+
+    static {
+        ROOT.collectSlots();
+    }
+
+    private final ObjectMapper mapper;
+    private final JsonFactory factory;
+
+    public StreamingPageDecoder(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.factory = mapper.getFactory();
+    }
+
+    @Override
+    public DecodedPage decode(InputStream body, ExportFilter filter) throws IOException {
+        JsonNode pageInfo = MissingNode.getInstance();
+        List<String> rows = new ArrayList<>();
+        List<String> statusDatetimes = new ArrayList<>();
+        Items items = new Items();
+
+        try (JsonParser parser = factory.createParser(body)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    JsonToken token = parser.nextToken();
+                    if ("page".equals(name)) {
+                        // tiny object, read as a tree so the totals follow the same rules as the tree decoder
+                        JsonNode node = mapper.readTree(parser);
+                        pageInfo = node == null ? MissingNode.getInstance() : node;
+                    } else if ("_embedded".equals(name)) {
+                        rows.clear();
+                        statusDatetimes.clear();
+                        items = new Items();
+                        if (token == JsonToken.START_OBJECT) {
+                            readEmbedded(parser, filter, rows, statusDatetimes, items);
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+
+        if (items.count == 0) {
+            Parser.log("Warning: Page has no items");
+        }
+        return new DecodedPage(pageInfo.path("totalPages").asInt(1), pageInfo.path("totalElements").asLong(0),
+                rows, statusDatetimes, items.count, items.lastStatusDatetime);
+    }
+
+    /**
+     * Items of the {@code content} array, whether they passed the filter or not.
+     */
+    private static final class Items {
+        int count;
+        String lastStatusDatetime = "";
+    }
+
+    /**
+     * Reads {@code _embedded}, adding the rows of the items in its {@code content} array that pass {@code filter}.
+     */
+    private void readEmbedded(JsonParser parser, ExportFilter filter, List<String> rows, List<String> statusDatetimes,
+                              Items items) throws IOException {
+        String[] slots = new String[PATHS.size()];
+        StringBuilder row = new StringBuilder(1024);
+        SlotRow columns = new SlotRow(slots);
+        boolean filtering = filter.filtersRows();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if (!"content".equals(name)) {
+                parser.skipChildren();
+                continue;
+            }
+
+            rows.clear();
+            statusDatetimes.clear();
+            items.count = 0;
+            items.lastStatusDatetime = "";
+            if (token != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                Arrays.fill(slots, "");
+                if (token == JsonToken.START_OBJECT) {
+                    readObject(parser, ROOT, slots);
+                } else {
+                    parser.skipChildren();
+                }
+                items.count++;
+                items.lastStatusDatetime = slots[STATUS_DATETIME];
+                if (filtering && !filter.test(columns)) {
+                    continue;
+                }
+                rows.add(writeRow(slots, row));
+                statusDatetimes.add(slots[STATUS_DATETIME]);
+            }
+        }
+    }
+
+    /**
+     * The column values of the item in {@code slots}, as the filter sees them; names are only joined when asked for.
+     */
+    private static final class SlotRow implements ExportFilter.Row {
+
+        private final String[] slots;
+        private final StringBuilder name = new StringBuilder();
+
+        SlotRow(String[] slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public String column(int index) {
+            int source = COLUMNS[index];
+            if (source >= 0) {
+                return slots[source];
+            }
+            name.setLength(0);
+            if (source == NAME_LATIN) {
+                appendName(name, slots[GIVEN_NAME_EN], slots[SURNAME_EN], slots[FATHERS_NAME_EN]);
+            } else if (source == NAME_CYRILLIC) {
+                appendName(name, slots[GIVEN_NAME_RU], slots[SURNAME_RU], slots[FATHERS_NAME_RU]);
+            } else if (source == NAME_ORIGINAL) {
+                appendName(name, slots[GIVEN_NAME_ORIGIN], slots[SURNAME_ORIGIN], slots[FATHERS_NAME_ORIGIN]);
+            }
+            return name.toString();
+        }
+    }
+
+    /**
+     * The JSON path a CSV column is read from, or {@code null} for the empty and the derived (name) columns.
+     */
+    static String sourcePath(int column) {
+        int source = COLUMNS[column];
+        return source >= 0 ? PATHS.get(source) : null;
+    }
+
+    /**
+     * Reads the object the parser is positioned on, capturing the fields that are in the trie.
+     */
+    private void readObject(JsonParser parser, Node node, String[] slots) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Node child = node.children.get(parser.currentName());
+            JsonToken token = parser.nextToken();
+            if (child == null) {
+                parser.skipChildren();
+                continue;
+            }
+
+            // a repeated key replaces the earlier value, as it would in the tree
+            for (int s : child.subtreeSlots) {
+                slots[s] = "";
+            }
+
+            if (token == JsonToken.START_OBJECT) {
+                if (child.children.isEmpty()) {
+                    parser.skipChildren();
+                } else {
+                    readObject(parser, child, slots);
+                }
+            } else if (token == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+            } else if (child.slot >= 0) {
+                slots[child.slot] = scalarText(parser, token);
+            }
+        }
+    }
+
+    /**
+     * Mirrors {@code JsonNode.asText("")} for the node the tree decoder would have built,
+     * followed by its {@code "null"} check.
+     */
+    private static String scalarText(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING: {
+                String text = parser.getText();
+                return text.equals("null") ? "" : text;
+            }
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                        return Integer.toString(parser.getIntValue());
+                    case LONG:
+                        return Long.toString(parser.getLongValue());
+                    default:
+                        return parser.getBigIntegerValue().toString();
+                }
+            case VALUE_NUMBER_FLOAT:
+                return Double.toString(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return "true";
+            case VALUE_FALSE:
+                return "false";
+            default:
+                return "";
+        }
+    }
+
+    private static String writeRow(String[] slots, StringBuilder row) {
+        row.setLength(0);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                row.append('|');
+            }
+            int source = COLUMNS[i];
+            int start = row.length();
+            if (source >= 0) {
+                row.append(slots[source]);
+            } else if (source == NAME_LATIN) {
+                appendName(row, slots[GIVEN_NAME_EN], slots[SURNAME_EN], slots[FATHERS_NAME_EN]);
+            } else if (source == NAME_CYRILLIC) {
+                appendName(row, slots[GIVEN_NAME_RU], slots[SURNAME_RU], slots[FATHERS_NAME_RU]);
+            } else if (source == NAME_ORIGINAL) {
+                appendName(row, slots[GIVEN_NAME_ORIGIN], slots[SURNAME_ORIGIN], slots[FATHERS_NAME_ORIGIN]);
+            }
+            CsvFormat.escapeFrom(row, start);
+        }
+        return row.toString();
+    }
+
+    /**
+     * Same as {@link TreePageDecoder#formatName} without the intermediate list.
+     */
+    private static void appendName(StringBuilder row, String given, String surname, String fathers) {
+        int start = row.length();
+        appendNamePart(row, start, surname);
+        appendNamePart(row, start, given);
+        appendNamePart(row, start, fathers);
+    }
+
+    private static void appendNamePart(StringBuilder row, int start, String part) {
+        if (part.isEmpty()) {
+            return;
+        }
+        if (row.length() > start) {
+            row.append(' ');
+        }
+        row.append(part);
+    }
+
+    // -----------------------------
+    // PATH TRIE
+    // -----------------------------
+    private static int slot(String path) {
+        int existing = PATHS.indexOf(path);
+        if (existing >= 0) {
+            return existing;
+        }
+        PATHS.add(path);
+        Node node = ROOT;
+        for (String field : path.split("\\.")) {
+            node = node.children.computeIfAbsent(field, f -> new Node());
+        }
+        node.slot = PATHS.size() - 1;
+        return node.slot;
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        int slot = -1;
+        int[] subtreeSlots = new int[0];
+
+        int[] collectSlots() {
+            List<Integer> all = new ArrayList<>();
+            if (slot >= 0) {
+                all.add(slot);
+            }
+            for (Node child : children.values()) {
+                for (int s : child.collectSlots()) {
+                    all.add(s);
+                }
+            }
+            subtreeSlots = all.stream().mapToInt(Integer::intValue).toArray();
+            return subtreeSlots;
+        }
+    }
+}
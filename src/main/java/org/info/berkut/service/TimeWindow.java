@@ -0,0 +1,99 @@
+package org.info.berkut.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An inclusive {@code statusDatetime} range, kept in the textual form that is sent to the search API.
+ * Adjacent windows produced by {@link #split} and {@link #halves} end one millisecond before the next one
+ * starts, so together they cover exactly the original range.
+ */
+public record TimeWindow(String from, String to) {
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+    public OffsetDateTime start() {
+        return OffsetDateTime.parse(from, FORMAT);
+    }
+
+    public OffsetDateTime end() {
+        return OffsetDateTime.parse(to, FORMAT);
+    }
+
+    public Duration length() {
+        return Duration.between(start(), end());
+    }
+
+    static String format(OffsetDateTime time) {
+        return FORMAT.format(time);
+    }
+
+    /**
+     * Parses a timestamp as the server returns it; values without an offset are taken in {@code fallback}.
+     * Returns {@code null} for anything that is not a timestamp.
+     */
+    static OffsetDateTime parse(String text, ZoneOffset fallback) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(text, FORMAT);
+        } catch (DateTimeParseException e) {
+            try {
+                return LocalDateTime.parse(text).atOffset(fallback);
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Cuts [from, to] at every {@code unit} boundary (days or hours in the offset of {@code from}).
+     */
+    public static List<TimeWindow> split(String from, String to, ChronoUnit unit) {
+        TimeWindow whole = new TimeWindow(from, to);
+        OffsetDateTime end = whole.end();
+        OffsetDateTime cursor = whole.start();
+
+        List<TimeWindow> windows = new ArrayList<>();
+        String currentFrom = from;
+        while (true) {
+            OffsetDateTime next = cursor.truncatedTo(unit).plus(1, unit);
+            if (next.isAfter(end)) {
+                break;
+            }
+            windows.add(new TimeWindow(currentFrom, FORMAT.format(next.minus(1, ChronoUnit.MILLIS))));
+            cursor = next;
+            currentFrom = FORMAT.format(next);
+        }
+        windows.add(new TimeWindow(currentFrom, to));
+        return windows;
+    }
+
+    /**
+     * Splits the window into two adjacent halves at a whole second. A window with no whole second after its start
+     * and before its middle cannot be split and comes back as the only element.
+     */
+    public List<TimeWindow> halves() {
+        OffsetDateTime start = start();
+        OffsetDateTime middle = start.plus(length().dividedBy(2)).truncatedTo(ChronoUnit.SECONDS);
+        if (!middle.isAfter(start)) {
+            return List.of(this);
+        }
+        return List.of(
+                new TimeWindow(from, FORMAT.format(middle.minus(1, ChronoUnit.MILLIS))),
+                new TimeWindow(FORMAT.format(middle), to));
+    }
+
+    @Override
+    public String toString() {
+        return "[" + from + " .. " + to + "]";
+    }
+}
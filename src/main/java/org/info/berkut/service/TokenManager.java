@@ -0,0 +1,289 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Owns the auth session: the session cookies and the access token with its expiry.
+ * <p>
+ * {@link #token()} answers from the cache while the token is valid and starts a background refresh once it
+ * gets close to {@code expires_in}. A refresh uses the refresh_token grant when the server issued one and falls
+ * back to the full three-step login otherwise. All callers share a single in-flight refresh.
+ */
+@Component
+@RequiredArgsConstructor
+public class TokenManager {
+
+    private static final String UA = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 Chrome";
+
+    private final WebClient webClient;
+    private final ExportMetrics metrics;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Value("${berkut.base-url:https://center.berkut}")
+    private String baseUrl;
+
+    @Value("${berkut.secure.login}")
+    private String username;
+
+    @Value("${berkut.secure.password}")
+    private String password;
+
+    @Value("${berkut.client.id:acme}")
+    private String clientId;
+
+    @Value("${berkut.client.secret:acmesecret}")
+    private String clientSecret;
+
+    @Value("${berkut.redirect-uri:https://center.berkut/app/ru/}")
+    private String redirectUri;
+
+    // refresh this long before the token expires
+    @Value("${berkut.token.refresh-skew-seconds:60}")
+    private long refreshSkewSeconds;
+
+    private volatile String sessionCookie = "";
+    private volatile TokenState state;
+    private final AtomicReference<Mono<String>> inFlight = new AtomicReference<>();
+
+    private record TokenState(String accessToken, String refreshToken, Instant expiresAt) {
+    }
+
+    // -----------------------------
+    // PUBLIC API
+    // -----------------------------
+
+    /**
+     * A valid access token; only waits when there is no usable token at all.
+     */
+    public Mono<String> token() {
+        return Mono.defer(() -> {
+            TokenState current = state;
+            Instant now = Instant.now();
+            if (current == null || !now.isBefore(current.expiresAt())) {
+                return refresh();
+            }
+            if (!now.isBefore(current.expiresAt().minusSeconds(refreshSkewSeconds))) {
+                refresh().subscribe(t -> {}, e -> Parser.log("Proactive token refresh failed: " + e.getMessage()));
+            }
+            return Mono.just(current.accessToken());
+        });
+    }
+
+    /**
+     * Called when the server rejected {@code rejectedToken}. Only the first caller for a given token
+     * triggers a refresh; the others get the token that replaced it.
+     */
+    public Mono<String> invalidate(String rejectedToken) {
+        return Mono.defer(() -> {
+            TokenState current = state;
+            if (current != null && !current.accessToken().equals(rejectedToken)) {
+                return Mono.just(current.accessToken());
+            }
+            return refresh();
+        });
+    }
+
+    public String sessionCookie() {
+        return sessionCookie;
+    }
+
+    // -----------------------------
+    // SINGLE-FLIGHT REFRESH
+    // -----------------------------
+    private Mono<String> refresh() {
+        while (true) {
+            Mono<String> running = inFlight.get();
+            if (running != null) {
+                return running;
+            }
+            Sinks.One<String> sink = Sinks.one();
+            Mono<String> shared = sink.asMono();
+            if (!inFlight.compareAndSet(null, shared)) {
+                continue;
+            }
+            TokenState current = state;
+            String[] grant = {current != null && current.refreshToken() != null ? "refresh_token" : "login"};
+            Mono<TokenState> attempt = grant[0].equals("refresh_token")
+                    ? refreshWithToken(current.refreshToken())
+                    .onErrorResume(e -> {
+                        Parser.log("Refresh token rejected (" + e.getMessage() + ") — logging in again");
+                        metrics.reauthenticated(grant[0], false);
+                        grant[0] = "login";
+                        return authenticate();
+                    })
+                    : authenticate();
+
+            attempt.subscribe(
+                    next -> {
+                        state = next;
+                        inFlight.set(null);
+                        metrics.reauthenticated(grant[0], true);
+                        sink.tryEmitValue(next.accessToken());
+                    },
+                    e -> {
+                        inFlight.set(null);
+                        metrics.reauthenticated(grant[0], false);
+                        sink.tryEmitError(e);
+                    });
+            return shared;
+        }
+    }
+
+    // -----------------------------
+    // LOGIN
+    // -----------------------------
+    private Mono<TokenState> authenticate() {
+        StringBuilder cookies = new StringBuilder();
+        Parser.log("=== STEP 0: GET /auth-service/login ===");
+        return fetchLoginPage(cookies)
+                .then(Mono.defer(() -> {
+                    Parser.log("=== STEP 1: POST /auth-service/login → get code ===");
+                    return submitLoginForm(cookies);
+                }))
+                .flatMap(code -> {
+                    Parser.log("AUTH CODE = " + code);
+                    Parser.log("=== STEP 2: POST /oauth/token → get access_token ===");
+                    return exchangeCodeForToken(code, cookies.toString());
+                })
+                .doOnNext(token -> sessionCookie = cookies.toString());
+    }
+
+    private Mono<Void> fetchLoginPage(StringBuilder cookies) {
+        return webClient.get()
+                .uri(baseUrl + "/auth-service/login")
+                .header(HttpHeaders.USER_AGENT, UA)
+                .header(HttpHeaders.ACCEPT, "text/html")
+                .exchangeToMono(resp -> {
+                    extractCookies(resp, cookies);
+                    Parser.log("SESSION COOKIE after GET /login: " + cookies);
+                    if (!resp.statusCode().is2xxSuccessful()) {
+                        return Mono.error(new RuntimeException("GET /login failed: " + resp.statusCode()));
+                    }
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<String> submitLoginForm(StringBuilder cookies) {
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("username", username);
+        form.add("password", password);
+        form.add("approve", "on");
+
+        return webClient.post()
+                .uri(baseUrl + "/auth-service/login")
+                .header(HttpHeaders.COOKIE, cookies.toString())
+                .header(HttpHeaders.USER_AGENT, UA)
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .bodyValue(form)
+                .exchangeToMono(resp -> {
+                    extractCookies(resp, cookies);
+                    Parser.log("SESSION after POST /login: " + cookies);
+
+                    List<String> loc = resp.headers().header(HttpHeaders.LOCATION);
+                    if (loc != null && !loc.isEmpty() && loc.get(0).contains("code=")) {
+                        return Mono.just(extractCode(loc.get(0)));
+                    }
+                    return Mono.error(new RuntimeException("Authorization code not found after login!"));
+                });
+    }
+
+    private Mono<TokenState> exchangeCodeForToken(String code, String cookies) {
+        return webClient.post()
+                .uri(baseUrl + "/auth-service/oauth/token")
+                .header(HttpHeaders.COOKIE, cookies)
+                .header(HttpHeaders.AUTHORIZATION, basicAuth())
+                .header(HttpHeaders.CONTENT_TYPE, "application/x-www-form-urlencoded")
+                .header(HttpHeaders.ACCEPT, "application/json")
+                .body(BodyInserters.fromFormData("grant_type", "authorization_code")
+                        .with("scope", "openid")
+                        .with("redirect_uri", redirectUri)
+                        .with("code", code))
+                .retrieve()
+                .bodyToMono(String.class)
+                .map(this::parseToken);
+    }
+
+    private Mono<TokenState> refreshWithToken(String refreshToken) {
+        Parser.log("=== Refreshing access_token with refresh_token ===");
+        return webClient.post()
+                .uri(baseUrl + "/auth-service/oauth/token")
+                .header(HttpHeaders.COOKIE, sessionCookie)
+                .header(HttpHeaders.AUTHORIZATION, basicAuth())
+                .header(HttpHeaders.CONTENT_TYPE, "application/x-www-form-urlencoded")
+                .header(HttpHeaders.ACCEPT, "application/json")
+                .body(BodyInserters.fromFormData("grant_type", "refresh_token")
+                        .with("refresh_token", refreshToken))
+                .retrieve()
+                .bodyToMono(String.class)
+                .map(this::parseToken);
+    }
+
+    private TokenState parseToken(String body) {
+        try {
+            JsonNode json = mapper.readTree(body);
+            String accessToken = json.path("access_token").asText(null);
+            if (accessToken == null) {
+                throw new RuntimeException("No access_token in token response");
+            }
+            // without expires_in the token is kept until the server rejects it
+            Instant expiresAt = json.hasNonNull("expires_in")
+                    ? Instant.now().plus(Duration.ofSeconds(json.path("expires_in").asLong()))
+                    : Instant.MAX;
+            String refreshToken = json.hasNonNull("refresh_token") ? json.path("refresh_token").asText() : null;
+            Parser.log("Token acquired, expires at " + (expiresAt == Instant.MAX ? "unknown" : expiresAt)
+                    + (refreshToken != null ? ", refresh_token available" : ""));
+            return new TokenState(accessToken, refreshToken, expiresAt);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to parse access token", e);
+        }
+    }
+
+    private String basicAuth() {
+        return "Basic " + Base64.getEncoder()
+                .encodeToString((clientId + ":" + clientSecret).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // -----------------------------
+    // COOKIES
+    // -----------------------------
+    private void extractCookies(ClientResponse resp, StringBuilder cookies) {
+        resp.headers().header(HttpHeaders.SET_COOKIE).forEach(c -> {
+            if (c.contains("SESSION=") || c.contains("INGRESSCOOKIE=")) {
+                String clean = c.split(";", 2)[0];
+                if (cookies.indexOf(clean) < 0) {
+                    if (cookies.length() > 0) {
+                        cookies.append("; ");
+                    }
+                    cookies.append(clean);
+                }
+            }
+        });
+    }
+
+    private String extractCode(String loc) {
+        int idx = loc.indexOf("code=");
+        String part = loc.substring(idx + 5);
+        int amp = part.indexOf('&');
+        return amp == -1 ? part : part.substring(0, amp);
+    }
+}
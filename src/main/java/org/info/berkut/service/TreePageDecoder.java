@@ -0,0 +1,197 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reference decoder: reads the whole page into a {@link JsonNode} tree and walks it per column.
+ * Kept selectable via {@code berkut.decoder=tree} and as the baseline the streaming decoder is checked against.
+ */
+public class TreePageDecoder implements PageDecoder {
+
+    private final ObjectMapper mapper;
+
+    public TreePageDecoder(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public DecodedPage decode(InputStream body, ExportFilter filter) throws IOException {
+        JsonNode root = mapper.readTree(body);
+        JsonNode pageInfo = root.path("page");
+
+        List<String> rows = new ArrayList<>();
+        List<String> statusDatetimes = new ArrayList<>();
+        JsonNode items = processPageData(root, filter, rows, statusDatetimes);
+        return new DecodedPage(pageInfo.path("totalPages").asInt(1), pageInfo.path("totalElements").asLong(0),
+                rows, statusDatetimes, items.size(),
+                items.isEmpty() ? "" : getOrEmpty(items.get(items.size() - 1), "statusDatetime"));
+    }
+
+    // -----------------------------
+    // DATA PROCESSING
+    // -----------------------------
+    /**
+     * Adds the rows of the items that pass {@code filter}; returns all the items (empty if there are none).
+     */
+    JsonNode processPageData(JsonNode root, ExportFilter filter, List<String> csvLines, List<String> statusDatetimes) {
+        JsonNode items = root.path("_embedded").path("content");
+
+        if (!items.isArray() || items.size() == 0) {
+            Parser.log("Warning: Page has no items");
+            return mapper.createArrayNode();
+        }
+
+        for (JsonNode item : items) {
+            // Document info
+            JsonNode doc = item.path("document");
+            String surnameEn = getOrEmpty(doc, "surnameEn");
+            String givenNameEn = getOrEmpty(doc, "givenNameEn");
+            String fathersNameEn = getOrEmpty(doc, "fathersNameEn");
+            String surnameRu = getOrEmpty(doc, "surnameRu");
+            String givenNameRu = getOrEmpty(doc, "givenNameRu");
+            String fathersNameRu = getOrEmpty(doc, "fathersNameRu");
+            String surnameOrigin = getOrEmpty(doc, "surnameOrigin");
+            String givenNameOrigin = getOrEmpty(doc, "givenNameOrigin");
+            String fathersNameOrigin = getOrEmpty(doc, "fathersNameOrigin");
+
+            // Trip info
+            JsonNode trip = item.path("trip");
+
+            // Visa info
+            JsonNode visa = item.path("crossingFactVisa");
+
+            String[] values = {
+                    getOrEmpty(item, "id"),
+                    formatName(givenNameEn, surnameEn, fathersNameEn),
+                    formatName(givenNameRu, surnameRu, fathersNameRu),
+                    formatName(givenNameOrigin, surnameOrigin, fathersNameOrigin),
+                    getNestedOrEmpty(doc, "gender"),
+                    getOrEmpty(doc, "birthDate"),
+                    getNestedOrEmpty(item, "citizenCountry", "valueRu"),
+                    getOrEmpty(doc, "iin"),
+                    getOrEmpty(doc, "personalNumber"),
+                    getNestedOrEmpty(item, "refusePhotoReason", "valueRu"),
+                    getOrEmpty(item, "statusValue"),
+                    getOrEmpty(item, "deathDate"),
+                    getNestedOrEmpty(item, "deathCountry", "valueRu"),
+                    getOrEmpty(item, "deathRegistrationPlace"),
+                    getOrEmpty(item, "deathAdditionalInfo"),
+                    getOrEmpty(doc, "documentNumber"),
+                    getNestedOrEmpty(doc, "documentType", "valueRu"),
+                    getOrEmpty(doc, "beginDate"),
+                    getOrEmpty(doc, "endDate"),
+                    getNestedOrEmpty(doc, "issueCountry", "valueRu"),
+                    getOrEmpty(doc, "issueAuthority"),
+                    getNestedOrEmpty(item, "violationsInfo", "decisionInfo", "valueRu"),
+                    getOrEmpty(item, "violationsInfo", "decisionDate"),
+                    getOrEmpty(item, "violationsInfo", "additionalInfo"),
+                    getOrEmpty(item, "statusDatetime"),
+                    getNestedOrEmpty(item, "detentionInfo", "detentionPlace"),
+                    getNestedOrEmpty(item, "detentionInfo", "policeSquad"),
+                    getNestedOrEmpty(item, "detentionInfo", "decisionMakingBody", "valueRu"),
+                    getNestedOrEmpty(item, "detentionInfo", "decisionMakingAuthority"),
+                    getOrEmpty(item, "birthPlace"),
+                    getOrEmpty(item, "residencePlace"),
+                    getOrEmpty(item, "workPlace"),
+                    getOrEmpty(item, "familyInfo"),
+                    getOrEmpty(item, "training"),
+                    "",
+                    getNestedOrEmpty(item, "checkpoint", "valueRu"),
+                    getNestedOrEmpty(item, "checkpoint", "valueRu"),
+                    getNestedOrEmpty(item, "tripPurpose", "valueRu"),
+                    getOrEmpty(trip, "crossingFactTypeValue"),
+                    getOrEmpty(trip, "directionTypeValue"),
+                    getNestedOrEmpty(trip, "fromDestinationCountry", "valueRu"),
+                    getOrEmpty(trip, "fromDestinationData"),
+                    getNestedOrEmpty(trip, "toDestinationCountry", "valueRu"),
+                    getOrEmpty(trip, "toDestinationData"),
+                    getOrEmpty(item, "id"),
+                    getOrEmpty(item, "createdDatetime"),
+                    getOrEmpty(item, "userInfo", "fullName"),
+                    getNestedOrEmpty(item, "source", "valueRu"),
+                    getOrEmpty(item, "deviceSerialNumber"),
+                    getOrEmpty(item, "status"),
+                    getOrEmpty(trip, "tripNumber"),
+                    getNestedOrEmpty(trip, "ownerCountry", "valueRu"),
+                    getNestedOrEmpty(trip, "tripClass", "valueRu"),
+                    getNestedOrEmpty(trip, "tripType", "valueRu"),
+                    getOrEmpty(trip, "transportNumber"),
+                    getOrEmpty(trip, "actualDatetime"),
+                    "",
+                    "",
+                    getOrEmpty(trip, "trailerNumber"),
+                    getNestedOrEmpty(trip, "brand", "valueRu"),
+                    getNestedOrEmpty(trip, "colorInfo", "valueRu"),
+                    getNestedOrEmpty(trip, "ownerCountry", "valueRu"),
+                    getOrEmpty(trip, "shipName"),
+                    getOrEmpty(trip, "portName"),
+                    "",
+                    "",
+                    getNestedOrEmpty(visa, "frequency", "valueRu"),
+                    getNestedOrEmpty(visa, "category", "valueRu"),
+                    getNestedOrEmpty(visa, "type", "valueRu"),
+                    getOrEmpty(visa, "number"),
+                    getOrEmpty(visa, "beginDate"),
+                    getOrEmpty(visa, "endDate"),
+                    "",
+                    getOrEmpty(doc, "iin"),
+                    "",
+                    "",
+                    ""
+            };
+
+            if (!filter.test(column -> values[column])) {
+                continue;
+            }
+            csvLines.add(CsvFormat.join(values));
+            statusDatetimes.add(getOrEmpty(item, "statusDatetime"));
+        }
+        return items;
+    }
+
+    // -----------------------------
+    // HELPERS
+    // -----------------------------
+    static String getOrEmpty(JsonNode node, String... path) {
+        JsonNode current = node;
+        for (String field : path) {
+            if (current == null || current.isNull() || current.isMissingNode()) {
+                return "";
+            }
+            current = current.path(field);
+        }
+
+        if (current.isNull() || current.isMissingNode()) {
+            return "";
+        }
+
+        String value = current.asText("");
+        return value.equals("null") ? "" : value;
+    }
+
+    static String getNestedOrEmpty(JsonNode node, String... path) {
+        return getOrEmpty(node, path);
+    }
+
+    static String formatName(String given, String surname, String fathers) {
+        List<String> parts = new ArrayList<>();
+
+        if (surname != null && !surname.isEmpty() && !surname.equals("null")) {
+            parts.add(surname);
+        }
+        if (given != null && !given.isEmpty() && !given.equals("null")) {
+            parts.add(given);
+        }
+        if (fathers != null && !fathers.isEmpty() && !fathers.equals("null")) {
+            parts.add(fathers);
+        }
+
+        return parts.isEmpty() ? "" : String.join(" ", parts);
+    }
+}
@@ -0,0 +1,48 @@
+package org.info.berkut;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BerkutCliTest {
+
+    @Test
+    void monthsCoverWholeMonths() {
+        BerkutCli.Options options = BerkutCli.Options.parse(new String[]{
+                "--from", "2025-01", "--to", "2025-06", "--out", "backfill", "--filter", "checkpoint=Хоргос"});
+
+        assertEquals("2025-01-01T00:00:00+05:00", options.dateFrom());
+        assertEquals("2025-06-30T23:59:59+05:00", options.dateTo());
+        assertEquals(List.of("checkpoint=Хоргос"), options.filters());
+        assertEquals(1, options.startPage());
+        assertFalse(options.dryRun());
+        assertEquals(Paths.get("backfill", "crossing_facts_2025-01-01_2025-06-30.csv"), options.target());
+    }
+
+    @Test
+    void daysAndTimestamps() {
+        BerkutCli.Options options = BerkutCli.Options.parse(new String[]{
+                "--dry-run", "--from", "2024-02-29", "--to", "2024-03-01T12:00:00Z", "--out", ".", "--offset", "+06:00"});
+
+        assertEquals("2024-02-29T00:00:00+06:00", options.dateFrom());
+        assertEquals("2024-03-01T12:00:00Z", options.dateTo());
+        assertTrue(options.dryRun());
+    }
+
+    @Test
+    void rejectsIncompleteOrUnknownArguments() {
+        for (String[] args : List.of(
+                new String[]{"--from", "2025-01", "--to", "2025-02"},
+                new String[]{"--from", "2025-13", "--to", "2025-02", "--out", "x"},
+                new String[]{"--from", "2025-01", "--to", "2025-02", "--out", "x", "--start-page"},
+                new String[]{"--from", "2025-01", "--to", "2025-02", "--out", "x", "--pages", "3"})) {
+            assertThrows(IllegalArgumentException.class, () -> BerkutCli.Options.parse(args), String.join(" ", args));
+        }
+    }
+}
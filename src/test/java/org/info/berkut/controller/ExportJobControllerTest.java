@@ -0,0 +1,132 @@
+package org.info.berkut.controller;
+
+import org.info.berkut.fake.FakeBerkutServer;
+import org.info.berkut.service.ExportJob;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The job endpoints over HTTP, with the export running against {@link FakeBerkutServer}.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureWebTestClient
+class ExportJobControllerTest {
+
+    private static final int RECORDS = 300;
+
+    private static final FakeBerkutServer server = FakeBerkutServer.start(new FakeBerkutServer.Settings()
+            .records(RECORDS)
+            .credentials("export", "test"));
+    // static, so it is there before the context reads the properties below
+    @TempDir
+    static Path state;
+
+    @DynamicPropertySource
+    static void berkut(DynamicPropertyRegistry registry) {
+        // application.properties takes these from the environment, which a test run need not have
+        registry.add("server.address", () -> "127.0.0.1");
+        registry.add("server.port", () -> "0");
+        registry.add("berkut.base-url", server::baseUrl);
+        registry.add("berkut.secure.login", () -> "export");
+        registry.add("berkut.secure.password", () -> "test");
+        registry.add("berkut.page.size", () -> "100");
+        registry.add("berkut.page.adaptive", () -> "false");
+        registry.add("berkut.journal.dir", () -> state.resolve("journal").toString());
+        registry.add("berkut.dead-letter.file", () -> state.resolve("dead-letters.json").toString());
+        registry.add("berkut.jobs.dir", () -> state.resolve("jobs").toString());
+    }
+
+    @AfterAll
+    static void stop() {
+        server.close();
+    }
+
+    @Autowired
+    private WebTestClient client;
+
+    private static String format(OffsetDateTime time) {
+        return DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(time);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> status(String id) {
+        return client.get().uri("/api/parser/jobs/{id}", id)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Map.class)
+                .returnResult().getResponseBody();
+    }
+
+    private Map<String, Object> awaitFinished(String id) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofMinutes(1).toNanos();
+        Map<String, Object> job = status(id);
+        while (("QUEUED".equals(job.get("status")) || "RUNNING".equals(job.get("status")))
+                && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            job = status(id);
+        }
+        return job;
+    }
+
+    @Test
+    void submitsReportsServesAndDeletesAJob() throws InterruptedException {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> submitted = client.post()
+                .uri(uri -> uri.path("/api/parser/jobs")
+                        .queryParam("dateFrom", "{from}")
+                        .queryParam("dateTo", "{to}")
+                        // expanded values are encoded, so the '+' of the offset survives
+                        .build(format(server.settings().origin()), format(server.settings().last())))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.ACCEPTED)
+                .expectBody(Map.class)
+                .returnResult().getResponseBody();
+        String id = (String) submitted.get("id");
+
+        Map<String, Object> finished = awaitFinished(id);
+        assertEquals(ExportJob.Status.DONE.name(), finished.get("status"));
+        assertEquals(RECORDS, ((Number) finished.get("rows")).intValue());
+
+        String csv = client.get().uri("/api/parser/jobs/{id}/result", id)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .returnResult().getResponseBody();
+        assertEquals(RECORDS + 1, csv.lines().count());
+
+        client.delete().uri("/api/parser/jobs/{id}", id).exchange().expectStatus().isNoContent();
+        client.get().uri("/api/parser/jobs/{id}", id).exchange().expectStatus().isNotFound();
+        client.delete().uri("/api/parser/jobs/{id}", id).exchange().expectStatus().isNotFound();
+        assertTrue(Files.notExists(state.resolve("jobs").resolve(id)));
+    }
+
+    @Test
+    void rejectsABadFilter() {
+        client.post()
+                .uri(uri -> uri.path("/api/parser/jobs")
+                        .queryParam("dateFrom", "{from}")
+                        .queryParam("dateTo", "{to}")
+                        .queryParam("filter", "no criterion")
+                        .build(format(server.settings().origin()), format(server.settings().last())))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+}
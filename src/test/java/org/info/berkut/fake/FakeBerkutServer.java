@@ -0,0 +1,562 @@
+package org.info.berkut.fake;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for {@code center.berkut}: the three-step login, the token endpoint and the paged
+ * crossing-facts search, served by WebFlux on a random local port.
+ * <p>
+ * The search holds {@link Settings#records} synthetic crossings, one every {@link Settings#step} from
+ * {@link Settings#origin}, with ids 1..N in time order. Records are generated from their index on every
+ * request, so the data set costs no memory and every page is reproducible. The {@code statusDatetime BETWEEN}
+ * filter is honoured and results always come sorted by (statusDatetime, id), which is what both the offset and
+ * the keyset paging of the exporter ask for.
+ * <p>
+ * Latency, token lifetime and the rates of injected 401, 429 and 500 responses are read on every request,
+ * so a test may change them while an export is running.
+ */
+public class FakeBerkutServer implements Closeable {
+
+    public static final String SEARCH_PATH = "/pp-center-service/api/crossing-facts/search";
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+    private static final String[] CHECKPOINTS = {"Пункт пропуска Алаш", "Пункт пропуска Жана-Жол",
+            "Пункт пропуска Кордай", "Аэропорт Нурсултан", "Аэропорт Алматы"};
+    private static final String[] COUNTRIES = {"Казахстан", "Россия", "Узбекистан", "Кыргызстан", "Китай", "Турция"};
+    private static final String[] DIRECTIONS = {"Въезд", "Выезд"};
+
+    private final Settings settings;
+    private final DisposableServer server;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory json = mapper.getFactory();
+
+    private final Map<String, Boolean> codes = new ConcurrentHashMap<>();
+    private final Map<String, Instant> accessTokens = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> refreshTokens = new ConcurrentHashMap<>();
+
+    private final AtomicLong logins = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong expiredRejections = new AtomicLong();
+    private final AtomicLong injected401 = new AtomicLong();
+    private final AtomicLong injected429 = new AtomicLong();
+    private final AtomicLong injected500 = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private FakeBerkutServer(Settings settings) {
+        this.settings = settings;
+        RouterFunction<ServerResponse> routes = RouterFunctions.route()
+                .GET("/auth-service/login", this::loginPage)
+                .POST("/auth-service/login", this::login)
+                .POST("/auth-service/oauth/token", this::token)
+                .POST(SEARCH_PATH, this::search)
+                .build();
+        this.server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                // gzip when the client asks for it, like the real ingress
+                .compress(true)
+                .handle(new ReactorHttpHandlerAdapter(RouterFunctions.toHttpHandler(routes)))
+                .bindNow();
+    }
+
+    public static FakeBerkutServer start(Settings settings) {
+        return new FakeBerkutServer(settings);
+    }
+
+    /**
+     * What to configure as {@code berkut.base-url}.
+     */
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.port();
+    }
+
+    public Settings settings() {
+        return settings;
+    }
+
+    public long logins() {
+        return logins.get();
+    }
+
+    public long refreshes() {
+        return refreshes.get();
+    }
+
+    /**
+     * Forgets every refresh token issued so far, as a restart of the auth service would.
+     */
+    public void revokeRefreshTokens() {
+        refreshTokens.clear();
+    }
+
+    public long searches() {
+        return searches.get();
+    }
+
+    /**
+     * Searches rejected because their token had expired (not counting injected 401s).
+     */
+    public long expiredRejections() {
+        return expiredRejections.get();
+    }
+
+    public long injected(HttpStatus status) {
+        return switch (status) {
+            case UNAUTHORIZED -> injected401.get();
+            case TOO_MANY_REQUESTS -> injected429.get();
+            case INTERNAL_SERVER_ERROR -> injected500.get();
+            default -> 0;
+        };
+    }
+
+    /**
+     * Highest number of searches the server was answering at the same time.
+     */
+    public int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    // -----------------------------
+    // SETTINGS
+    // -----------------------------
+
+    /**
+     * Knobs of the fake; every setter returns {@code this}.
+     */
+    public static class Settings {
+
+        private volatile long records = 10_000;
+        private volatile OffsetDateTime origin = OffsetDateTime.of(2025, 1, 1, 0, 0, 0, 0, ZoneOffset.ofHours(5));
+        private volatile Duration step = Duration.ofSeconds(7);
+        private volatile String username;
+        private volatile String password;
+        private volatile Duration tokenTtl = Duration.ofHours(1);
+        private volatile boolean issueRefreshTokens = true;
+        private volatile Latency latency = Latency.none();
+        private volatile double unauthorizedRate;
+        private volatile double tooManyRequestsRate;
+        private volatile double serverErrorRate;
+        private volatile long failingFrom;
+        private volatile long failingTo;
+
+        public Settings records(long records) {
+            this.records = records;
+            return this;
+        }
+
+        public Settings origin(OffsetDateTime origin) {
+            this.origin = origin;
+            return this;
+        }
+
+        /**
+         * Time between two consecutive records; must be at least a millisecond.
+         */
+        public Settings step(Duration step) {
+            this.step = step;
+            return this;
+        }
+
+        /**
+         * Credentials the login form accepts; {@code null} accepts any.
+         */
+        public Settings credentials(String username, String password) {
+            this.username = username;
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * Lifetime of an access token, sent as {@code expires_in} (whole seconds, at least 1).
+         */
+        public Settings tokenTtl(Duration tokenTtl) {
+            this.tokenTtl = tokenTtl;
+            return this;
+        }
+
+        public Settings issueRefreshTokens(boolean issueRefreshTokens) {
+            this.issueRefreshTokens = issueRefreshTokens;
+            return this;
+        }
+
+        /**
+         * Delay before each search response.
+         */
+        public Settings latency(Latency latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * Fractions (0..1) of searches answered with 401, 429 (with {@code Retry-After: 1}) and 500 regardless of the request.
+         */
+        public Settings errorRates(double unauthorized, double tooManyRequests, double serverError) {
+            this.unauthorizedRate = unauthorized;
+            this.tooManyRequestsRate = tooManyRequests;
+            this.serverErrorRate = serverError;
+            return this;
+        }
+
+        /**
+         * Searches for pages that start at a record index in [{@code from}, {@code to}) are answered with 404,
+         * which no retry gets past; an empty range (the default) fails none.
+         */
+        public Settings failingRecords(long from, long to) {
+            this.failingFrom = from;
+            this.failingTo = to;
+            return this;
+        }
+
+        public long records() {
+            return records;
+        }
+
+        public OffsetDateTime origin() {
+            return origin;
+        }
+
+        public Duration step() {
+            return step;
+        }
+
+        /**
+         * {@code statusDatetime} of the last record, i.e. the end of a range that covers all of them.
+         */
+        public OffsetDateTime last() {
+            return origin.plus(step.multipliedBy(Math.max(0, records - 1)));
+        }
+    }
+
+    /**
+     * Distribution of the search response delay.
+     */
+    @FunctionalInterface
+    public interface Latency {
+
+        Duration next();
+
+        static Latency none() {
+            return () -> Duration.ZERO;
+        }
+
+        static Latency fixed(Duration delay) {
+            return () -> delay;
+        }
+
+        static Latency uniform(Duration min, Duration max) {
+            return () -> Duration.ofNanos(ThreadLocalRandom.current().nextLong(min.toNanos(), max.toNanos() + 1));
+        }
+
+        /**
+         * Log-normal around {@code median}; {@code sigma} 0.5 puts the 99th percentile at about 3.2x the median.
+         */
+        static Latency logNormal(Duration median, double sigma) {
+            return () -> Duration.ofNanos((long) (median.toNanos()
+                    * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian())));
+        }
+    }
+
+    // -----------------------------
+    // AUTH
+    // -----------------------------
+    private Mono<ServerResponse> loginPage(ServerRequest request) {
+        return ServerResponse.ok()
+                .header(HttpHeaders.SET_COOKIE, "SESSION=" + UUID.randomUUID() + "; Path=/; HttpOnly")
+                .contentType(MediaType.TEXT_HTML)
+                .bodyValue("<html><body><form method=\"post\"></form></body></html>");
+    }
+
+    private Mono<ServerResponse> login(ServerRequest request) {
+        return request.formData().flatMap(form -> {
+            String username = settings.username;
+            String password = settings.password;
+            boolean accepted = (username == null || username.equals(form.getFirst("username")))
+                    && (password == null || password.equals(form.getFirst("password")));
+            if (!accepted) {
+                // the real server shows the form again, without a redirect
+                return loginPage(request);
+            }
+            logins.incrementAndGet();
+            String code = UUID.randomUUID().toString();
+            codes.put(code, Boolean.TRUE);
+            return ServerResponse.status(HttpStatus.FOUND)
+                    .header(HttpHeaders.LOCATION, "https://center.berkut/app/ru/?code=" + code)
+                    .header(HttpHeaders.SET_COOKIE, "INGRESSCOOKIE=" + UUID.randomUUID() + "; Path=/")
+                    .build();
+        });
+    }
+
+    private Mono<ServerResponse> token(ServerRequest request) {
+        return request.formData().flatMap(form -> {
+            String grant = form.getFirst("grant_type");
+            if ("authorization_code".equals(grant) && form.getFirst("code") != null
+                    && codes.remove(form.getFirst("code")) != null) {
+                return issueToken();
+            }
+            if ("refresh_token".equals(grant) && form.getFirst("refresh_token") != null
+                    && refreshTokens.remove(form.getFirst("refresh_token")) != null) {
+                refreshes.incrementAndGet();
+                return issueToken();
+            }
+            return ServerResponse.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("{\"error\":\"invalid_grant\"}");
+        });
+    }
+
+    private Mono<ServerResponse> issueToken() {
+        String accessToken = UUID.randomUUID().toString();
+        long expiresIn = Math.max(1, settings.tokenTtl.toSeconds());
+        accessTokens.put(accessToken, Instant.now().plusSeconds(expiresIn));
+
+        StringBuilder body = new StringBuilder("{\"access_token\":\"").append(accessToken)
+                .append("\",\"token_type\":\"bearer\",\"scope\":\"openid\",\"expires_in\":").append(expiresIn);
+        if (settings.issueRefreshTokens) {
+            String refreshToken = UUID.randomUUID().toString();
+            refreshTokens.put(refreshToken, Boolean.TRUE);
+            body.append(",\"refresh_token\":\"").append(refreshToken).append('"');
+        }
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(body.append('}').toString());
+    }
+
+    private boolean authorized(ServerRequest request) {
+        String header = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
+        if (header == null || !header.startsWith("Bearer ")) {
+            return false;
+        }
+        Instant expiresAt = accessTokens.get(header.substring(7));
+        if (expiresAt == null) {
+            return false;
+        }
+        if (!Instant.now().isBefore(expiresAt)) {
+            expiredRejections.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    // -----------------------------
+    // SEARCH
+    // -----------------------------
+    private Mono<ServerResponse> search(ServerRequest request) {
+        return request.bodyToMono(String.class)
+                .defaultIfEmpty("{}")
+                .flatMap(body -> {
+                    searches.incrementAndGet();
+                    int now = inFlight.incrementAndGet();
+                    maxInFlight.accumulateAndGet(now, Math::max);
+                    return Mono.delay(settings.latency.next())
+                            .then(Mono.defer(() -> answer(request, body)))
+                            .doFinally(signal -> inFlight.decrementAndGet());
+                });
+    }
+
+    private Mono<ServerResponse> answer(ServerRequest request, String body) {
+        HttpStatus injected = injectedError();
+        if (injected == HttpStatus.TOO_MANY_REQUESTS) {
+            return ServerResponse.status(injected).header(HttpHeaders.RETRY_AFTER, "1").build();
+        }
+        if (injected != null) {
+            return ServerResponse.status(injected).build();
+        }
+        if (!authorized(request)) {
+            return ServerResponse.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        MultiValueMap<String, String> params = request.queryParams();
+        int page = Integer.parseInt(params.getFirst("page") == null ? "0" : params.getFirst("page"));
+        int size = Integer.parseInt(params.getFirst("size") == null ? "20" : params.getFirst("size"));
+        long[] range;
+        try {
+            range = range(mapper.readTree(body));
+        } catch (IOException | DateTimeParseException e) {
+            return ServerResponse.unprocessableEntity().bodyValue(e.getMessage());
+        }
+        long first = range[0] + (long) page * size;
+        if (first >= settings.failingFrom && first < settings.failingTo) {
+            return ServerResponse.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(page(range[0], range[1], page, size));
+    }
+
+    private HttpStatus injectedError() {
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if ((roll -= settings.unauthorizedRate) < 0) {
+            injected401.incrementAndGet();
+            return HttpStatus.UNAUTHORIZED;
+        }
+        if ((roll -= settings.tooManyRequestsRate) < 0) {
+            injected429.incrementAndGet();
+            return HttpStatus.TOO_MANY_REQUESTS;
+        }
+        if (roll - settings.serverErrorRate < 0) {
+            injected500.incrementAndGet();
+            return HttpStatus.INTERNAL_SERVER_ERROR;
+        }
+        return null;
+    }
+
+    /**
+     * Record indexes [from, to) matched by the {@code statusDatetime BETWEEN} field of the request, if any.
+     */
+    private long[] range(JsonNode request) {
+        long records = settings.records;
+        long from = 0;
+        long to = records;
+        for (JsonNode field : request.path("fields")) {
+            JsonNode values = field.path("compareValues");
+            if ("statusDatetime".equals(field.path("name").asText()) && values.size() == 2) {
+                from = Math.max(from, firstAtOrAfter(parse(values.get(0).asText())));
+                to = Math.min(to, firstAtOrAfter(parse(values.get(1).asText()).plusNanos(1)));
+            }
+        }
+        return new long[]{from, Math.max(from, to)};
+    }
+
+    private long firstAtOrAfter(OffsetDateTime time) {
+        long offset = Duration.between(settings.origin, time).toNanos();
+        long step = settings.step.toNanos();
+        if (offset <= 0) {
+            return 0;
+        }
+        return Math.min(settings.records, (offset + step - 1) / step);
+    }
+
+    private OffsetDateTime parse(String text) {
+        try {
+            return OffsetDateTime.parse(text, FORMAT);
+        } catch (DateTimeParseException e) {
+            return LocalDateTime.parse(text).atOffset(settings.origin.getOffset());
+        }
+    }
+
+    private byte[] page(long from, long to, int page, int size) {
+        long total = to - from;
+        long first = Math.min(to, from + (long) page * size);
+        long last = Math.min(to, first + size);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) (last - first) * 3072 + 256);
+        try (JsonGenerator gen = json.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("_embedded");
+            gen.writeArrayFieldStart("content");
+            for (long index = first; index < last; index++) {
+                writeRecord(gen, index);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeObjectFieldStart("page");
+            gen.writeNumberField("size", size);
+            gen.writeNumberField("totalElements", total);
+            gen.writeNumberField("totalPages", (total + size - 1) / size);
+            gen.writeNumberField("number", page);
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // -----------------------------
+    // SYNTHETIC RECORDS
+    // -----------------------------
+    private void writeRecord(JsonGenerator gen, long index) throws IOException {
+        SplittableRandom random = new SplittableRandom(index * 0x9E3779B97F4A7C15L);
+        OffsetDateTime time = settings.origin.plus(settings.step.multipliedBy(index));
+
+        gen.writeStartObject();
+        gen.writeNumberField("id", index + 1);
+        gen.writeStringField("statusValue", random.nextInt(10) == 0 ? "Не пропущен" : "Пропущен");
+        gen.writeStringField("status", "PASSED");
+        gen.writeStringField("statusDatetime", FORMAT.format(time));
+        gen.writeStringField("createdDatetime", FORMAT.format(time.plusSeconds(random.nextInt(5, 600))));
+        gen.writeNullField("deathDate");
+        gen.writeStringField("birthPlace", "г. Населенный пункт " + random.nextInt(1, 300));
+        gen.writeStringField("deviceSerialNumber", String.format("DEV-%06d", random.nextInt(1, 999_999)));
+        writeRef(gen, "citizenCountry", COUNTRIES[random.nextInt(COUNTRIES.length)]);
+        writeRef(gen, "checkpoint", CHECKPOINTS[random.nextInt(CHECKPOINTS.length)]);
+        writeRef(gen, "tripPurpose", random.nextBoolean() ? "Частная" : "Служебная");
+        writeRef(gen, "source", "Терминал");
+        gen.writeObjectFieldStart("userInfo");
+        gen.writeStringField("fullName", "Сотрудник " + random.nextInt(1, 80));
+        gen.writeEndObject();
+
+        gen.writeObjectFieldStart("document");
+        gen.writeStringField("surnameEn", "SURNAME" + random.nextInt(1, 9999));
+        gen.writeStringField("givenNameEn", "NAME" + random.nextInt(1, 9999));
+        gen.writeStringField("surnameRu", "Фамилия" + random.nextInt(1, 9999));
+        gen.writeStringField("givenNameRu", "Имя" + random.nextInt(1, 9999));
+        gen.writeNullField("surnameOrigin");
+        gen.writeStringField("gender", random.nextBoolean() ? "MALE" : "FEMALE");
+        gen.writeStringField("birthDate", String.format("%04d-%02d-%02d",
+                random.nextInt(1940, 2020), random.nextInt(1, 13), random.nextInt(1, 29)));
+        gen.writeStringField("iin", String.format("%012d", random.nextLong(100_000_000_000L, 999_999_999_999L)));
+        gen.writeStringField("documentNumber", String.format("N%08d", random.nextInt(1, 99_999_999)));
+        writeRef(gen, "documentType", "Паспорт");
+        writeRef(gen, "issueCountry", COUNTRIES[random.nextInt(COUNTRIES.length)]);
+        gen.writeEndObject();
+
+        gen.writeObjectFieldStart("trip");
+        gen.writeStringField("crossingFactTypeValue", random.nextBoolean() ? "Авто" : "Авиа");
+        gen.writeStringField("directionTypeValue", DIRECTIONS[random.nextInt(2)]);
+        writeRef(gen, "fromDestinationCountry", COUNTRIES[random.nextInt(COUNTRIES.length)]);
+        writeRef(gen, "toDestinationCountry", COUNTRIES[random.nextInt(COUNTRIES.length)]);
+        gen.writeStringField("transportNumber", String.format("%03dAB%02d", random.nextInt(1, 999), random.nextInt(1, 17)));
+        gen.writeStringField("actualDatetime", FORMAT.format(time));
+        gen.writeEndObject();
+
+        gen.writeNullField("crossingFactVisa");
+        gen.writeEndObject();
+    }
+
+    private static void writeRef(JsonGenerator gen, String name, String value) throws IOException {
+        gen.writeObjectFieldStart(name);
+        gen.writeStringField("valueRu", value);
+        gen.writeStringField("valueKz", value);
+        gen.writeNullField("valueEn");
+        gen.writeEndObject();
+    }
+}
@@ -0,0 +1,120 @@
+package org.info.berkut.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static AdaptiveConcurrencyLimiter limiter(int initial, int max) {
+        return new AdaptiveConcurrencyLimiter(initial, 1, max, 1000, 0.5);
+    }
+
+    @Test
+    void grantsUpToTheLimitAndQueuesTheRestInOrder() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 2);
+        List<Sinks.Empty<Void>> calls = new ArrayList<>();
+        List<Integer> started = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int index = i;
+            Sinks.Empty<Void> call = Sinks.empty();
+            calls.add(call);
+            limiter.run(Mono.defer(() -> {
+                started.add(index);
+                return call.asMono();
+            })).subscribe();
+        }
+
+        assertEquals(List.of(0, 1), started);
+        assertEquals(2, limiter.inFlight());
+
+        calls.get(1).tryEmitEmpty();
+        assertEquals(List.of(0, 1, 2), started);
+        calls.get(0).tryEmitEmpty();
+        assertEquals(List.of(0, 1, 2, 3), started);
+
+        calls.get(2).tryEmitEmpty();
+        calls.get(3).tryEmitEmpty();
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    void growsAdditivelyAndBacksOffMultiplicatively() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 8);
+        for (int i = 0; i < 4; i++) {
+            limiter.run(Mono.just("page")).block();
+        }
+        // 2 -> 2.5 -> 2.9 -> 3.24 -> 3.55: about one slot per round of calls
+        assertEquals(3, limiter.currentLimit());
+
+        WebClientResponseException unavailable = WebClientResponseException.create(503, "Service Unavailable",
+                HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+        limiter.run(Mono.error(unavailable)).onErrorComplete().block();
+        assertEquals(1, limiter.currentLimit());
+
+        // a 404 says nothing about load
+        WebClientResponseException notFound = WebClientResponseException.create(HttpStatus.NOT_FOUND.value(),
+                "Not Found", HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+        for (int i = 0; i < 3; i++) {
+            limiter.run(Mono.just("page")).block();
+        }
+        int grown = limiter.currentLimit();
+        limiter.run(Mono.error(notFound)).onErrorComplete().block();
+        assertEquals(grown, limiter.currentLimit());
+    }
+
+    @Test
+    void slowResponsesShrinkTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 8, 10, 0.5);
+        limiter.run(Mono.delay(Duration.ofMillis(50))).block();
+        // 8 * 0.9
+        assertEquals(7, limiter.currentLimit());
+    }
+
+    @Test
+    void cancelledWaiterDoesNotHoldASlot() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1);
+        Sinks.Empty<Void> first = Sinks.empty();
+        limiter.run(first.asMono()).subscribe();
+        Disposable waiting = limiter.run(Mono.just("second")).subscribe();
+        List<String> third = new ArrayList<>();
+        limiter.run(Mono.just("third")).subscribe(third::add);
+
+        waiting.dispose();
+        first.tryEmitEmpty();
+
+        assertEquals(List.of("third"), third);
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    void cancelsRacingGrantsDoNotLeakSlots() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 2);
+        // calls end and get cancelled at random, so some cancels hit a waiter right after its slot was taken
+        Flux.range(0, 20_000)
+                .flatMap(i -> limiter.run(Mono.delay(Duration.ofNanos(ThreadLocalRandom.current().nextLong(20_000)),
+                                        Schedulers.parallel()))
+                                .timeout(Duration.ofNanos(ThreadLocalRandom.current().nextLong(50_000)), Schedulers.parallel())
+                                .onErrorComplete()
+                                .subscribeOn(Schedulers.parallel()),
+                        64)
+                .blockLast(Duration.ofMinutes(1));
+
+        assertEquals(0, limiter.inFlight());
+        assertEquals("after", limiter.run(Mono.just("after")).block(Duration.ofSeconds(1)));
+    }
+}
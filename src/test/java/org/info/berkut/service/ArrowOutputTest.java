@@ -0,0 +1,110 @@
+package org.info.berkut.service;
+
+import org.apache.arrow.compression.CommonsCompressionFactory;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.compression.CompressionUtil;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArrowOutputTest {
+
+    private static final String HEADER = "id|taxpayer_name_latin|taxpayer_birthday|checkpoint|date|note";
+    private static final String[] CHECKPOINTS = {"Хоргос", "Достык", "Алматы (аэропорт)"};
+
+    private static String row(int i) {
+        OffsetDateTime time = OffsetDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneOffset.ofHours(5)).plusMinutes(i);
+        return (i + 1) + "|NAME" + i + " SURNAME" + (i * 7 % 1000) + "|1980-02-" + String.format("%02d", 1 + i % 28)
+                + "|" + CHECKPOINTS[i % 3] + "|" + TimeWindow.format(time) + "|";
+    }
+
+    @Test
+    void writesTypedDictionaryEncodedBatches(@TempDir Path dir) throws IOException {
+        List<String> lines = new ArrayList<>(List.of(HEADER));
+        for (int i = 0; i < 2500; i++) {
+            lines.add(row(i));
+        }
+        // not a number, not a date: nulls rather than a failed export
+        lines.add("x|odd|unknown||broken|note");
+        Path csv = dir.resolve("result.csv");
+        Files.write(csv, lines);
+        Path arrow = dir.resolve("result.arrow");
+
+        ExportResult result = ArrowOutput.write(csv, arrow, 1000, CompressionUtil.CodecType.ZSTD);
+
+        assertEquals(2501, result.rows());
+        assertTrue(result.bytes() * 3 < Files.size(csv), result.bytes() + " vs " + Files.size(csv));
+        try (BufferAllocator allocator = new RootAllocator();
+             FileChannel channel = FileChannel.open(arrow);
+             ArrowFileReader reader = new ArrowFileReader(channel, allocator, CommonsCompressionFactory.INSTANCE)) {
+            assertEquals(3, reader.getRecordBlocks().size());
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            VarCharVector checkpoints = (VarCharVector) reader.getDictionaryVectors().values().iterator().next().getVector();
+            assertEquals(3, checkpoints.getValueCount());
+
+            reader.loadNextBatch();
+            assertEquals(1000, root.getRowCount());
+            assertEquals(1, ((BigIntVector) root.getVector("id")).get(0));
+            assertEquals(LocalDate.of(1980, 2, 1).toEpochDay(), ((DateDayVector) root.getVector("taxpayer_birthday")).get(0));
+            assertEquals(OffsetDateTime.parse("2024-01-01T00:01:00+05:00").toInstant().toEpochMilli(),
+                    ((TimeStampMilliTZVector) root.getVector("date")).get(1));
+            int code = ((IntVector) root.getVector("checkpoint")).get(2);
+            assertEquals(CHECKPOINTS[2], new String(checkpoints.get(code), StandardCharsets.UTF_8));
+            assertTrue(root.getVector("note").isNull(0));
+
+            reader.loadNextBatch();
+            reader.loadNextBatch();
+            assertEquals(501, root.getRowCount());
+            int last = 500;
+            assertTrue(root.getVector("id").isNull(last));
+            assertTrue(root.getVector("taxpayer_birthday").isNull(last));
+            assertTrue(root.getVector("checkpoint").isNull(last));
+            assertNull(root.getVector("date").getObject(last));
+            assertEquals("note", root.getVector("note").getObject(last).toString());
+        }
+    }
+
+    @Test
+    void readsEscapedFieldsAndLeavesOutMalformedRows(@TempDir Path dir) throws IOException {
+        String escaped = CsvFormat.join("1", "A|B", "1980-02-01", "Хоргос", "2024-01-01T00:00:00+05:00", "two\nlines");
+        Path csv = dir.resolve("result.csv");
+        Files.writeString(csv, HEADER + "\n" + escaped + "\n" + "2|short row\n" + row(2) + "\n");
+        Path arrow = dir.resolve("result.arrow");
+
+        ExportResult result = ArrowOutput.write(csv, arrow, 1000, CompressionUtil.CodecType.NO_COMPRESSION);
+
+        assertEquals(2, result.rows());
+        try (BufferAllocator allocator = new RootAllocator();
+             FileChannel channel = FileChannel.open(arrow);
+             ArrowFileReader reader = new ArrowFileReader(channel, allocator, CommonsCompressionFactory.INSTANCE)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            reader.loadNextBatch();
+            assertEquals(2, root.getRowCount());
+            assertEquals("A|B", root.getVector("taxpayer_name_latin").getObject(0).toString());
+            assertEquals("two\nlines", root.getVector("note").getObject(0).toString());
+            assertEquals(3, ((BigIntVector) root.getVector("id")).get(1));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.info.berkut.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColumnarRowsTest {
+
+    private static final String HEADER = "id|name|checkpoint|direction|note|date";
+
+    private static String row(int i) {
+        return i + "|Person " + i + "|CP-" + (i % 5) + "|" + (i % 2 == 0 ? "IN" : "OUT") + "||2024-01-01T00:00:"
+                + String.format("%02d", i % 60) + "+05:00";
+    }
+
+    @Test
+    void rendersRowsBackAsTheyWereAdded() {
+        ColumnarRows rows = new ColumnarRows(HEADER);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            lines.add(row(i));
+        }
+        // odd rows after the sample: a short one, one with an extra field and an empty one
+        lines.add("1|short");
+        lines.add("2|a|b|c|d|e|f");
+        lines.add("|||||");
+        lines.forEach(rows::add);
+
+        assertEquals(lines.size(), rows.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(lines.get(i), rows.row(i));
+        }
+        long plain = lines.stream().mapToLong(line -> 40 + 2L * line.length()).sum();
+        assertTrue(rows.heapBytes() < plain / 2, rows.heapBytes() + " vs " + plain);
+    }
+}
@@ -0,0 +1,69 @@
+package org.info.berkut.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CsvFormatTest {
+
+    @Test
+    void quotesOnlyFieldsThatNeedIt() {
+        assertEquals("1|plain|", CsvFormat.join("1", "plain", ""));
+        assertEquals("1|\"a|b\"|\"say \"\"hi\"\" | bye\"|\"two\nlines\"|\"cr\rhere\"|\"\"\"hi\"\"\"",
+                CsvFormat.join("1", "a|b", "say \"hi\" | bye", "two\nlines", "cr\rhere", "\"hi\""));
+    }
+
+    @Test
+    void writesAQuoteInsideAFieldUnchanged() {
+        String row = CsvFormat.join("1", "ТОО \"Ромашка\"", "say \"hi\"");
+
+        assertEquals("1|ТОО \"Ромашка\"|say \"hi\"", row);
+        assertArrayEquals(new String[]{"1", "ТОО \"Ромашка\"", "say \"hi\""}, row.split("\\|", -1));
+        assertArrayEquals(new String[]{"1", "ТОО \"Ромашка\"", "say \"hi\""}, CsvFormat.fields(row));
+    }
+
+    @Test
+    void readsBackWhatItWrote() {
+        String[] values = {"7", "a|b", "say \"hi\"", "", "two\r\nlines", "\"", "\"quoted\" | piped", "end"};
+        String row = CsvFormat.join(values);
+
+        assertArrayEquals(values, CsvFormat.fields(row));
+        for (int c = 0; c < values.length; c++) {
+            assertEquals(values[c], CsvFormat.field(row, c));
+        }
+        assertEquals("", CsvFormat.field(row, values.length));
+    }
+
+    @Test
+    void keepsAQuoteInTheMiddleOfAnUnquotedField() {
+        assertArrayEquals(new String[]{"1", "ТОО \"Береке\"", "x"}, CsvFormat.fields("1|ТОО \"Береке\"|x"));
+        assertEquals("x", CsvFormat.field("1|ТОО \"Береке\"|x", 2));
+    }
+
+    @Test
+    void readerKeepsLineBreaksInsideQuotedFields(@TempDir Path dir) throws IOException {
+        String first = CsvFormat.join("1", "multi\nline", "a|b");
+        String second = CsvFormat.join("2", "bare\rreturn", "say \"hi\"");
+        String legacy = "3|ТОО \"Береке\"|x";
+        Path file = dir.resolve("rows.csv");
+        Files.writeString(file, "id|a|b\n" + first + "\n" + second + "\r\n" + legacy + "\n|\n" + "4|last|");
+
+        List<String> rows = new ArrayList<>();
+        try (CsvFormat.RecordReader reader = new CsvFormat.RecordReader(file)) {
+            String row;
+            while ((row = reader.next()) != null) {
+                rows.add(row);
+            }
+        }
+
+        assertEquals(List.of("id|a|b", first, second, legacy, "|", "4|last|"), rows);
+    }
+}
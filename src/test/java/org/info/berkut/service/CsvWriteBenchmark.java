@@ -0,0 +1,70 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing the decoded rows of one 200-item page to the final CSV file. {@code appendPage} is the steady state
+ * of an export (buffered, drained every 256 KB); {@code appendPageAndFlush} adds the fsync of a journal checkpoint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvWriteBenchmark {
+
+    private List<String> rows;
+    private Path file;
+    private CsvWriter writer;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] body = PageDecodingBenchmark.fixture(PageDecodingBenchmark.FIXTURE);
+        rows = new TreePageDecoder(new ObjectMapper()).decode(new ByteArrayInputStream(body)).rows();
+    }
+
+    @Setup(Level.Iteration)
+    public void openFile() throws IOException {
+        file = Files.createTempFile("berkut-bench", ".csv");
+        writer = new CsvWriter(file, "header");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteFile() throws IOException {
+        writer.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long appendPage() {
+        writer.append(rows);
+        return writer.bytes();
+    }
+
+    @Benchmark
+    public long appendPageAndFlush() {
+        writer.append(rows);
+        writer.flush();
+        return writer.bytes();
+    }
+}
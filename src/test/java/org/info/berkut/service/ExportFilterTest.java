@@ -0,0 +1,95 @@
+package org.info.berkut.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExportFilterTest {
+
+    private static final String HEADER = "id|name|checkpoint|direction";
+    private static final IntFunction<String> PATHS = column -> switch (column) {
+        case 0 -> "id";
+        case 2 -> "checkpoint.valueRu";
+        case 3 -> "direction.valueRu";
+        default -> null;
+    };
+
+    private static ExportFilter.Row row(String line) {
+        String[] values = line.split("\\|", -1);
+        return column -> values[column];
+    }
+
+    @Test
+    void pushesEqualityOnListedFieldsAndTestsTheRest() {
+        ExportFilter filter = ExportFilter.compile(
+                List.of("name~OVA", "checkpoint = Хоргос|Достык", "direction!=Въезд", " "),
+                HEADER, PATHS, Set.of("checkpoint.valueRu", "direction.valueRu"));
+
+        assertEquals(1, filter.pushed().size());
+        ExportFilter.Pushed pushed = filter.pushed().get(0);
+        assertEquals("checkpoint.valueRu", pushed.field());
+        assertEquals(ExportFilter.Operator.IN, pushed.criterion().operator());
+        assertEquals(List.of("Хоргос", "Достык"), pushed.criterion().values());
+        // a negation never goes to the server; comparisons run before substring scans
+        assertEquals("direction!=Въезд; name~OVA", filter.residualKey());
+
+        assertTrue(filter.test(row("1|Ivanova|Хоргос|Выезд")));
+        assertFalse(filter.test(row("2|Ivanova|Хоргос|Въезд")));
+        assertFalse(filter.test(row("3|Petrov|Хоргос|Выезд")));
+    }
+
+    @Test
+    void clientSideCriteriaReadBackTheSame() {
+        ExportFilter filter = ExportFilter.compile(List.of("checkpoint=Хоргос|Достык", "id!=1|2"),
+                HEADER, PATHS, Set.of());
+
+        assertTrue(filter.pushed().isEmpty());
+        assertEquals(filter.residualKey(),
+                ExportFilter.compile(filter.residualCriteria(), HEADER, PATHS, Set.of()).residualKey());
+        assertTrue(filter.test(row("3|x|Достык|")));
+        assertFalse(filter.test(row("2|x|Достык|")));
+        assertFalse(filter.test(row("3|x|Алматы|")));
+    }
+
+    @Test
+    void escapedPipeIsPartOfTheValue() {
+        // name=ТОО А\|Б|Петров and checkpoint!=C:\\
+        ExportFilter filter = ExportFilter.compile(List.of("name=ТОО А\\|Б|Петров", "checkpoint!=C:\\\\"),
+                HEADER, PATHS, Set.of());
+
+        assertEquals(List.of("checkpoint!=C:\\\\", "name=ТОО А\\|Б|Петров"), filter.residualCriteria());
+        assertEquals(filter.residualKey(),
+                ExportFilter.compile(filter.residualCriteria(), HEADER, PATHS, Set.of()).residualKey());
+        // values with a '|' of their own, as the decoders hand them over before escaping the row
+        assertTrue(filter.test(column -> new String[]{"1", "ТОО А|Б", "Хоргос", ""}[column]));
+        assertTrue(filter.test(column -> new String[]{"2", "Петров", "Хоргос", ""}[column]));
+        assertFalse(filter.test(column -> new String[]{"3", "ТОО А", "Хоргос", ""}[column]));
+        assertFalse(filter.test(column -> new String[]{"4", "Петров", "C:\\", ""}[column]));
+        // a substring is never split
+        assertTrue(ExportFilter.compile(List.of("name~а|б"), HEADER, PATHS, Set.of())
+                .test(column -> new String[]{"5", "ТОО А|Б", "", ""}[column]));
+    }
+
+    @Test
+    void noCriteriaIsNone() {
+        assertSame(ExportFilter.NONE, ExportFilter.compile(null, HEADER, PATHS, Set.of()));
+        assertSame(ExportFilter.NONE, ExportFilter.compile(List.of("", " "), HEADER, PATHS, Set.of()));
+        assertTrue(ExportFilter.NONE.test(row("1|x|y|z")));
+    }
+
+    @Test
+    void rejectsWhatItCannotRead() {
+        for (String expression : List.of("checkpoint", "=Хоргос", "country=KZ")) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> ExportFilter.compile(List.of(expression), HEADER, PATHS, Set.of()), expression);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.info.berkut.service;
+
+import org.info.berkut.fake.FakeBerkutServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Jobs run two at a time against {@link FakeBerkutServer}, with their state and outputs in a temporary directory.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class ExportJobServiceTest {
+
+    private static final int RECORDS = 500;
+
+    private static final FakeBerkutServer server = FakeBerkutServer.start(new FakeBerkutServer.Settings()
+            .records(RECORDS)
+            .credentials("export", "test"));
+    // static, so it is there before the context reads the properties below
+    @TempDir
+    static Path state;
+
+    @DynamicPropertySource
+    static void berkut(DynamicPropertyRegistry registry) {
+        // application.properties takes these from the environment, which a test run need not have
+        registry.add("server.address", () -> "127.0.0.1");
+        registry.add("server.port", () -> "0");
+        registry.add("berkut.base-url", server::baseUrl);
+        registry.add("berkut.secure.login", () -> "export");
+        registry.add("berkut.secure.password", () -> "test");
+        registry.add("berkut.page.size", () -> "100");
+        registry.add("berkut.page.adaptive", () -> "false");
+        registry.add("berkut.journal.dir", () -> state.resolve("journal").toString());
+        registry.add("berkut.dead-letter.file", () -> state.resolve("dead-letters.json").toString());
+        registry.add("berkut.jobs.dir", () -> state.resolve("jobs").toString());
+        registry.add("berkut.jobs.max-concurrent", () -> "2");
+    }
+
+    @AfterAll
+    static void stop() {
+        server.close();
+    }
+
+    @AfterEach
+    void reset() {
+        server.settings().latency(FakeBerkutServer.Latency.none());
+        for (ExportJob job : jobs.list()) {
+            // the first cancel stops a job, the second removes it
+            jobs.cancel(job.getId());
+            jobs.cancel(job.getId());
+        }
+    }
+
+    @Autowired
+    private ExportJobService jobs;
+
+    private ExportJob submit() {
+        return jobs.submit(TimeWindow.format(server.settings().origin()), TimeWindow.format(server.settings().last()),
+                1, List.of());
+    }
+
+    private static ExportJob await(ExportJob job) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofMinutes(1).toNanos();
+        while (!job.isFinished() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        return job;
+    }
+
+    @Test
+    void runsASubmittedJobIntoItsOwnDirectory() throws InterruptedException {
+        ExportJob job = await(submit());
+
+        assertEquals(ExportJob.Status.DONE, job.getStatus());
+        assertEquals(RECORDS, job.getRows());
+        assertEquals(state.resolve("jobs").resolve(job.getId()).resolve("result.csv").toAbsolutePath(), job.getOutput());
+        assertTrue(Files.exists(job.getOutput()));
+        assertEquals(job, jobs.get(job.getId()));
+    }
+
+    @Test
+    void runsTwoIdenticalJobsSideBySide() throws InterruptedException {
+        // slow enough that the second job starts long before the first one is through
+        server.settings().latency(FakeBerkutServer.Latency.fixed(Duration.ofMillis(300)));
+        ExportJob first = submit();
+        ExportJob second = submit();
+
+        await(first);
+        await(second);
+
+        for (ExportJob job : List.of(first, second)) {
+            assertEquals(ExportJob.Status.DONE, job.getStatus(), job.getError());
+            assertEquals(RECORDS, job.getRows());
+        }
+        assertTrue(first.getStartedAt().isBefore(second.getFinishedAt())
+                && second.getStartedAt().isBefore(first.getFinishedAt()), "the jobs overlapped");
+        assertFalse(Files.exists(state.resolve("journal")), "no job uses the shared journals");
+    }
+
+    @Test
+    void cancelsQueuedAndRunningJobsAndDeletesFinishedOnes() throws InterruptedException {
+        server.settings().latency(FakeBerkutServer.Latency.fixed(Duration.ofMillis(200)));
+        ExportJob running = submit();
+        ExportJob other = submit();
+        ExportJob queued = submit();
+
+        assertTrue(jobs.cancel(queued.getId()));
+        assertEquals(ExportJob.Status.CANCELLED, queued.getStatus());
+        assertTrue(jobs.cancel(running.getId()));
+        assertEquals(ExportJob.Status.CANCELLED, running.getStatus());
+        assertTrue(jobs.cancel(other.getId()));
+        assertNull(queued.getStartedAt(), "a job cancelled in the queue never starts");
+
+        server.settings().latency(FakeBerkutServer.Latency.none());
+        ExportJob done = await(submit());
+        assertTrue(jobs.cancel(done.getId()));
+        assertNull(jobs.get(done.getId()));
+        assertFalse(Files.exists(done.getOutput().getParent()), "the output goes with the job");
+        assertFalse(jobs.cancel(done.getId()));
+    }
+
+    @Test
+    void rejectsFiltersThatDoNotParse() {
+        assertThrows(IllegalArgumentException.class, () -> jobs.submit(TimeWindow.format(server.settings().origin()),
+                TimeWindow.format(server.settings().last()), 1, List.of("no criterion")));
+        assertTrue(jobs.list().isEmpty());
+    }
+
+    @Test
+    void expiresFinishedJobsWithTheirOutput() throws InterruptedException {
+        ExportJob first = await(submit());
+        ExportJob second = await(submit());
+        ReflectionTestUtils.setField(jobs, "maxFinished", 1);
+        try {
+            assertEquals(List.of(second), jobs.list(), "only the newest finished job is kept");
+            assertFalse(Files.exists(first.getOutput().getParent()));
+
+            ReflectionTestUtils.setField(jobs, "retentionMinutes", 0L);
+            assertNull(jobs.get(second.getId()));
+            assertFalse(Files.exists(second.getOutput().getParent()));
+        } finally {
+            ReflectionTestUtils.setField(jobs, "maxFinished", 100);
+            ReflectionTestUtils.setField(jobs, "retentionMinutes", 1440L);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExportJournalTest {
+
+    private static final String HEADER = "id|name";
+    private static final String QUERY = "{\"fields\":[]}";
+    private static final String FROM = "2024-01-01T00:00:00+05:00";
+    private static final String TO = "2024-01-31T23:59:59+05:00";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private ExportJournal open(Path root, long segmentBytes) throws IOException {
+        return ExportJournal.open(root, mapper, QUERY, FROM, TO, 0, HEADER, segmentBytes);
+    }
+
+    private static List<String> rows(int from, int to) {
+        List<String> rows = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            rows.add(i + "|name " + i);
+        }
+        return rows;
+    }
+
+    private static List<String> lines(List<String> rows) {
+        List<String> lines = new ArrayList<>(List.of(HEADER));
+        lines.addAll(rows);
+        return lines;
+    }
+
+    @Test
+    void resumesFromTheManifestAndCutsOffATornSegment(@TempDir Path root) throws IOException {
+        ExportJournal first = open(root, 1 << 20);
+        assertFalse(first.resumed());
+        first.append(200, rows(0, 200));
+        first.commit();
+        first.append(400, rows(200, 400));
+        // the process dies: the second page never got committed and the last line is half written
+        Path segment = first.dir().resolve("segment-00001.csv");
+        Files.write(segment, "400|torn li".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        ExportJournal resumed = open(root, 1 << 20);
+
+        assertTrue(resumed.resumed());
+        assertEquals(200, resumed.nextOffset());
+        assertEquals(200, resumed.committedRows());
+        assertEquals(lines(rows(0, 200)), Files.readAllLines(segment));
+
+        resumed.append(400, rows(200, 400));
+        ExportResult result = resumed.finish(root.resolve("result.csv"));
+
+        assertTrue(result.complete());
+        assertEquals(400, result.rows());
+        assertEquals(lines(rows(0, 400)), Files.readAllLines(result.path()));
+        assertFalse(Files.exists(resumed.dir()), "finish removes the journal");
+    }
+
+    @Test
+    void snapshotCopiesTheCommittedRowsAndKeepsTheJournal(@TempDir Path root) throws IOException {
+        ExportJournal journal = open(root, 1 << 20);
+        journal.append(200, rows(0, 200));
+        ExportResult snapshot = journal.snapshot(root.resolve("partial.csv"));
+        journal.close();
+
+        assertFalse(snapshot.complete());
+        assertEquals(200, snapshot.rows());
+        assertEquals(lines(rows(0, 200)), Files.readAllLines(snapshot.path()));
+
+        ExportJournal reopened = open(root, 1 << 20);
+        assertTrue(reopened.resumed());
+        assertEquals(200, reopened.nextOffset());
+        reopened.close();
+    }
+
+    @Test
+    void rollsSegmentsAndAssemblesThemInOrder(@TempDir Path root) throws IOException {
+        ExportJournal journal = open(root, 4 * 1024);
+        for (int page = 0; page < 10; page++) {
+            journal.append((page + 1) * 100L, rows(page * 100, (page + 1) * 100));
+            journal.commit();
+        }
+        try (var files = Files.list(journal.dir())) {
+            assertTrue(files.filter(file -> file.getFileName().toString().startsWith("segment-")).count() > 1);
+        }
+
+        ExportResult result = journal.finish(root.resolve("result.csv"));
+
+        assertEquals(1000, result.rows());
+        assertEquals(lines(rows(0, 1000)), Files.readAllLines(result.path()));
+    }
+
+    @Test
+    void mergesWindowsWithOneHeader(@TempDir Path root) throws IOException {
+        ExportJournal january = open(root, 1 << 20);
+        ExportJournal february = ExportJournal.open(root, mapper, QUERY, "2024-02-01T00:00:00+05:00",
+                "2024-02-29T23:59:59+05:00", 0, HEADER, 1 << 20);
+        january.append(100, rows(0, 100));
+        february.append(50, rows(100, 150));
+
+        ExportResult result = ExportJournal.merge(List.of(january, february), root.resolve("result.csv"), true);
+
+        assertEquals(150, result.rows());
+        assertEquals(lines(rows(0, 150)), Files.readAllLines(result.path()));
+        assertFalse(Files.exists(january.dir()));
+        assertFalse(Files.exists(february.dir()));
+    }
+
+    @Test
+    void startsOverWhenASegmentIsMissing(@TempDir Path root) throws IOException {
+        ExportJournal journal = open(root, 1 << 20);
+        journal.append(200, rows(0, 200));
+        journal.close();
+        Files.delete(journal.dir().resolve("segment-00001.csv"));
+
+        ExportJournal fresh = open(root, 1 << 20);
+
+        assertFalse(fresh.resumed());
+        assertEquals(0, fresh.nextOffset());
+        fresh.close();
+    }
+
+    @Test
+    void keepsGapsAcrossRunsUntilTheyAreFilled(@TempDir Path root) throws IOException {
+        ExportJournal journal = open(root, 1 << 20);
+        journal.append(100, rows(0, 100));
+        journal.skip(100, 100, 200);
+        journal.append(300, rows(200, 300));
+        journal.complete();
+
+        assertThrows(IllegalStateException.class, () -> journal.finish(root.resolve("result.csv")));
+
+        ExportJournal resumed = open(root, 1 << 20);
+        assertTrue(resumed.isComplete());
+        assertEquals(List.of(new ExportJournal.Gap(100, 100)), resumed.gaps());
+
+        resumed.fill(resumed.gaps().get(0), rows(100, 200));
+        resumed.complete();
+        ExportResult result = resumed.finish(root.resolve("result.csv"));
+
+        assertEquals(300, result.rows());
+        List<String> expected = new ArrayList<>(rows(0, 100));
+        expected.addAll(rows(200, 300));
+        expected.addAll(rows(100, 200));
+        assertEquals(lines(expected), Files.readAllLines(result.path()));
+    }
+}
@@ -0,0 +1,126 @@
+package org.info.berkut.service;
+
+import org.info.berkut.fake.FakeBerkutServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Full export of 100k records against {@link FakeBerkutServer}: login, token refresh and retries included.
+ * Reports pages per second and the heap high-water mark sampled during the run. Takes about half a minute, so it
+ * only runs with {@code -Pbench}; journals and dead letters go to a temporary directory.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class ExportThroughputTest {
+
+    private static final int RECORDS = 100_000;
+
+    private static final FakeBerkutServer server = FakeBerkutServer.start(new FakeBerkutServer.Settings()
+            .records(RECORDS)
+            .credentials("load", "test")
+            .tokenTtl(Duration.ofSeconds(3))
+            .latency(FakeBerkutServer.Latency.logNormal(Duration.ofMillis(15), 0.5))
+            .errorRates(0.01, 0.01, 0.02));
+    // static, so it is there before the context reads the properties below
+    @TempDir
+    static Path state;
+
+    @DynamicPropertySource
+    static void berkut(DynamicPropertyRegistry registry) {
+        // application.properties takes these from the environment, which a test run need not have
+        registry.add("server.address", () -> "127.0.0.1");
+        registry.add("server.port", () -> "0");
+        registry.add("berkut.base-url", server::baseUrl);
+        registry.add("berkut.secure.login", () -> "load");
+        registry.add("berkut.secure.password", () -> "test");
+        registry.add("berkut.token.refresh-skew-seconds", () -> "1");
+        registry.add("berkut.fetch.retry-min-backoff-ms", () -> "20");
+        registry.add("berkut.fetch.retry-max-backoff-ms", () -> "500");
+        registry.add("berkut.journal.dir", () -> state.resolve("journal").toString());
+        registry.add("berkut.dead-letter.file", () -> state.resolve("dead-letters.json").toString());
+    }
+
+    @AfterAll
+    static void stop() {
+        server.close();
+    }
+
+    @Autowired
+    private Parser parser;
+
+    @Test
+    void exportsHundredThousandRecordsThroughFailures(@TempDir Path dir) throws IOException {
+        Path target = dir.resolve("result.csv");
+        String from = TimeWindow.format(server.settings().origin());
+        String to = TimeWindow.format(server.settings().last());
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong heapPeak = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> heapPeak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, 5, TimeUnit.MILLISECONDS);
+
+        ExportProgress progress = new ExportProgress();
+        long start = System.nanoTime();
+        ExportResult result;
+        try {
+            result = parser.exportCsv(from, to, 1, target, progress).block(Duration.ofMinutes(5));
+        } finally {
+            sampler.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long pages = (RECORDS + 199) / 200;
+        Parser.log(String.format("Throughput: %d pages in %.1f s = %.1f pages/s, %.0f rows/s; heap high-water %d MB; "
+                        + "%d searches (max %d in flight), %d logins, %d refreshes, injected 401/429/500 = %d/%d/%d",
+                pages, seconds, pages / seconds, RECORDS / seconds, heapPeak.get() / (1024 * 1024),
+                server.searches(), server.maxInFlight(), server.logins(), server.refreshes(),
+                server.injected(HttpStatus.UNAUTHORIZED), server.injected(HttpStatus.TOO_MANY_REQUESTS),
+                server.injected(HttpStatus.INTERNAL_SERVER_ERROR)));
+
+        assertTrue(result.complete());
+        assertEquals(RECORDS, result.rows());
+
+        ProgressEvent last = progress.latest();
+        Parser.log("Progress: " + last.summary());
+        assertTrue(last.done());
+        assertEquals(RECORDS, last.recordsTotal());
+        assertEquals(RECORDS, last.records());
+        assertEquals(RECORDS, last.rows());
+
+        Set<String> ids = new HashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(target)) {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ids.add(DecodedPage.id(line));
+            }
+        }
+        assertEquals(RECORDS, ids.size());
+        assertTrue(server.injected(HttpStatus.INTERNAL_SERVER_ERROR) > 0);
+    }
+}
@@ -0,0 +1,77 @@
+package org.info.berkut.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExternalSorterTest {
+
+    private static final String HEADER = "id|name|date|status";
+
+    private static String row(long id, OffsetDateTime time) {
+        return id + "|name " + id + "|" + TimeWindow.format(time) + "|OK";
+    }
+
+    @Test
+    void mergesSpilledRunsInTimeOrder(@TempDir Path dir) throws IOException {
+        OffsetDateTime origin = OffsetDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneOffset.ofHours(5));
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // every tenth row in UTC, so the sort has to compare instants, not strings
+            OffsetDateTime time = origin.plusSeconds(i * 7L);
+            rows.add(row(i + 1, i % 10 == 0 ? time.withOffsetSameInstant(ZoneOffset.UTC) : time));
+        }
+        List<String> expected = new ArrayList<>(rows);
+        Collections.shuffle(rows, new Random(42));
+        Path file = dir.resolve("out.csv");
+        List<String> lines = new ArrayList<>(List.of(HEADER));
+        lines.addAll(rows);
+        Files.write(file, lines);
+
+        // ~30 lines per run gives well over FAN_IN runs, so the merge needs two passes
+        ExportResult result = ExternalSorter.sortFile(file, ExternalSorter.SortKey.STATUS_DATETIME, 4096, dir.resolve("tmp"));
+
+        List<String> sorted = Files.readAllLines(file);
+        assertEquals(HEADER, sorted.get(0));
+        assertEquals(expected, sorted.subList(1, sorted.size()));
+        assertEquals(5000, result.rows());
+        try (var left = Files.list(dir.resolve("tmp"))) {
+            assertEquals(0, left.count(), "run files are removed");
+        }
+    }
+
+    @Test
+    void sortsIdsNumerically(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("out.csv");
+        Files.write(file, List.of(HEADER, "100|a||", "9|b||", "25|c||"));
+
+        ExternalSorter.sortFile(file, ExternalSorter.SortKey.ID, 1 << 20, dir.resolve("tmp"));
+
+        assertEquals(List.of(HEADER, "9|b||", "25|c||", "100|a||"), Files.readAllLines(file));
+    }
+
+    @Test
+    void keepsEscapedFieldsWithLineBreaksInOneRow(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("out.csv");
+        String second = CsvFormat.join("2", "two\nlines", "2024-01-01T00:00:02+05:00", "OK");
+        String first = CsvFormat.join("1", "pipe | and \"quote\"", "2024-01-01T00:00:01+05:00", "bare\rreturn");
+        Files.writeString(file, HEADER + "\n" + second + "\n" + first + "\n");
+
+        ExportResult result = ExternalSorter.sortFile(file, ExternalSorter.SortKey.STATUS_DATETIME, 1 << 20,
+                dir.resolve("tmp"));
+
+        assertEquals(2, result.rows());
+        assertEquals(HEADER + "\n" + first + "\n" + second + "\n", Files.readString(file));
+    }
+}
@@ -0,0 +1,189 @@
+package org.info.berkut.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FetchRetryTest {
+
+    private static WebClientResponseException status(HttpStatus status, String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        if (retryAfter != null) {
+            headers.set(HttpHeaders.RETRY_AFTER, retryAfter);
+        }
+        return WebClientResponseException.create(status.value(), status.getReasonPhrase(), headers, new byte[0],
+                StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void sortsFailuresIntoClasses() {
+        assertEquals(FetchRetry.Failure.AUTH, FetchRetry.classify(status(HttpStatus.UNAUTHORIZED, null)));
+        assertEquals(FetchRetry.Failure.BAD_REQUEST, FetchRetry.classify(status(HttpStatus.BAD_REQUEST, null)));
+        assertEquals(FetchRetry.Failure.THROTTLED, FetchRetry.classify(status(HttpStatus.SERVICE_UNAVAILABLE, null)));
+        assertEquals(FetchRetry.Failure.SERVER, FetchRetry.classify(status(HttpStatus.BAD_GATEWAY, null)));
+        assertEquals(FetchRetry.Failure.PERMANENT, FetchRetry.classify(status(HttpStatus.NOT_FOUND, null)));
+        assertEquals(FetchRetry.Failure.PERMANENT, FetchRetry.classify(new RuntimeException("Cannot decode page 3")));
+    }
+
+    // no backoff and a budget that never runs dry, so retries follow each other at once
+    private static FetchRetry retry() {
+        FetchRetry retry = new FetchRetry(new ExportMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(retry, "minBackoffMs", 0L);
+        ReflectionTestUtils.setField(retry, "maxBackoffMs", 0L);
+        ReflectionTestUtils.setField(retry, "maxAttempts", 4);
+        ReflectionTestUtils.setField(retry, "authMaxAttempts", 3);
+        ReflectionTestUtils.setField(retry, "badRequestMaxAttempts", 2);
+        ReflectionTestUtils.setField(retry, "maxRetryAfterMs", 60_000L);
+        ReflectionTestUtils.setField(retry, "budgetRatio", 0.2);
+        ReflectionTestUtils.setField(retry, "budgetMinPerSecond", 1000.0);
+        ReflectionTestUtils.setField(retry, "breakerThreshold", 100);
+        ReflectionTestUtils.setField(retry, "breakerOpenMs", 1000L);
+        ReflectionTestUtils.setField(retry, "breakerMaxOpenMs", 1000L);
+        retry.init();
+        return retry;
+    }
+
+    /**
+     * Fails with the given responses in turn, the last one for good, and counts the attempts.
+     */
+    private static Mono<String> failing(AtomicInteger attempts, WebClientResponseException... responses) {
+        return Mono.defer(() -> Mono.error(responses[Math.min(attempts.getAndIncrement(), responses.length - 1)]));
+    }
+
+    @Test
+    void readsRetryAfterOnlyFromThrottledResponses() {
+        FetchRetry retry = retry();
+
+        assertEquals(5000, retry.retryAfterMs(status(HttpStatus.TOO_MANY_REQUESTS, "5")));
+        assertEquals(5000, retry.retryAfterMs(status(HttpStatus.SERVICE_UNAVAILABLE, " 5 ")));
+        long date = retry.retryAfterMs(status(HttpStatus.TOO_MANY_REQUESTS,
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(30))));
+        assertTrue(date > 28_000 && date <= 30_000, "an HTTP date 30 s ahead: " + date);
+        assertEquals(0, retry.retryAfterMs(status(HttpStatus.TOO_MANY_REQUESTS,
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(1)))));
+        assertEquals(60_000, retry.retryAfterMs(status(HttpStatus.TOO_MANY_REQUESTS, "3600")), "capped");
+
+        assertEquals(0, retry.retryAfterMs(status(HttpStatus.TOO_MANY_REQUESTS, null)));
+        assertEquals(0, retry.retryAfterMs(status(HttpStatus.INTERNAL_SERVER_ERROR, "5")));
+        assertEquals(0, retry.retryAfterMs(status(HttpStatus.TOO_MANY_REQUESTS, "soon")));
+    }
+
+    @Test
+    void givesUpWhenAFailureClassRunsOutOfAttempts() {
+        FetchRetry retry = retry();
+        List<String> retries = new ArrayList<>();
+        AtomicInteger attempts = new AtomicInteger();
+
+        // auth failures get three attempts, and the server errors in between do not count against them
+        PageFetchException ex = assertThrows(PageFetchException.class, () -> failing(attempts,
+                status(HttpStatus.UNAUTHORIZED, null), status(HttpStatus.BAD_GATEWAY, null),
+                status(HttpStatus.UNAUTHORIZED, null), status(HttpStatus.BAD_GATEWAY, null),
+                status(HttpStatus.UNAUTHORIZED, null))
+                .retryWhen(retry.retry((failure, cause, n) -> {
+                    retries.add(n + " " + failure);
+                    return Mono.empty();
+                }))
+                .block());
+
+        assertEquals(FetchRetry.Failure.AUTH, ex.failure());
+        assertEquals(5, ex.attempts());
+        assertEquals(5, attempts.get());
+        assertEquals(List.of("1 AUTH", "2 SERVER", "3 AUTH", "4 SERVER"), retries);
+        assertInstanceOf(WebClientResponseException.Unauthorized.class, ex.getCause());
+    }
+
+    @Test
+    void retriesEachClassUpToItsOwnLimit() {
+        FetchRetry retry = retry();
+        FetchRetry.BeforeRetry none = (failure, cause, n) -> Mono.empty();
+
+        AtomicInteger server = new AtomicInteger();
+        PageFetchException ex = assertThrows(PageFetchException.class, () -> failing(server,
+                status(HttpStatus.BAD_GATEWAY, null)).retryWhen(retry.retry(none)).block());
+        assertEquals(FetchRetry.Failure.SERVER, ex.failure());
+        assertEquals(4, server.get());
+
+        AtomicInteger badRequest = new AtomicInteger();
+        ex = assertThrows(PageFetchException.class, () -> failing(badRequest,
+                status(HttpStatus.BAD_REQUEST, null)).retryWhen(retry.retry(none)).block());
+        assertEquals(FetchRetry.Failure.BAD_REQUEST, ex.failure());
+        assertEquals(2, badRequest.get());
+
+        AtomicInteger permanent = new AtomicInteger();
+        ex = assertThrows(PageFetchException.class, () -> failing(permanent,
+                status(HttpStatus.NOT_FOUND, null)).retryWhen(retry.retry(none)).block());
+        assertEquals(FetchRetry.Failure.PERMANENT, ex.failure());
+        assertEquals(1, ex.attempts());
+        assertEquals(1, permanent.get());
+
+        AtomicInteger recovered = new AtomicInteger();
+        assertEquals("page", failing(recovered, status(HttpStatus.SERVICE_UNAVAILABLE, null))
+                .onErrorResume(e -> recovered.get() < 3 ? Mono.error(e) : Mono.just("page"))
+                .retryWhen(retry.retry(none))
+                .block());
+        assertEquals(3, recovered.get());
+    }
+
+    @Test
+    void opensAfterAFailureRunAndClosesOnASuccessfulProbe() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(3, 50, 1000);
+        breaker.failed(0);
+        breaker.failed(0);
+        assertEquals(0, breaker.admit());
+
+        breaker.failed(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertTrue(breaker.admit() > 0);
+
+        Thread.sleep(60);
+        assertEquals(0, breaker.admit());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertTrue(breaker.admit() > 0, "only the probe goes out while half-open");
+
+        breaker.succeeded();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(0, breaker.admit());
+    }
+
+    @Test
+    void failedProbeReopensForLonger() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50, 1000);
+        breaker.failed(0);
+        Thread.sleep(60);
+        breaker.admit();
+
+        breaker.failed(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertTrue(breaker.admit() > 50);
+    }
+
+    @Test
+    void emptyBudgetDelaysRetriesInsteadOfDroppingThem() {
+        RetryBudget budget = new RetryBudget(0.2, 1);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, budget.withdraw());
+        }
+        long first = budget.withdraw();
+        long second = budget.withdraw();
+
+        assertTrue(first > 0 && first <= 1000, "waits for one token: " + first);
+        assertTrue(second > first, "later retries queue behind it: " + second);
+    }
+}
@@ -0,0 +1,37 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HighWaterMarkTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void savesAndLoadsTheMark(@TempDir Path dir) {
+        Path file = HighWaterMark.file(dir.resolve("state"), "daily");
+        assertEquals(dir.resolve("state").resolve("delta-daily.json"), file);
+        HighWaterMark mark = new HighWaterMark("daily", "2025-01-01T01:56:33+05:00", 1000, 123_456,
+                Map.of("999", "2025-01-01T01:56:26+05:00", "1000", "2025-01-01T01:56:33+05:00"),
+                "2025-01-02T00:00:00Z");
+
+        mark.save(file, mapper);
+
+        assertEquals(mark, HighWaterMark.load(file, mapper));
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+    }
+
+    @Test
+    void noMarkBeforeTheFirstRun(@TempDir Path dir) {
+        assertNull(HighWaterMark.load(HighWaterMark.file(dir, "daily"), mapper));
+    }
+}
@@ -0,0 +1,78 @@
+package org.info.berkut.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void growsAndKeepsEveryIdAcrossReopen() {
+        Path file = dir.resolve("ids.idx");
+        try (IdIndex index = IdIndex.open(file, 16)) {
+            for (long id = 1; id <= 50_000; id++) {
+                assertTrue(index.add(IdIndex.key(Long.toString(id))));
+            }
+            assertFalse(index.add(IdIndex.key("42")));
+            assertEquals(50_000, index.size());
+        }
+
+        try (IdIndex index = IdIndex.open(file, 16)) {
+            assertEquals(50_000, index.size());
+            for (long id = 1; id <= 50_000; id++) {
+                assertTrue(index.contains(IdIndex.key(Long.toString(id))));
+            }
+            assertFalse(index.contains(IdIndex.key("50001")));
+        }
+    }
+
+    @Test
+    void growsIntoNewFilesAndNeverReplacesAMappedOne() throws IOException {
+        Path file = dir.resolve("ids.idx");
+        Object fileKey;
+        try (IdIndex index = IdIndex.open(file, 1024)) {
+            fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            for (long id = 1; id <= 2_000; id++) {
+                index.add(IdIndex.key(Long.toString(id)));
+            }
+            // 1024 -> 2048 -> 4096 slots
+            assertEquals(fileKey, Files.readAttributes(file, BasicFileAttributes.class).fileKey());
+            assertTrue(Files.exists(dir.resolve("ids.idx.2")));
+        }
+        Files.write(dir.resolve("ids.idx.3"), new byte[]{1, 2, 3});
+
+        try (IdIndex index = IdIndex.open(file, 16)) {
+            assertEquals(2_000, index.size());
+            assertTrue(index.contains(IdIndex.key("1999")));
+            assertEquals(64, Files.size(file), "the first table is dropped, the header stays");
+            assertFalse(Files.exists(dir.resolve("ids.idx.1")));
+            assertFalse(Files.exists(dir.resolve("ids.idx.3")), "left over from a grow that never finished");
+        }
+
+        IdIndex.delete(file);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(List.of(), files.toList());
+        }
+    }
+
+    @Test
+    void keysNeverUseTheEmptySlotMarker() {
+        assertNotEquals(0, IdIndex.key("0"));
+        assertNotEquals(0, IdIndex.key(""));
+        assertNotEquals(IdIndex.key("abc"), IdIndex.key("abd"));
+    }
+}
@@ -0,0 +1,79 @@
+package org.info.berkut.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeysetPagingTest {
+
+    private static DecodedPage page(String... idAndTime) {
+        List<String> rows = new ArrayList<>();
+        List<String> times = new ArrayList<>();
+        for (int i = 0; i < idAndTime.length; i += 2) {
+            rows.add(idAndTime[i] + "|row");
+            times.add(idAndTime[i + 1]);
+        }
+        return new DecodedPage(1, rows.size(), rows, times);
+    }
+
+    @Test
+    void movesTheBoundToTheLastInstantAndRemembersItsIds() {
+        KeysetPaging.Step step = KeysetPaging.advance(KeysetPaging.start("t0"),
+                page("1", "t1", "2", "t2", "3", "t2"), 3);
+
+        assertEquals(List.of("1|row", "2|row", "3|row"), step.rows());
+        assertEquals(new ExportJournal.Cursor("t2", List.of("2", "3"), 0), step.next());
+        assertFalse(step.last());
+    }
+
+    @Test
+    void dropsRowsAlreadyWrittenAtTheBoundInstant() {
+        ExportJournal.Cursor cursor = new ExportJournal.Cursor("t2", List.of("2", "3"), 0);
+
+        KeysetPaging.Step step = KeysetPaging.advance(cursor, page("2", "t2", "3", "t2", "4", "t2", "5", "t3"), 200);
+
+        assertEquals(List.of("4|row", "5|row"), step.rows());
+        assertEquals(new ExportJournal.Cursor("t3", List.of("5"), 0), step.next());
+        assertTrue(step.last());
+    }
+
+    @Test
+    void fallsBackToRecordOffsetsWhileOneInstantFillsThePage() {
+        ExportJournal.Cursor cursor = new ExportJournal.Cursor("t2", List.of("2"), 0);
+
+        KeysetPaging.Step step = KeysetPaging.advance(cursor, page("2", "t2", "3", "t2", "4", "t2"), 3);
+
+        assertEquals(List.of("3|row", "4|row"), step.rows());
+        assertEquals(new ExportJournal.Cursor("t2", List.of("2", "3", "4"), 3), step.next());
+        assertFalse(step.last());
+    }
+
+    @Test
+    void pageEmptiedByTheFilterStillMovesTheBound() {
+        ExportJournal.Cursor cursor = new ExportJournal.Cursor("t1", List.of("1"), 0);
+        // three items came back, none of them passed the client-side filter
+        DecodedPage filtered = new DecodedPage(1, 9, List.of(), List.of(), 3, "t3");
+
+        KeysetPaging.Step step = KeysetPaging.advance(cursor, filtered, 3);
+
+        assertTrue(step.rows().isEmpty());
+        assertEquals(new ExportJournal.Cursor("t3", List.of(), 0), step.next());
+        assertFalse(step.last());
+    }
+
+    @Test
+    void emptyPageEndsTheRange() {
+        ExportJournal.Cursor cursor = KeysetPaging.start("t0");
+
+        KeysetPaging.Step step = KeysetPaging.advance(cursor, page(), 200);
+
+        assertTrue(step.rows().isEmpty());
+        assertEquals(cursor, step.next());
+        assertTrue(step.last());
+    }
+}
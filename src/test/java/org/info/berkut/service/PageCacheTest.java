@@ -0,0 +1,97 @@
+package org.info.berkut.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageCacheTest {
+
+    private static final int BODY_BYTES = 1000;
+
+    private static PageCache cache(Path dir, String mode, long maxBytes) {
+        PageCache cache = new PageCache();
+        ReflectionTestUtils.setField(cache, "mode", mode);
+        ReflectionTestUtils.setField(cache, "dir", dir.toString());
+        ReflectionTestUtils.setField(cache, "maxBytes", maxBytes);
+        return cache;
+    }
+
+    // random bytes do not compress, so every entry takes about the same space
+    private static byte[] body(int seed) {
+        byte[] body = new byte[BODY_BYTES];
+        new Random(seed).nextBytes(body);
+        return body;
+    }
+
+    private static Path file(Path dir, String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + ".json.gz");
+    }
+
+    private static String key(int page) {
+        return PageCache.key("{}", page, 100, "");
+    }
+
+    @Test
+    void replacingAPageCountsOnlyTheNewEntry(@TempDir Path dir) throws IOException {
+        PageCache cache = cache(dir, "write", 1 << 20);
+        for (int i = 0; i < 10; i++) {
+            cache.put(key(1), body(i));
+        }
+
+        assertEquals(Files.size(file(dir, key(1))), cache.usedBytesOnDisk());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedPagesFirst(@TempDir Path dir) throws IOException {
+        PageCache cache = cache(dir, "read-write", 1 << 20);
+        cache.put(key(1), body(1));
+        long entryBytes = Files.size(file(dir, key(1)));
+        // room for three pages; a fourth brings it over and one page is enough to get back under 90%
+        ReflectionTestUtils.setField(cache, "maxBytes", entryBytes * 7 / 2);
+        cache.put(key(2), body(2));
+        cache.put(key(3), body(3));
+        long now = System.currentTimeMillis();
+        for (int page = 1; page <= 3; page++) {
+            Files.setLastModifiedTime(file(dir, key(page)), FileTime.fromMillis(now - 60_000 + page * 1000L));
+        }
+        try (InputStream read = cache.get(key(1))) {
+            assertArrayEquals(body(1), read.readAllBytes());
+        }
+
+        cache.put(key(4), body(4));
+
+        assertTrue(Files.exists(file(dir, key(1))), "read last, so kept");
+        assertTrue(Files.notExists(file(dir, key(2))), "least recently used");
+        assertTrue(Files.exists(file(dir, key(3))));
+        assertTrue(Files.exists(file(dir, key(4))));
+        assertEquals(3 * entryBytes, cache.usedBytesOnDisk(), 64);
+    }
+
+    @Test
+    void replayServesStoredPagesAndMissesTheRest(@TempDir Path dir) throws IOException {
+        cache(dir, "write", 1 << 20).put(key(1), body(1));
+        Files.createDirectories(file(dir, key(2)).getParent());
+        Files.write(file(dir, key(2)), new byte[]{1, 2, 3});
+
+        PageCache replay = cache(dir, "replay", 1 << 20);
+
+        assertTrue(replay.replay() && replay.reads() && !replay.writes());
+        try (InputStream read = replay.get(key(1))) {
+            assertArrayEquals(body(1), read.readAllBytes());
+        }
+        assertNull(replay.get(key(3)), "never stored");
+        assertNull(replay.get(key(2)), "a broken entry is a miss, not an error");
+    }
+}
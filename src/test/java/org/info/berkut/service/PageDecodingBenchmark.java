@@ -0,0 +1,121 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of one recorded 200-item crossing-facts page ({@code fixtures/crossing-facts-page-200.json},
+ * anonymised). One operation is one page unless noted, so the score reads as pages per second and
+ * {@code gc.alloc.rate.norm} as bytes allocated per page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageDecodingBenchmark {
+
+    static final String FIXTURE = "fixtures/crossing-facts-page-200.json";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final TreePageDecoder tree = new TreePageDecoder(mapper);
+    private final StreamingPageDecoder streaming = new StreamingPageDecoder(mapper);
+
+    private byte[] body;
+    private JsonNode root;
+    private List<JsonNode> items;
+    private List<String[]> values;
+
+    @Setup
+    public void setup() throws IOException {
+        body = fixture(FIXTURE);
+        root = mapper.readTree(body);
+        items = new ArrayList<>();
+        root.path("_embedded").path("content").forEach(items::add);
+        values = new ArrayList<>();
+        for (String row : tree.decode(new ByteArrayInputStream(body)).rows()) {
+            values.add(row.split("\\|", -1));
+        }
+    }
+
+    static byte[] fixture(String name) throws IOException {
+        try (InputStream in = PageDecodingBenchmark.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            return in.readAllBytes();
+        }
+    }
+
+    // -----------------------------
+    // WHOLE PAGE
+    // -----------------------------
+    @Benchmark
+    public DecodedPage treeDecode() throws IOException {
+        return tree.decode(new ByteArrayInputStream(body));
+    }
+
+    @Benchmark
+    public DecodedPage streamingDecode() throws IOException {
+        return streaming.decode(new ByteArrayInputStream(body));
+    }
+
+    /**
+     * Column mapping alone, on an already parsed tree.
+     */
+    @Benchmark
+    public List<String> processPageData() {
+        List<String> rows = new ArrayList<>(items.size());
+        tree.processPageData(root, ExportFilter.NONE, rows, new ArrayList<>(items.size()));
+        return rows;
+    }
+
+    // -----------------------------
+    // HELPERS (one call per item of the page)
+    // -----------------------------
+    @Benchmark
+    public void getOrEmpty(Blackhole bh) {
+        for (JsonNode item : items) {
+            bh.consume(TreePageDecoder.getOrEmpty(item, "id"));
+            bh.consume(TreePageDecoder.getOrEmpty(item, "violationsInfo", "decisionDate"));
+            bh.consume(TreePageDecoder.getOrEmpty(item, "detentionInfo", "decisionMakingBody", "valueRu"));
+        }
+    }
+
+    @Benchmark
+    public void formatName(Blackhole bh) {
+        for (JsonNode item : items) {
+            JsonNode doc = item.path("document");
+            bh.consume(TreePageDecoder.formatName(
+                    doc.path("givenNameEn").asText(""),
+                    doc.path("surnameEn").asText(""),
+                    doc.path("fathersNameEn").asText("")));
+        }
+    }
+
+    @Benchmark
+    public void rowJoin(Blackhole bh) {
+        for (String[] row : values) {
+            bh.consume(String.join("|", row));
+        }
+    }
+}
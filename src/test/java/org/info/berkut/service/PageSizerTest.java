@@ -0,0 +1,54 @@
+package org.info.berkut.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PageSizerTest {
+
+    private static PageSizer sizer() {
+        return new PageSizer(200, 50, 800, true, 1000, 1_000_000);
+    }
+
+    @Test
+    void growsAfterFastSmallPagesAndShrinksOnASlowOne() {
+        PageSizer sizer = sizer();
+        for (int i = 0; i < 3; i++) {
+            sizer.observe(200, 200, 20_000, 100);
+        }
+        assertEquals(400, sizer.current());
+
+        sizer.observe(400, 400, 40_000, 1500);
+        assertEquals(200, sizer.current());
+    }
+
+    @Test
+    void ignoresResponsesOfAnOlderSize() {
+        PageSizer sizer = sizer();
+        sizer.observe(400, 400, 40_000, 5000);
+
+        assertEquals(200, sizer.current());
+    }
+
+    @Test
+    void shrinksWhenAPageGetsTooLarge() {
+        PageSizer sizer = sizer();
+        sizer.observe(200, 200, 2_000_000, 100);
+
+        assertEquals(100, sizer.current());
+    }
+
+    @Test
+    void picksASizeThatDividesTheOffset() {
+        PageSizer sizer = sizer();
+        for (int i = 0; i < 6; i++) {
+            sizer.observe(sizer.current(), sizer.current(), 1000, 10);
+        }
+        assertEquals(800, sizer.current());
+
+        assertEquals(800, sizer.sizeAt(1600));
+        assertEquals(400, sizer.sizeAt(1200));
+        assertEquals(50, sizer.sizeAt(1250));
+        assertEquals(5, sizer.sizeAt(1255));
+    }
+}
@@ -0,0 +1,294 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.info.berkut.fake.FakeBerkutServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Small exports end to end against {@link FakeBerkutServer}, with the journals in a temporary directory.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class ParserExportTest {
+
+    private static final int RECORDS = 1_000;
+
+    private static final FakeBerkutServer server = FakeBerkutServer.start(new FakeBerkutServer.Settings()
+            .records(RECORDS)
+            .credentials("export", "test"));
+    // static, so it is there before the context reads the properties below
+    @TempDir
+    static Path state;
+
+    @DynamicPropertySource
+    static void berkut(DynamicPropertyRegistry registry) {
+        // application.properties takes these from the environment, which a test run need not have
+        registry.add("server.address", () -> "127.0.0.1");
+        registry.add("server.port", () -> "0");
+        registry.add("berkut.base-url", server::baseUrl);
+        registry.add("berkut.secure.login", () -> "export");
+        registry.add("berkut.secure.password", () -> "test");
+        registry.add("berkut.page.size", () -> "100");
+        registry.add("berkut.page.adaptive", () -> "false");
+        // only read in sharded mode, which the tests switch on where they need it
+        registry.add("berkut.shard.max-pages-per-window", () -> "2");
+        registry.add("berkut.journal.dir", () -> state.resolve("journal").toString());
+        registry.add("berkut.dead-letter.file", () -> state.resolve("dead-letters.json").toString());
+        registry.add("berkut.delta.dir", () -> state.resolve("delta-root").toString());
+        registry.add("berkut.cache.dir", () -> state.resolve("cache").toString());
+    }
+
+    @AfterAll
+    static void stop() {
+        server.close();
+    }
+
+    @AfterEach
+    void heal() {
+        server.settings().failingRecords(0, 0).records(RECORDS);
+    }
+
+    @Autowired
+    private Parser parser;
+
+    @Autowired
+    private PageCache pageCache;
+
+    private static List<String> ids(Path csv) throws IOException {
+        try (Stream<String> lines = Files.lines(csv)) {
+            return lines.skip(1).map(DecodedPage::id).sorted().toList();
+        }
+    }
+
+    /**
+     * Records of the fake server stamped within the window.
+     */
+    private static long records(TimeWindow window) {
+        OffsetDateTime origin = server.settings().origin();
+        long step = server.settings().step().toMillis();
+        long first = Math.max(0, (ChronoUnit.MILLIS.between(origin, window.start()) + step - 1) / step);
+        long last = Math.min(RECORDS - 1, Math.floorDiv(ChronoUnit.MILLIS.between(origin, window.end()), step));
+        return Math.max(0, last - first + 1);
+    }
+
+    private static Path deltaOutput(String name) {
+        return state.resolve("delta-root").resolve("delta").resolve(name + ".csv");
+    }
+
+    private static Path deltaMark(String name) {
+        return HighWaterMark.file(state.resolve("delta-root").resolve("state"), name);
+    }
+
+    private static List<String> expectedIds(long records) {
+        return LongStream.rangeClosed(1, records).mapToObj(String::valueOf).sorted().toList();
+    }
+
+    private static long journals() throws IOException {
+        Path root = state.resolve("journal");
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        try (Stream<Path> dirs = Files.list(root)) {
+            return dirs.count();
+        }
+    }
+
+    @Test
+    void deadLetteredPageKeepsTheExportPartialUntilARerunFetchesIt(@TempDir Path dir) throws IOException {
+        Path target = dir.resolve("result.csv");
+        String from = TimeWindow.format(server.settings().origin());
+        String to = TimeWindow.format(server.settings().last());
+        server.settings().failingRecords(300, 400);
+
+        ExportProgress progress = new ExportProgress();
+        ExportResult partial = parser.exportCsv(from, to, 1, target, progress).block(Duration.ofMinutes(1));
+
+        assertFalse(partial.complete(), "a page went to the dead letters");
+        assertEquals(RECORDS - 100, partial.rows());
+        assertEquals(100, progress.skippedRecords());
+        assertEquals(1, journals(), "the journal stays for the rerun");
+
+        server.settings().failingRecords(0, 0);
+        ExportResult result = parser.exportCsv(from, to, 1, target, new ExportProgress()).block(Duration.ofMinutes(1));
+
+        assertTrue(result.complete());
+        assertEquals(RECORDS, result.rows());
+        assertEquals(RECORDS, ids(target).stream().distinct().count());
+        assertEquals(0, journals(), "the finished export removes its journal");
+    }
+
+    @Test
+    void plansContiguousWindowsOfAtMostMaxPagesEach() {
+        String from = TimeWindow.format(server.settings().origin());
+        String to = TimeWindow.format(server.settings().last());
+
+        List<TimeWindow> windows = parser.planWindows(from, to, ChronoUnit.HOURS,
+                new AdaptiveConcurrencyLimiter(2, 1, 2, 1000, 0.5), null, ExportFilter.NONE)
+                .collectList().block(Duration.ofMinutes(1));
+
+        // two hours of records, 515 and 485 of them, halved down to two pages of 100
+        assertTrue(windows.size() > 2, "the hour windows were halved: " + windows);
+        assertEquals(from, windows.get(0).from());
+        assertEquals(to, windows.get(windows.size() - 1).to());
+        long total = 0;
+        for (int i = 0; i < windows.size(); i++) {
+            TimeWindow window = windows.get(i);
+            if (i > 0) {
+                assertEquals(windows.get(i - 1).end().plus(1, ChronoUnit.MILLIS), window.start());
+            }
+            assertTrue(records(window) <= 200, window + " has " + records(window) + " records");
+            total += records(window);
+        }
+        assertEquals(RECORDS, total);
+    }
+
+    @Test
+    void stopsHalvingWindowsThatCannotGetShorter() {
+        // 1000 records in three seconds: ten pages that no split at a whole second gets down to two
+        server.settings().step(Duration.ofMillis(3));
+        ReflectionTestUtils.setField(parser, "minWindowMinutes", 0L);
+        try {
+            String from = TimeWindow.format(server.settings().origin());
+            String to = TimeWindow.format(server.settings().last());
+
+            List<TimeWindow> windows = parser.planWindows(from, to, ChronoUnit.HOURS,
+                    new AdaptiveConcurrencyLimiter(2, 1, 2, 1000, 0.5), null, ExportFilter.NONE)
+                    .collectList().block(Duration.ofMinutes(1));
+
+            assertEquals(List.of(
+                    new TimeWindow(from, "2025-01-01T00:00:00.999+05:00"),
+                    new TimeWindow("2025-01-01T00:00:01+05:00", to)), windows);
+        } finally {
+            ReflectionTestUtils.setField(parser, "minWindowMinutes", 1L);
+            server.settings().step(Duration.ofSeconds(7));
+        }
+    }
+
+    @Test
+    void shardedExportWritesTheSameRowsAsAnUnshardedOne(@TempDir Path dir) throws IOException {
+        String from = TimeWindow.format(server.settings().origin());
+        String to = TimeWindow.format(server.settings().last());
+
+        ExportResult plain = parser.exportCsv(from, to, 1, dir.resolve("plain.csv"), new ExportProgress())
+                .block(Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(parser, "shardMode", "hour");
+        ExportResult sharded;
+        try {
+            sharded = parser.exportCsv(from, to, 1, dir.resolve("sharded.csv"), new ExportProgress())
+                    .block(Duration.ofMinutes(1));
+        } finally {
+            ReflectionTestUtils.setField(parser, "shardMode", "none");
+        }
+
+        assertTrue(sharded.complete());
+        assertEquals(RECORDS, sharded.rows());
+        assertEquals(Files.readAllLines(plain.path()), Files.readAllLines(sharded.path()));
+        assertEquals(0, journals(), "the merge removes the window journals");
+    }
+
+    @Test
+    void deltaRunsAppendOnlyNewRowsAndSkipTheOverlap() throws IOException {
+        String from = TimeWindow.format(server.settings().origin());
+
+        ExportResult first = parser.exportDelta("overlap", from, TimeWindow.format(server.settings().last()))
+                .block(Duration.ofMinutes(1));
+        assertEquals(RECORDS, first.rows());
+
+        // the next run starts half an hour before the mark; those rows are in recentIds already
+        ExportResult again = parser.exportDelta("overlap", from, TimeWindow.format(server.settings().last()))
+                .block(Duration.ofMinutes(1));
+        assertEquals(0, again.rows());
+
+        server.settings().records(RECORDS + 100);
+        ExportResult next = parser.exportDelta("overlap", from, TimeWindow.format(server.settings().last()))
+                .block(Duration.ofMinutes(1));
+
+        assertEquals(100, next.rows());
+        assertEquals(expectedIds(RECORDS + 100), ids(deltaOutput("overlap")));
+        HighWaterMark mark = HighWaterMark.load(deltaMark("overlap"), new ObjectMapper());
+        assertEquals(RECORDS + 100, mark.rows());
+        assertEquals(Files.size(deltaOutput("overlap")), mark.outputBytes());
+    }
+
+    @Test
+    void deltaRerunAfterACrashBeforeTheMarkWasSavedWritesEveryRowOnce() throws IOException {
+        String from = TimeWindow.format(server.settings().origin());
+        parser.exportDelta("crash", from, TimeWindow.format(server.settings().last())).block(Duration.ofMinutes(1));
+        byte[] savedMark = Files.readAllBytes(deltaMark("crash"));
+
+        // the second run appends its rows, then the process dies before the new mark is written,
+        // in the middle of one more row
+        server.settings().records(RECORDS + 100);
+        parser.exportDelta("crash", from, TimeWindow.format(server.settings().last())).block(Duration.ofMinutes(1));
+        Files.write(deltaMark("crash"), savedMark);
+        Files.writeString(deltaOutput("crash"), "1101|torn", StandardOpenOption.APPEND);
+
+        ExportResult rerun = parser.exportDelta("crash", from, TimeWindow.format(server.settings().last()))
+                .block(Duration.ofMinutes(1));
+
+        assertTrue(rerun.complete());
+        assertEquals(100, rerun.rows(), "the rows after the saved mark are cut off and written again");
+        assertEquals(expectedIds(RECORDS + 100), ids(deltaOutput("crash")));
+    }
+
+    @Test
+    void replayMissStopsTheExportWithoutAskingTheServer(@TempDir Path dir) throws IOException {
+        String from = TimeWindow.format(server.settings().origin());
+        String to = TimeWindow.format(server.settings().last());
+        ExportResult recorded;
+        ExportResult replayed;
+        ExportResult missing;
+        long searches;
+        try {
+            ReflectionTestUtils.setField(pageCache, "mode", "write");
+            recorded = parser.exportCsv(from, to, 1, dir.resolve("recorded.csv"), new ExportProgress())
+                    .block(Duration.ofMinutes(1));
+
+            ReflectionTestUtils.setField(pageCache, "mode", "replay");
+            searches = server.searches();
+            replayed = parser.exportCsv(from, to, 1, dir.resolve("replayed.csv"), new ExportProgress())
+                    .block(Duration.ofMinutes(1));
+
+            String page = PageCache.key(parser.searchBody(from, to, ExportFilter.NONE), 3, 100, "");
+            Files.delete(state.resolve("cache").resolve(page.substring(0, 2)).resolve(page + ".json.gz"));
+            missing = parser.exportCsv(from, to, 1, dir.resolve("missing.csv"), new ExportProgress())
+                    .block(Duration.ofMinutes(1));
+        } finally {
+            ReflectionTestUtils.setField(pageCache, "mode", "off");
+        }
+
+        assertEquals(Files.readAllLines(recorded.path()), Files.readAllLines(replayed.path()));
+        // a miss fails the run; what was written before it stays in the journal
+        assertFalse(missing.complete());
+        assertTrue(missing.rows() <= 300, missing.rows() + " rows");
+        assertEquals(searches, server.searches(), "replay never asks the server");
+
+        ExportResult fetched = parser.exportCsv(from, to, 1, dir.resolve("missing.csv"), new ExportProgress())
+                .block(Duration.ofMinutes(1));
+        assertTrue(fetched.complete(), "without the cache the rerun fetches the rest from the server");
+        assertEquals(RECORDS, ids(fetched.path()).stream().distinct().count());
+        assertEquals(0, journals());
+    }
+}
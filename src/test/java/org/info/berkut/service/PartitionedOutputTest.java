@@ -0,0 +1,135 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PartitionedOutputTest {
+
+    private static final String HEADER = "id|name|date|checkpoint";
+    private static final String[] CHECKPOINTS = {"Хоргос", "Алматы (аэропорт)"};
+    private static final String KHORGOS = "%D0%A5%D0%BE%D1%80%D0%B3%D0%BE%D1%81";
+    private static final String ALMATY = "%D0%90%D0%BB%D0%BC%D0%B0%D1%82%D1%8B%20%28%D0%B0%D1%8D%D1%80%D0%BE%D0%BF%D0%BE%D1%80%D1%82%29";
+
+    @Test
+    void splitsByDayAndCheckpointIntoRollingParts(@TempDir Path dir) throws IOException, NoSuchAlgorithmException {
+        OffsetDateTime origin = OffsetDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneOffset.ofHours(5));
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 9000; i++) {
+            // one row a minute, over a bit more than six days
+            rows.add((i + 1) + "|name " + i + "|" + TimeWindow.format(origin.plusMinutes(i)) + "|" + CHECKPOINTS[i % 2]);
+        }
+        Path csv = dir.resolve("result.csv");
+        List<String> lines = new ArrayList<>(List.of(HEADER));
+        lines.addAll(rows);
+        Files.write(csv, lines);
+        Path out = dir.resolve("result-parts");
+
+        PartitionedOutput.Manifest manifest = PartitionedOutput.write(csv, out, PartitionedOutput.Scheme.DAY_CHECKPOINT,
+                16 * 1024, 3, new ObjectMapper());
+
+        assertEquals(9000, manifest.rows());
+        List<String> partitions = manifest.parts().stream().map(PartitionedOutput.Part::partition).distinct().toList();
+        assertEquals(List.of(
+                "day=2024-01-01/checkpoint=" + ALMATY, "day=2024-01-01/checkpoint=" + KHORGOS,
+                "day=2024-01-02/checkpoint=" + ALMATY, "day=2024-01-02/checkpoint=" + KHORGOS,
+                "day=2024-01-03/checkpoint=" + ALMATY, "day=2024-01-03/checkpoint=" + KHORGOS,
+                "day=2024-01-04/checkpoint=" + ALMATY, "day=2024-01-04/checkpoint=" + KHORGOS,
+                "day=2024-01-05/checkpoint=" + ALMATY, "day=2024-01-05/checkpoint=" + KHORGOS,
+                "day=2024-01-06/checkpoint=" + ALMATY, "day=2024-01-06/checkpoint=" + KHORGOS,
+                "day=2024-01-07/checkpoint=" + ALMATY, "day=2024-01-07/checkpoint=" + KHORGOS), partitions);
+        assertTrue(manifest.parts().size() > partitions.size(), "parts roll over");
+
+        // every part is what the manifest says, and the rows of a partition keep their order
+        List<String> all = new ArrayList<>();
+        for (PartitionedOutput.Part part : manifest.parts()) {
+            Path file = out.resolve(part.file());
+            byte[] bytes = Files.readAllBytes(file);
+            assertEquals(part.bytes(), bytes.length);
+            assertEquals(part.sha256(), HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes)));
+            List<String> partLines = Files.readAllLines(file);
+            assertEquals(HEADER, partLines.get(0));
+            assertEquals(part.rows(), partLines.size() - 1);
+            all.addAll(partLines.subList(1, partLines.size()));
+        }
+        List<String> expected = new ArrayList<>();
+        for (String partition : partitions) {
+            rows.stream().filter(row -> partition.endsWith(PartitionedOutput.directoryName(row.substring(row.lastIndexOf('|') + 1)))
+                    && partition.startsWith("day=" + row.split("\\|")[2].substring(0, 10))).forEach(expected::add);
+        }
+        assertEquals(expected, all);
+        assertTrue(Files.exists(out.resolve(PartitionedOutput.MANIFEST)));
+        assertTrue(Files.notExists(dir.resolve("result-parts.tmp")));
+    }
+
+    @Test
+    void routesEscapedRowsByTheirUnescapedFields(@TempDir Path dir) throws IOException {
+        String multiline = CsvFormat.join("1", "two\nlines", "2024-01-01T10:00:00+05:00", "Хоргос");
+        String quoted = CsvFormat.join("2", "a|b", "2024-01-02T10:00:00+05:00", "Хоргос | Пост 2");
+        Path csv = dir.resolve("result.csv");
+        Files.writeString(csv, HEADER + "\n" + multiline + "\n" + quoted + "\n");
+        Path out = dir.resolve("result-parts");
+
+        PartitionedOutput.Manifest manifest = PartitionedOutput.write(csv, out, PartitionedOutput.Scheme.DAY_CHECKPOINT,
+                1 << 20, 2, new ObjectMapper());
+
+        assertEquals(2, manifest.rows());
+        assertEquals(List.of("day=2024-01-01/checkpoint=" + KHORGOS,
+                        "day=2024-01-02/checkpoint=" + PartitionedOutput.directoryName("Хоргос | Пост 2")),
+                manifest.parts().stream().map(PartitionedOutput.Part::partition).toList());
+        assertEquals(HEADER + "\n" + multiline + "\n", Files.readString(out.resolve(manifest.parts().get(0).file())));
+    }
+
+    @Test
+    void closesPartitionsTheInputHasMovedPastAndReopensThemInANewPart(@TempDir Path dir) throws IOException {
+        OffsetDateTime origin = OffsetDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneOffset.ofHours(5));
+        String[] checkpoints = {"Хоргос", "Алматы (аэропорт)", "Достык", "Нур Жолы"};
+        List<String> rows = new ArrayList<>();
+        // 90 days of four checkpoints, far more partitions than are kept open
+        for (int i = 0; i < 90 * 48; i++) {
+            rows.add((i + 1) + "|name " + i + "|" + TimeWindow.format(origin.plusMinutes(30L * i)) + "|" + checkpoints[i % 4]);
+        }
+        // and a few late rows for the first partition, long after it was closed
+        for (int i = 0; i < 3; i++) {
+            rows.add("late " + i + "|name|" + TimeWindow.format(origin.plusHours(1)) + "|" + checkpoints[0]);
+        }
+        Path csv = dir.resolve("result.csv");
+        List<String> lines = new ArrayList<>(List.of(HEADER));
+        lines.addAll(rows);
+        Files.write(csv, lines);
+        Path out = dir.resolve("result-parts");
+
+        PartitionedOutput.Manifest manifest = PartitionedOutput.write(csv, out, PartitionedOutput.Scheme.DAY_CHECKPOINT,
+                1 << 20, 3, new ObjectMapper());
+
+        assertEquals(rows.size(), manifest.rows());
+        assertTrue(360 > PartitionedOutput.MAX_OPEN_PARTS);
+        assertEquals(361, manifest.parts().size());
+        String first = "day=2024-01-01/checkpoint=" + KHORGOS;
+        List<PartitionedOutput.Part> reopened = manifest.parts().stream().filter(part -> part.partition().equals(first)).toList();
+        assertEquals(List.of(first + "/part-00000.csv", first + "/part-00001.csv"),
+                reopened.stream().map(PartitionedOutput.Part::file).toList());
+        assertEquals(List.of(12L, 3L), reopened.stream().map(PartitionedOutput.Part::rows).toList());
+        List<String> late = Files.readAllLines(out.resolve(reopened.get(1).file()));
+        assertEquals(List.of(HEADER, rows.get(rows.size() - 3), rows.get(rows.size() - 2), rows.get(rows.size() - 1)), late);
+        for (PartitionedOutput.Part part : manifest.parts()) {
+            Path file = out.resolve(part.file());
+            assertEquals(part.bytes(), Files.size(file));
+            assertEquals(part.rows() + 1, Files.readAllLines(file).size());
+        }
+    }
+}
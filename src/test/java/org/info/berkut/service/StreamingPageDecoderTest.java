@@ -0,0 +1,82 @@
+package org.info.berkut.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingPageDecoderTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final PageDecoder tree = new TreePageDecoder(mapper);
+    private final PageDecoder streaming = new StreamingPageDecoder(mapper);
+
+    @Test
+    void matchesTreeDecoderOnEdgeCaseFixture() throws IOException {
+        byte[] body = fixture("fixtures/crossing-facts-edge-cases.json");
+
+        DecodedPage expected = tree.decode(new ByteArrayInputStream(body));
+        DecodedPage actual = streaming.decode(new ByteArrayInputStream(body));
+
+        assertFalse(expected.rows().isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void filtersBeforeFormattingAndCountsEveryItem() throws IOException {
+        byte[] body = fixture("fixtures/crossing-facts-page-200.json");
+        DecodedPage all = streaming.decode(new ByteArrayInputStream(body));
+        List<String> columns = List.of(Parser.HEADER.split("\\|", -1));
+        int checkpoint = columns.indexOf("checkpoint");
+        String value = all.rows().get(0).split("\\|", -1)[checkpoint];
+        ExportFilter filter = ExportFilter.compile(List.of("checkpoint=" + value), Parser.HEADER,
+                StreamingPageDecoder::sourcePath, Set.of());
+
+        DecodedPage expected = tree.decode(new ByteArrayInputStream(body), filter);
+        DecodedPage actual = streaming.decode(new ByteArrayInputStream(body), filter);
+
+        assertEquals(expected, actual);
+        assertEquals(all.items(), actual.items());
+        assertEquals(all.lastStatusDatetime(), actual.lastStatusDatetime());
+        assertEquals(all.rows().stream().filter(row -> row.split("\\|", -1)[checkpoint].equals(value)).toList(),
+                actual.rows());
+        assertTrue(actual.rows().size() < all.rows().size(), "the fixture has more than one checkpoint");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "{}",
+            "[]",
+            "{\"page\":null}",
+            "{\"page\":{\"totalPages\":\"3\",\"totalElements\":\"12\"}}",
+            "{\"page\":{\"totalPages\":0,\"totalElements\":0},\"_embedded\":{\"content\":[]}}",
+            "{\"_embedded\":{\"content\":{\"id\":1}}}",
+            "{\"_embedded\":null}",
+            "{\"_embedded\":{\"content\":[{\"id\":1}]},\"_embedded\":{\"other\":1}}",
+            "{\"_embedded\":{\"content\":[{\"id\":1}],\"content\":[{\"id\":2},{\"id\":3}]}}",
+            "{\"_embedded\":{\"content\":[{\"id\":1.0,\"document\":{\"iin\":1e3}}]},\"page\":{\"totalPages\":1}}"
+    })
+    void matchesTreeDecoderOnSmallBodies(String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(tree.decode(new ByteArrayInputStream(body)), streaming.decode(new ByteArrayInputStream(body)));
+    }
+
+    private byte[] fixture(String name) throws IOException {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(name)) {
+            return in.readAllBytes();
+        }
+    }
+}
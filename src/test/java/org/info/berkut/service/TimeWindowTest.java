@@ -0,0 +1,64 @@
+package org.info.berkut.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TimeWindowTest {
+
+    @Test
+    void splitsAtEveryDayBoundaryInTheOffsetOfFrom() {
+        List<TimeWindow> windows = TimeWindow.split("2025-01-01T22:30:00+05:00", "2025-01-03T01:00:00+05:00",
+                ChronoUnit.DAYS);
+
+        assertEquals(List.of(
+                new TimeWindow("2025-01-01T22:30:00+05:00", "2025-01-01T23:59:59.999+05:00"),
+                new TimeWindow("2025-01-02T00:00:00+05:00", "2025-01-02T23:59:59.999+05:00"),
+                new TimeWindow("2025-01-03T00:00:00+05:00", "2025-01-03T01:00:00+05:00")), windows);
+    }
+
+    @Test
+    void keepsARangeInsideOneUnitWhole() {
+        TimeWindow range = new TimeWindow("2025-01-01T08:15:00+05:00", "2025-01-01T08:45:00+05:00");
+
+        assertEquals(List.of(range), TimeWindow.split(range.from(), range.to(), ChronoUnit.HOURS));
+    }
+
+    @Test
+    void toIsInclusiveEvenWhenItFallsOnABoundary() {
+        List<TimeWindow> windows = TimeWindow.split("2025-01-01T08:00:00+05:00", "2025-01-01T10:00:00+05:00",
+                ChronoUnit.HOURS);
+
+        assertEquals(3, windows.size());
+        // a record stamped exactly at "to" still has a window of its own
+        assertEquals(new TimeWindow("2025-01-01T10:00:00+05:00", "2025-01-01T10:00:00+05:00"), windows.get(2));
+        for (int i = 1; i < windows.size(); i++) {
+            assertEquals(windows.get(i - 1).end().plus(1, ChronoUnit.MILLIS), windows.get(i).start());
+        }
+    }
+
+    @Test
+    void halvesAtAWholeSecondWithoutAGap() {
+        TimeWindow window = new TimeWindow("2025-01-01T00:00:00+05:00", "2025-01-01T00:59:59+05:00");
+
+        List<TimeWindow> halves = window.halves();
+
+        assertEquals(List.of(
+                new TimeWindow("2025-01-01T00:00:00+05:00", "2025-01-01T00:29:58.999+05:00"),
+                new TimeWindow("2025-01-01T00:29:59+05:00", "2025-01-01T00:59:59+05:00")), halves);
+    }
+
+    @Test
+    void keepsAWindowWholeThatCannotBeCutAtASecond() {
+        TimeWindow window = new TimeWindow("2025-01-01T00:00:00+05:00", "2025-01-01T00:00:01.900+05:00");
+        TimeWindow offTheSecond = new TimeWindow("2025-01-01T00:00:00.500+05:00", "2025-01-01T00:00:02.400+05:00");
+
+        assertEquals(List.of(window), window.halves());
+        assertEquals(List.of(
+                new TimeWindow("2025-01-01T00:00:00.500+05:00", "2025-01-01T00:00:00.999+05:00"),
+                new TimeWindow("2025-01-01T00:00:01+05:00", "2025-01-01T00:00:02.400+05:00")), offTheSecond.halves());
+    }
+}
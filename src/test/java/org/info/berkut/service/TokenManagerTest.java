@@ -0,0 +1,123 @@
+package org.info.berkut.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.info.berkut.fake.FakeBerkutServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TokenManagerTest {
+
+    private FakeBerkutServer server;
+
+    @AfterEach
+    void stop() {
+        server.close();
+    }
+
+    private TokenManager tokens(FakeBerkutServer.Settings settings) {
+        server = FakeBerkutServer.start(settings.credentials("export", "test"));
+        TokenManager tokens = new TokenManager(WebClient.create(), new ExportMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(tokens, "baseUrl", server.baseUrl());
+        ReflectionTestUtils.setField(tokens, "username", "export");
+        ReflectionTestUtils.setField(tokens, "password", "test");
+        ReflectionTestUtils.setField(tokens, "clientId", "acme");
+        ReflectionTestUtils.setField(tokens, "clientSecret", "acmesecret");
+        ReflectionTestUtils.setField(tokens, "redirectUri", "https://center.berkut/app/ru/");
+        return tokens;
+    }
+
+    @Test
+    void concurrentCallersAfterExpiryShareOneLogin() throws InterruptedException {
+        TokenManager tokens = tokens(new FakeBerkutServer.Settings()
+                .tokenTtl(Duration.ofSeconds(1))
+                .issueRefreshTokens(false));
+        String first = tokens.token().block(Duration.ofSeconds(10));
+        assertEquals(1, server.logins());
+
+        Thread.sleep(1100);
+        List<String> next = Flux.range(0, 32)
+                .flatMap(i -> tokens.token().subscribeOn(Schedulers.parallel()))
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertEquals(2, server.logins(), "one login for all callers that found the token expired");
+        assertEquals(1, next.stream().distinct().count());
+        assertNotEquals(first, next.get(0));
+    }
+
+    @Test
+    void failedLoginIsRetriedByTheNextCaller() {
+        TokenManager tokens = tokens(new FakeBerkutServer.Settings());
+        server.settings().credentials("export", "changed");
+
+        assertThrows(RuntimeException.class, () -> tokens.token().block(Duration.ofSeconds(10)));
+        assertEquals(0, server.logins());
+
+        server.settings().credentials("export", "test");
+        String token = tokens.token().block(Duration.ofSeconds(10));
+
+        assertEquals(1, server.logins(), "the failure is not handed to later callers");
+        assertEquals(token, tokens.token().block(Duration.ofSeconds(10)));
+        assertEquals(1, server.logins());
+    }
+
+    @Test
+    void expiredTokenIsRefreshedWithTheRefreshToken() throws InterruptedException {
+        TokenManager tokens = tokens(new FakeBerkutServer.Settings().tokenTtl(Duration.ofSeconds(1)));
+        String first = tokens.token().block(Duration.ofSeconds(10));
+
+        Thread.sleep(1100);
+        String next = tokens.token().block(Duration.ofSeconds(10));
+
+        assertNotEquals(first, next);
+        assertEquals(1, server.logins());
+        assertEquals(1, server.refreshes());
+    }
+
+    @Test
+    void rejectedRefreshTokenFallsBackToALogin() throws InterruptedException {
+        TokenManager tokens = tokens(new FakeBerkutServer.Settings().tokenTtl(Duration.ofSeconds(1)));
+        String first = tokens.token().block(Duration.ofSeconds(10));
+        server.revokeRefreshTokens();
+
+        Thread.sleep(1100);
+        String next = tokens.token().block(Duration.ofSeconds(10));
+
+        assertNotEquals(first, next);
+        assertEquals(2, server.logins());
+        assertEquals(0, server.refreshes());
+    }
+
+    @Test
+    void refreshesAheadOfExpiryWithoutMakingTheCallerWait() throws InterruptedException {
+        TokenManager tokens = tokens(new FakeBerkutServer.Settings().tokenTtl(Duration.ofSeconds(2)));
+        ReflectionTestUtils.setField(tokens, "refreshSkewSeconds", 1L);
+        String first = tokens.token().block(Duration.ofSeconds(10));
+
+        // inside the last second: still valid, so it is handed out while the refresh runs
+        Thread.sleep(1100);
+        assertEquals(first, tokens.token().block(Duration.ofSeconds(10)));
+        // later callers keep getting it, and start no second refresh, until the new token is in
+        String next = first;
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (next.equals(first) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            next = tokens.token().block(Duration.ofSeconds(10));
+        }
+
+        assertNotEquals(first, next);
+        assertEquals(1, server.logins());
+        assertEquals(1, server.refreshes(), "the fresh token is not near its expiry yet");
+    }
+}